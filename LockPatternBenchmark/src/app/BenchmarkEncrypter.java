@@ -0,0 +1,52 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package app;
+
+import haibison.android.lockpattern.util.IEncrypter;
+import haibison.android.lockpattern.util.SimpleWeakEncryption;
+import haibison.android.lockpattern.widget.LockPatternUtils;
+import haibison.android.lockpattern.widget.LockPatternView.Cell;
+
+import java.util.List;
+
+import android.content.Context;
+
+/**
+ * Encrypter which is used by the scenarios "with encrypter" of
+ * {@link StartupBenchmark}. It does the same work as a typical encrypter: it
+ * encrypts the pattern with {@link SimpleWeakEncryption}, using the package
+ * name as the password.
+ *
+ * @author Hai Bison
+ */
+public class BenchmarkEncrypter implements IEncrypter {
+
+    @Override
+    public char[] encrypt(Context context, List<Cell> pattern) {
+        return SimpleWeakEncryption.encrypt(
+                context.getPackageName().toCharArray(), null,
+                LockPatternUtils.patternToString(pattern)).toCharArray();
+    }// encrypt()
+
+    @Override
+    public List<Cell> decrypt(Context context, char[] encryptedPattern) {
+        return LockPatternUtils.stringToPattern(SimpleWeakEncryption.decrypt(
+                context.getPackageName().toCharArray(), null, new String(
+                        encryptedPattern)));
+    }// decrypt()
+
+}
@@ -0,0 +1,552 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package app;
+
+import haibison.android.lockpattern.LockPatternActivity;
+import haibison.android.lockpattern.util.AlpSettings;
+import haibison.android.lockpattern.widget.LockPatternUtils;
+import haibison.android.lockpattern.widget.LockPatternView.Cell;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.app.Activity;
+import android.app.Application;
+import android.app.Application.ActivityLifecycleCallbacks;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Startup benchmark of {@link LockPatternActivity}.
+ * <p/>
+ * It launches the activity with {@link LockPatternActivity#ACTION_CREATE_PATTERN},
+ * {@link LockPatternActivity#ACTION_COMPARE_PATTERN} and
+ * {@link LockPatternActivity#ACTION_VERIFY_CAPTCHA}, each one with and without
+ * an encrypter. For each launch it measures:
+ * <ul>
+ * <li>the time from {@code onCreate()} to the end of the first frame;</li>
+ * <li>the number of allocations in the same period;</li>
+ * <li>the time to load the settings ({@link AlpSettings#getSnapshot(Context)})
+ * from the storage.</li>
+ * </ul>
+ * The first launch of each scenario is reported on its own, it includes class
+ * loading and the first instantiation of the encrypter. The next launches are
+ * warm-up launches, then the measured ones. The benchmark fails if the 90th
+ * percentile of a measured value is above its threshold.
+ * <p/>
+ * Run it with:
+ *
+ * <pre>
+ * adb shell am instrument -w [-e name value...] haibison.benchmark.lockpattern/app.StartupBenchmark
+ * </pre>
+ *
+ * Arguments:
+ * <ul>
+ * <li>{@link #ARG_ITERATIONS}, default {@link #DEFAULT_ITERATIONS};</li>
+ * <li>{@link #ARG_WARM_UP}, default {@link #DEFAULT_WARM_UP};</li>
+ * <li>{@link #ARG_MAX_STARTUP_MS}, default {@link #DEFAULT_MAX_STARTUP_MS};</li>
+ * <li>{@link #ARG_MAX_ALLOCATIONS}, default
+ * {@link #DEFAULT_MAX_ALLOCATIONS};</li>
+ * <li>{@link #ARG_MAX_SETTINGS_LOAD_MS}, default
+ * {@link #DEFAULT_MAX_SETTINGS_LOAD_MS}.</li>
+ * </ul>
+ * The result code is {@link Activity#RESULT_OK} if all scenarios pass,
+ * {@link Activity#RESULT_CANCELED} if not.
+ *
+ * @author Hai Bison
+ */
+public class StartupBenchmark extends Instrumentation {
+
+    private static final String CLASSNAME = StartupBenchmark.class.getName();
+
+    /**
+     * Number of measured launches of each scenario.
+     */
+    public static final String ARG_ITERATIONS = "iterations";
+
+    /**
+     * Number of warm-up launches of each scenario, after the first one.
+     */
+    public static final String ARG_WARM_UP = "warmUp";
+
+    /**
+     * Threshold of the 90th percentile of startup time, in milliseconds.
+     */
+    public static final String ARG_MAX_STARTUP_MS = "maxStartupMs";
+
+    /**
+     * Threshold of the 90th percentile of allocation count.
+     */
+    public static final String ARG_MAX_ALLOCATIONS = "maxAllocations";
+
+    /**
+     * Threshold of the 90th percentile of settings load time, in
+     * milliseconds.
+     */
+    public static final String ARG_MAX_SETTINGS_LOAD_MS = "maxSettingsLoadMs";
+
+    public static final int DEFAULT_ITERATIONS = 20;
+    public static final int DEFAULT_WARM_UP = 3;
+    public static final int DEFAULT_MAX_STARTUP_MS = 400;
+    public static final int DEFAULT_MAX_ALLOCATIONS = 15000;
+    public static final int DEFAULT_MAX_SETTINGS_LOAD_MS = 15;
+
+    /**
+     * Maximum time to wait for the first frame of a launch, in milliseconds.
+     */
+    private static final long FIRST_FRAME_TIMEOUT = 10000;
+
+    /**
+     * The stored pattern of the scenarios with
+     * {@link LockPatternActivity#ACTION_COMPARE_PATTERN}.
+     */
+    private static final List<Cell> PATTERN = Arrays.asList(Cell.of(0),
+            Cell.of(1), Cell.of(2), Cell.of(4), Cell.of(6));
+
+    /**
+     * The scenarios.
+     */
+    private static final Scenario[] SCENARIOS = {
+            new Scenario(LockPatternActivity.ACTION_CREATE_PATTERN, false),
+            new Scenario(LockPatternActivity.ACTION_CREATE_PATTERN, true),
+            new Scenario(LockPatternActivity.ACTION_COMPARE_PATTERN, false),
+            new Scenario(LockPatternActivity.ACTION_COMPARE_PATTERN, true),
+            new Scenario(LockPatternActivity.ACTION_VERIFY_CAPTCHA, false),
+            new Scenario(LockPatternActivity.ACTION_VERIFY_CAPTCHA, true) };
+
+    private int mIterations;
+    private int mWarmUp;
+    private int mMaxStartupMs;
+    private int mMaxAllocations;
+    private int mMaxSettingsLoadMs;
+
+    private final LaunchTracker mTracker = new LaunchTracker();
+
+    @Override
+    public void onCreate(Bundle arguments) {
+        super.onCreate(arguments);
+
+        mIterations = getIntArgument(arguments, ARG_ITERATIONS,
+                DEFAULT_ITERATIONS);
+        mWarmUp = getIntArgument(arguments, ARG_WARM_UP, DEFAULT_WARM_UP);
+        mMaxStartupMs = getIntArgument(arguments, ARG_MAX_STARTUP_MS,
+                DEFAULT_MAX_STARTUP_MS);
+        mMaxAllocations = getIntArgument(arguments, ARG_MAX_ALLOCATIONS,
+                DEFAULT_MAX_ALLOCATIONS);
+        mMaxSettingsLoadMs = getIntArgument(arguments,
+                ARG_MAX_SETTINGS_LOAD_MS, DEFAULT_MAX_SETTINGS_LOAD_MS);
+
+        start();
+    }// onCreate()
+
+    @Override
+    public void onStart() {
+        super.onStart();
+
+        final Context context = getTargetContext();
+        final Application application = (Application) context
+                .getApplicationContext();
+        application.registerActivityLifecycleCallbacks(mTracker);
+
+        final Bundle results = new Bundle();
+        boolean passed = true;
+        try {
+            for (Scenario scenario : SCENARIOS) {
+                final Bundle report = run(context, scenario);
+                passed &= report.getBoolean(scenario.name + ".passed");
+                results.putAll(report);
+                sendStatus(0, report);
+            }
+        } catch (Throwable t) {
+            Log.e(CLASSNAME, t.getMessage(), t);
+            results.putString(REPORT_KEY_STREAMRESULT, "\nError: " + t + "\n");
+            passed = false;
+        } finally {
+            application.unregisterActivityLifecycleCallbacks(mTracker);
+            AlpSettings.Security.setEncrypterClass(context, (char[]) null);
+        }
+
+        results.putBoolean("passed", passed);
+        finish(passed ? Activity.RESULT_OK : Activity.RESULT_CANCELED, results);
+    }// onStart()
+
+    /**
+     * Runs a scenario.
+     *
+     * @param context
+     *            the context.
+     * @param scenario
+     *            the scenario.
+     * @return the report.
+     * @throws InterruptedException
+     *             if the thread is interrupted.
+     */
+    private Bundle run(Context context, Scenario scenario)
+            throws InterruptedException {
+        if (scenario.withEncrypter)
+            AlpSettings.Security.setEncrypterClass(context,
+                    BenchmarkEncrypter.class);
+        else
+            AlpSettings.Security.setEncrypterClass(context, (char[]) null);
+
+        final char[] storedPattern = scenario.withEncrypter ? new BenchmarkEncrypter()
+                .encrypt(context, PATTERN) : LockPatternUtils.patternToSha1(
+                PATTERN).toCharArray();
+
+        final long[] startupTimes = new long[mIterations];
+        final long[] allocations = new long[mIterations];
+        final long[] settingsLoadTimes = new long[mIterations];
+        long firstStartupTime = 0;
+        for (int i = -1 - mWarmUp; i < mIterations; i++) {
+            final long settingsLoadTime = measureSettingsLoad(context);
+            final Launch launch = launch(scenario.newIntent(context,
+                    storedPattern));
+            if (i == -1 - mWarmUp)
+                firstStartupTime = launch.startupTime;
+            else if (i >= 0) {
+                startupTimes[i] = launch.startupTime;
+                allocations[i] = launch.allocations;
+                settingsLoadTimes[i] = settingsLoadTime;
+            }
+        }// for
+
+        Arrays.sort(startupTimes);
+        Arrays.sort(allocations);
+        Arrays.sort(settingsLoadTimes);
+
+        final boolean passed = percentile(startupTimes, 90) <= TimeUnit.MILLISECONDS
+                .toNanos(mMaxStartupMs)
+                && percentile(allocations, 90) <= mMaxAllocations
+                && percentile(settingsLoadTimes, 90) <= TimeUnit.MILLISECONDS
+                        .toNanos(mMaxSettingsLoadMs);
+
+        final StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.US, "\n%s: %s\n", scenario.name,
+                passed ? "PASSED" : "FAILED"));
+        text.append(String.format(Locale.US, "  first launch: %.2f ms\n",
+                firstStartupTime / 1e6));
+        text.append(formatPercentiles("startup (ms)", startupTimes, 1e6,
+                mMaxStartupMs));
+        text.append(formatPercentiles("allocations", allocations, 1,
+                mMaxAllocations));
+        text.append(formatPercentiles("settings load (ms)", settingsLoadTimes,
+                1e6, mMaxSettingsLoadMs));
+
+        final Bundle result = new Bundle();
+        result.putString(REPORT_KEY_STREAMRESULT, text.toString());
+        result.putBoolean(scenario.name + ".passed", passed);
+        result.putLong(scenario.name + ".first_startup_ns", firstStartupTime);
+        putPercentiles(result, scenario.name + ".startup_ns", startupTimes);
+        putPercentiles(result, scenario.name + ".allocations", allocations);
+        putPercentiles(result, scenario.name + ".settings_load_ns",
+                settingsLoadTimes);
+        return result;
+    }// run()
+
+    /**
+     * Measures the time to load the settings from the storage. The cached
+     * snapshot is dropped before and after the measurement, so the next launch
+     * loads the settings again.
+     *
+     * @param context
+     *            the context.
+     * @return the time, in nanoseconds.
+     */
+    private static long measureSettingsLoad(Context context) {
+        AlpSettings.setStorage(AlpSettings.getStorage());
+        final long start = System.nanoTime();
+        AlpSettings.getSnapshot(context);
+        final long result = System.nanoTime() - start;
+        AlpSettings.setStorage(AlpSettings.getStorage());
+        return result;
+    }// measureSettingsLoad()
+
+    /**
+     * Launches {@link LockPatternActivity}, waits for its first frame, then
+     * finishes it.
+     *
+     * @param intent
+     *            the intent.
+     * @return the measurement of the launch.
+     * @throws InterruptedException
+     *             if the thread is interrupted.
+     */
+    private Launch launch(Intent intent) throws InterruptedException {
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+
+        final CountDownLatch latch = mTracker.arm();
+        final Activity activity = startActivitySync(intent);
+        try {
+            if (!latch.await(FIRST_FRAME_TIMEOUT, TimeUnit.MILLISECONDS))
+                throw new IllegalStateException("Timed out waiting for "
+                        + intent.getAction());
+            return mTracker.getLaunch();
+        } finally {
+            runOnMainSync(new Runnable() {
+
+                @Override
+                public void run() {
+                    activity.finish();
+                }// run()
+
+            });
+            waitForIdleSync();
+
+            /*
+             * Let the next launch start with a clean heap.
+             */
+            Runtime.getRuntime().gc();
+            SystemClock.sleep(100);
+        }
+    }// launch()
+
+    /**
+     * Gets an integer argument.
+     *
+     * @param arguments
+     *            the arguments, can be {@code null}.
+     * @param key
+     *            the key.
+     * @param def
+     *            the default value.
+     * @return the argument.
+     */
+    private static int getIntArgument(Bundle arguments, String key, int def) {
+        final String value = arguments != null ? arguments.getString(key)
+                : null;
+        return value != null ? Integer.parseInt(value) : def;
+    }// getIntArgument()
+
+    /**
+     * Gets a percentile, using the nearest-rank method.
+     *
+     * @param sortedValues
+     *            the sorted values.
+     * @param percent
+     *            the percentile, {@code 1..100}.
+     * @return the value.
+     */
+    private static long percentile(long[] sortedValues, int percent) {
+        if (sortedValues.length == 0)
+            return 0;
+
+        final int rank = (int) Math.ceil(percent / 100d * sortedValues.length);
+        return sortedValues[Math.max(rank, 1) - 1];
+    }// percentile()
+
+    /**
+     * Formats the percentiles of a measured value.
+     *
+     * @param label
+     *            the label.
+     * @param sortedValues
+     *            the sorted values.
+     * @param divisor
+     *            the divisor to convert the values into the displayed unit.
+     * @param threshold
+     *            the threshold of the 90th percentile, in the displayed unit.
+     * @return the text.
+     */
+    private static String formatPercentiles(String label, long[] sortedValues,
+            double divisor, int threshold) {
+        return String.format(Locale.US,
+                "  %s: p50 %.2f, p90 %.2f (max %d), p99 %.2f\n", label,
+                percentile(sortedValues, 50) / divisor,
+                percentile(sortedValues, 90) / divisor, threshold,
+                percentile(sortedValues, 99) / divisor);
+    }// formatPercentiles()
+
+    /**
+     * Puts the percentiles of a measured value into {@code bundle}.
+     *
+     * @param bundle
+     *            the bundle.
+     * @param key
+     *            the key prefix.
+     * @param sortedValues
+     *            the sorted values.
+     */
+    private static void putPercentiles(Bundle bundle, String key,
+            long[] sortedValues) {
+        bundle.putLong(key + ".p50", percentile(sortedValues, 50));
+        bundle.putLong(key + ".p90", percentile(sortedValues, 90));
+        bundle.putLong(key + ".p99", percentile(sortedValues, 99));
+    }// putPercentiles()
+
+    /**
+     * A scenario of the benchmark.
+     */
+    private static class Scenario {
+
+        final String action;
+        final boolean withEncrypter;
+        final String name;
+
+        Scenario(String action, boolean withEncrypter) {
+            this.action = action;
+            this.withEncrypter = withEncrypter;
+            this.name = action.substring(action.lastIndexOf('.') + 1)
+                    + (withEncrypter ? "+encrypter" : "");
+        }// Scenario()
+
+        /**
+         * Creates new intent to launch {@link LockPatternActivity}.
+         *
+         * @param context
+         *            the context.
+         * @param storedPattern
+         *            the stored pattern, used with
+         *            {@link LockPatternActivity#ACTION_COMPARE_PATTERN}.
+         * @return the intent.
+         */
+        Intent newIntent(Context context, char[] storedPattern) {
+            if (LockPatternActivity.ACTION_COMPARE_PATTERN.equals(action))
+                return LockPatternActivity.newIntentToComparePattern(context,
+                        storedPattern);
+            if (LockPatternActivity.ACTION_VERIFY_CAPTCHA.equals(action))
+                return LockPatternActivity.newIntentToVerifyCaptcha(context);
+            return LockPatternActivity.newIntentToCreatePattern(context);
+        }// newIntent()
+
+    }// Scenario
+
+    /**
+     * The measurement of a launch.
+     */
+    private static class Launch {
+
+        long startupTime;
+        long allocations;
+
+    }// Launch
+
+    /**
+     * Tracks the launches of {@link LockPatternActivity}.
+     * <p/>
+     * {@link #onActivityCreated(Activity, Bundle)} is called from
+     * {@link Activity#onCreate(Bundle)}, the measurement starts there. It stops
+     * when the first frame has been drawn: the listener of the first pre-draw
+     * pass posts a runnable, which runs after the traversal.
+     */
+    private static class LaunchTracker implements ActivityLifecycleCallbacks {
+
+        private volatile CountDownLatch mLatch;
+        private volatile Launch mLaunch;
+        private long mCreatedAt;
+
+        /**
+         * Prepares for a new launch.
+         *
+         * @return the latch which is released after the first frame.
+         */
+        CountDownLatch arm() {
+            mLaunch = null;
+            mLatch = new CountDownLatch(1);
+            return mLatch;
+        }// arm()
+
+        /**
+         * Gets the measurement of the last launch.
+         *
+         * @return the measurement.
+         */
+        Launch getLaunch() {
+            return mLaunch;
+        }// getLaunch()
+
+        @Override
+        public void onActivityCreated(Activity activity,
+                Bundle savedInstanceState) {
+            if (!(activity instanceof LockPatternActivity))
+                return;
+
+            Debug.resetGlobalAllocCount();
+            Debug.startAllocCounting();
+            mCreatedAt = System.nanoTime();
+        }// onActivityCreated()
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+            if (!(activity instanceof LockPatternActivity) || mLaunch != null)
+                return;
+
+            final View decorView = activity.getWindow().getDecorView();
+            decorView.getViewTreeObserver().addOnPreDrawListener(
+                    new ViewTreeObserver.OnPreDrawListener() {
+
+                        @Override
+                        public boolean onPreDraw() {
+                            decorView.getViewTreeObserver()
+                                    .removeOnPreDrawListener(this);
+                            decorView.post(mFirstFrameRecorder);
+                            return true;
+                        }// onPreDraw()
+
+                    });
+        }// onActivityResumed()
+
+        private final Runnable mFirstFrameRecorder = new Runnable() {
+
+            @Override
+            public void run() {
+                final Launch launch = new Launch();
+                launch.startupTime = System.nanoTime() - mCreatedAt;
+                launch.allocations = Debug.getGlobalAllocCount();
+                Debug.stopAllocCounting();
+
+                mLaunch = launch;
+                final CountDownLatch latch = mLatch;
+                if (latch != null)
+                    latch.countDown();
+            }// run()
+
+        };
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }// onActivityStarted()
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }// onActivityPaused()
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }// onActivityStopped()
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity,
+                Bundle outState) {
+        }// onActivitySaveInstanceState()
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }// onActivityDestroyed()
+
+    }// LaunchTracker
+
+}
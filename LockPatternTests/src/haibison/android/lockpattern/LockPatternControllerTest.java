@@ -0,0 +1,625 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.android.lockpattern;
+
+import haibison.android.lockpattern.LockPatternController.Mode;
+import haibison.android.lockpattern.util.IAsyncEncrypter;
+import haibison.android.lockpattern.util.IEncrypter;
+import haibison.android.lockpattern.util.PatternStore;
+import haibison.android.lockpattern.widget.LockPatternUtils;
+import haibison.android.lockpattern.widget.LockPatternView;
+import haibison.android.lockpattern.widget.LockPatternView.Cell;
+import haibison.android.lockpattern.widget.LockPatternView.DisplayMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.View.MeasureSpec;
+
+/**
+ * Tests of {@link LockPatternController}. The controller is attached to the
+ * default layout, which is laid out off screen. Patterns are drawn with touch
+ * events on its {@link LockPatternView}.
+ *
+ * @author Hai Bison
+ */
+public class LockPatternControllerTest extends InstrumentationTestCase {
+
+    private static final String CLASSNAME = LockPatternControllerTest.class
+            .getName();
+
+    /**
+     * Maximum time to wait for a background operation, in milliseconds.
+     */
+    private static final long TIMEOUT = 5000;
+
+    private static final int MAX_RETRIES = 2;
+    private static final int MIN_WIRED_DOTS = 4;
+
+    private static final int[] PATTERN = { 0, 1, 2, 5 };
+    private static final int[] OTHER_PATTERN = { 6, 7, 8, 5 };
+    private static final int[] PROFILE_PATTERN = { 3, 4, 5, 8 };
+
+    private static final String PROFILE_ID = CLASSNAME + ".profile";
+    private static final String OTHER_PROFILE_ID = CLASSNAME + ".otherProfile";
+
+    private Context mContext;
+    private final RecordingCallback mCallback = new RecordingCallback();
+    private LockPatternController mController;
+    private View mRoot;
+    private LockPatternView mLockPatternView;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new ContextThemeWrapper(getInstrumentation()
+                .getTargetContext(), R.style.Alp_42447968_Theme_Dark);
+    }// setUp()
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mController != null) {
+            getInstrumentation().runOnMainSync(new Runnable() {
+
+                @Override
+                public void run() {
+                    mController.destroy();
+                }// run()
+
+            });
+        }
+
+        final PatternStore store = PatternStore.getInstance(mContext);
+        store.setPattern(PROFILE_ID, null);
+        store.setPattern(OTHER_PROFILE_ID, null);
+
+        super.tearDown();
+    }// tearDown()
+
+    public void testComparePatternMatches() throws Exception {
+        start(newController(Mode.COMPARE_PATTERN).setStoredPattern(
+                sha1(PATTERN)));
+
+        draw(PATTERN);
+        waitForEvents(1);
+        assertEquals(Arrays.asList("matched:1:null"), mCallback.getEvents());
+    }// testComparePatternMatches()
+
+    public void testComparePatternRetries() throws Exception {
+        start(newController(Mode.COMPARE_PATTERN).setStoredPattern(
+                sha1(PATTERN)));
+
+        draw(OTHER_PATTERN);
+        waitForEvents(1);
+        assertEquals(DisplayMode.Wrong, getDisplayMode());
+
+        draw(OTHER_PATTERN);
+        waitForEvents(2);
+        assertEquals(Arrays.asList("mismatched:1", "exceeded:2"),
+                mCallback.getEvents());
+    }// testComparePatternRetries()
+
+    public void testComparePatternMatchesAfterRetry() throws Exception {
+        start(newController(Mode.COMPARE_PATTERN).setStoredPattern(
+                sha1(PATTERN)));
+
+        draw(OTHER_PATTERN);
+        waitForEvents(1);
+        draw(PATTERN);
+        waitForEvents(2);
+        assertEquals(Arrays.asList("mismatched:1", "matched:2:null"),
+                mCallback.getEvents());
+    }// testComparePatternMatchesAfterRetry()
+
+    public void testCreatePattern() throws Exception {
+        start(newController(Mode.CREATE_PATTERN));
+
+        draw(PATTERN);
+        waitUntil(mConfirmEnabled);
+        click(R.id.alp_42447968_button_confirm);
+        assertFalse(check(mConfirmEnabled));
+
+        draw(PATTERN);
+        waitUntil(mConfirmEnabled);
+        click(R.id.alp_42447968_button_confirm);
+        waitForEvents(1);
+        assertEquals(Arrays.asList("created"), mCallback.getEvents());
+        assertEquals(new String(sha1(PATTERN)),
+                new String(mCallback.getCreatedPattern()));
+    }// testCreatePattern()
+
+    public void testCreatePatternConfirmMismatch() throws Exception {
+        start(newController(Mode.CREATE_PATTERN));
+
+        draw(PATTERN);
+        waitUntil(mConfirmEnabled);
+        click(R.id.alp_42447968_button_confirm);
+
+        draw(OTHER_PATTERN);
+        waitUntil(new Condition() {
+
+            @Override
+            public boolean isTrue() {
+                return mLockPatternView.getDisplayMode() == DisplayMode.Wrong;
+            }// isTrue()
+
+        });
+        assertFalse(check(mConfirmEnabled));
+        assertTrue(mCallback.getEvents().isEmpty());
+    }// testCreatePatternConfirmMismatch()
+
+    public void testCreatePatternTooShort() throws Exception {
+        start(newController(Mode.CREATE_PATTERN));
+
+        draw(0, 1);
+        assertEquals(DisplayMode.Wrong, getDisplayMode());
+        assertFalse(check(mConfirmEnabled));
+    }// testCreatePatternTooShort()
+
+    public void testCancel() throws Exception {
+        start(newController(Mode.CREATE_PATTERN));
+
+        click(R.id.alp_42447968_button_cancel);
+        assertEquals(Arrays.asList("cancelled:0"), mCallback.getEvents());
+    }// testCancel()
+
+    public void testIdentifyPattern() throws Exception {
+        final PatternStore store = PatternStore.getInstance(mContext);
+        store.setPattern(PROFILE_ID, sha1(PROFILE_PATTERN),
+                cells(PROFILE_PATTERN));
+        store.setPattern(OTHER_PROFILE_ID, sha1(PATTERN), cells(PATTERN));
+        start(newController(Mode.IDENTIFY_PATTERN));
+
+        draw(OTHER_PATTERN);
+        waitForEvents(1);
+        draw(PROFILE_PATTERN);
+        waitForEvents(2);
+        assertEquals(
+                Arrays.asList("mismatched:1", "matched:2:" + PROFILE_ID),
+                mCallback.getEvents());
+    }// testIdentifyPattern()
+
+    /**
+     * A result which comes after the user drew a new pattern is dropped, and
+     * the operation of the new pattern starts only then.
+     */
+    public void testSupersededResultIsDropped() throws Exception {
+        final ManualEncrypter encrypter = new ManualEncrypter();
+        start(newController(Mode.COMPARE_PATTERN).setEncrypter(encrypter)
+                .setStoredPattern("stored".toCharArray()));
+
+        draw(OTHER_PATTERN);
+        assertEquals(1, encrypter.getVerifyCount());
+
+        draw(PATTERN);
+        assertEquals(1, encrypter.getVerifyCount());
+
+        /*
+         * The first pattern was wrong, but even a positive result must be
+         * dropped now.
+         */
+        encrypter.complete(0, true);
+        assertTrue(mCallback.getEvents().isEmpty());
+        assertEquals(2, encrypter.getVerifyCount());
+        assertEquals(LockPatternUtils.patternToLong(cells(PATTERN)),
+                encrypter.getVerifiedPattern(1));
+
+        encrypter.complete(1, false);
+        assertEquals(Arrays.asList("mismatched:1"), mCallback.getEvents());
+        assertEquals(1, mController.getRetryCount());
+    }// testSupersededResultIsDropped()
+
+    /*
+     * HELPERS
+     */
+
+    /**
+     * Creates new controller on the UI thread, with fixed settings.
+     *
+     * @param mode
+     *            the mode.
+     * @return the controller.
+     */
+    private LockPatternController newController(final Mode mode) {
+        getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                mController = new LockPatternController(mContext, mode)
+                        .setCallback(mCallback)
+                        .setMinWiredDots(MIN_WIRED_DOTS)
+                        .setMaxRetries(MAX_RETRIES)
+                        .setAutoSavePattern(false).setStealthMode(false)
+                        .setEncrypter(null);
+            }// run()
+
+        });
+        return mController;
+    }// newController()
+
+    /**
+     * Inflates the default layout, attaches the controller to it, and lays
+     * it out.
+     *
+     * @param controller
+     *            the controller.
+     */
+    private void start(final LockPatternController controller) {
+        getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                mRoot = LockPatternController.inflate(
+                        LayoutInflater.from(mContext), null);
+                controller.attach(mRoot);
+
+                mRoot.measure(
+                        MeasureSpec.makeMeasureSpec(480, MeasureSpec.EXACTLY),
+                        MeasureSpec.makeMeasureSpec(800, MeasureSpec.EXACTLY));
+                mRoot.layout(0, 0, mRoot.getMeasuredWidth(),
+                        mRoot.getMeasuredHeight());
+
+                mLockPatternView = (LockPatternView) mRoot
+                        .findViewById(R.id.alp_42447968_view_lock_pattern);
+            }// run()
+
+        });
+
+        assertTrue(mLockPatternView.getWidth() > 0);
+        assertTrue(mLockPatternView.getHeight() > 0);
+    }// start()
+
+    /**
+     * Draws a pattern on the lock pattern view, on the UI thread.
+     *
+     * @param ids
+     *            the cell IDs.
+     */
+    private void draw(final int... ids) {
+        getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                final long time = SystemClock.uptimeMillis();
+                touch(MotionEvent.ACTION_DOWN, ids[0], time);
+                for (int i = 1; i < ids.length; i++)
+                    touch(MotionEvent.ACTION_MOVE, ids[i], time);
+                touch(MotionEvent.ACTION_UP, ids[ids.length - 1], time);
+            }// run()
+
+        });
+    }// draw()
+
+    /**
+     * Sends a touch event at the center of a cell.
+     *
+     * @param action
+     *            the action.
+     * @param id
+     *            the cell ID.
+     * @param downTime
+     *            the time of {@link MotionEvent#ACTION_DOWN}.
+     */
+    private void touch(int action, int id, long downTime) {
+        final Cell cell = Cell.of(id);
+        final LockPatternView view = mLockPatternView;
+        final float squareWidth = (view.getWidth() - view.getPaddingLeft() - view
+                .getPaddingRight()) / (float) LockPatternView.MATRIX_WIDTH;
+        final float squareHeight = (view.getHeight() - view.getPaddingTop() - view
+                .getPaddingBottom()) / (float) LockPatternView.MATRIX_WIDTH;
+
+        final MotionEvent event = MotionEvent.obtain(downTime,
+                SystemClock.uptimeMillis(), action, view.getPaddingLeft()
+                        + (cell.column + 0.5f) * squareWidth,
+                view.getPaddingTop() + (cell.row + 0.5f) * squareHeight, 0);
+        view.dispatchTouchEvent(event);
+        event.recycle();
+    }// touch()
+
+    /**
+     * Clicks a button, on the UI thread.
+     *
+     * @param id
+     *            the view ID.
+     */
+    private void click(final int id) {
+        getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                mRoot.findViewById(id).performClick();
+            }// run()
+
+        });
+    }// click()
+
+    /**
+     * Gets the display mode of the lock pattern view, on the UI thread.
+     *
+     * @return the display mode.
+     */
+    private DisplayMode getDisplayMode() {
+        final DisplayMode[] result = new DisplayMode[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                result[0] = mLockPatternView.getDisplayMode();
+            }// run()
+
+        });
+        return result[0];
+    }// getDisplayMode()
+
+    /**
+     * Waits until the callback has received {@code count} events.
+     *
+     * @param count
+     *            the number of events.
+     */
+    private void waitForEvents(final int count) {
+        waitUntil(new Condition() {
+
+            @Override
+            public boolean isTrue() {
+                return mCallback.getEvents().size() >= count;
+            }// isTrue()
+
+        });
+    }// waitForEvents()
+
+    /**
+     * Waits until a condition is true, checking it on the UI thread. Fails
+     * after {@link #TIMEOUT}.
+     *
+     * @param condition
+     *            the condition.
+     */
+    private void waitUntil(Condition condition) {
+        final long deadline = SystemClock.uptimeMillis() + TIMEOUT;
+        while (true) {
+            if (check(condition))
+                return;
+
+            if (SystemClock.uptimeMillis() > deadline)
+                fail("Timed out");
+            SystemClock.sleep(20);
+        }// while
+    }// waitUntil()
+
+    /**
+     * Checks a condition on the UI thread.
+     *
+     * @param condition
+     *            the condition.
+     * @return the result.
+     */
+    private boolean check(final Condition condition) {
+        final boolean[] result = new boolean[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                result[0] = condition.isTrue();
+            }// run()
+
+        });
+        return result[0];
+    }// check()
+
+    /**
+     * Converts cell IDs into cells.
+     *
+     * @param ids
+     *            the cell IDs.
+     * @return the cells.
+     */
+    private static List<Cell> cells(int... ids) {
+        final List<Cell> result = new ArrayList<Cell>(ids.length);
+        for (int id : ids)
+            result.add(Cell.of(id));
+        return result;
+    }// cells()
+
+    /**
+     * Calculates SHA-1 of a pattern, as stored without encrypter.
+     *
+     * @param ids
+     *            the cell IDs.
+     * @return SHA-1 of the pattern.
+     */
+    private static char[] sha1(int... ids) {
+        return LockPatternUtils.patternToSha1(cells(ids)).toCharArray();
+    }// sha1()
+
+    /**
+     * Checks if the button Confirm is enabled.
+     */
+    private final Condition mConfirmEnabled = new Condition() {
+
+        @Override
+        public boolean isTrue() {
+            return mRoot.findViewById(R.id.alp_42447968_button_confirm)
+                    .isEnabled();
+        }// isTrue()
+
+    };// mConfirmEnabled
+
+    /**
+     * A condition, checked on the UI thread.
+     */
+    private static interface Condition {
+
+        /**
+         * Checks the condition.
+         *
+         * @return {@code true} or {@code false}.
+         */
+        boolean isTrue();
+
+    }// Condition
+
+    /**
+     * Records the calls of the controller.
+     */
+    private static class RecordingCallback implements
+            LockPatternController.Callback {
+
+        private final List<String> mEvents = new ArrayList<String>();
+        private char[] mCreatedPattern;
+
+        synchronized List<String> getEvents() {
+            return new ArrayList<String>(mEvents);
+        }// getEvents()
+
+        synchronized char[] getCreatedPattern() {
+            return mCreatedPattern;
+        }// getCreatedPattern()
+
+        @Override
+        public synchronized void onPatternCreated(char[] pattern) {
+            mCreatedPattern = pattern;
+            mEvents.add("created");
+        }// onPatternCreated()
+
+        @Override
+        public synchronized void onPatternMatched(int retryCount,
+                String profileId) {
+            mEvents.add("matched:" + retryCount + ":" + profileId);
+        }// onPatternMatched()
+
+        @Override
+        public synchronized void onPatternMismatched(int retryCount) {
+            mEvents.add("mismatched:" + retryCount);
+        }// onPatternMismatched()
+
+        @Override
+        public synchronized void onRetriesExceeded(int retryCount) {
+            mEvents.add("exceeded:" + retryCount);
+        }// onRetriesExceeded()
+
+        @Override
+        public synchronized void onCancelled(int retryCount) {
+            mEvents.add("cancelled:" + retryCount);
+        }// onCancelled()
+
+        @Override
+        public synchronized void onForgotPattern(int retryCount) {
+            mEvents.add("forgot:" + retryCount);
+        }// onForgotPattern()
+
+    }// RecordingCallback
+
+    /**
+     * Encrypter whose verifications are completed by the test, in any order.
+     * Only {@link #verify(Context, long, char[], IAsyncEncrypter.Callback)} is
+     * supported.
+     */
+    private class ManualEncrypter implements IEncrypter, IAsyncEncrypter {
+
+        private final List<Long> mPatterns = new ArrayList<Long>();
+        private final List<IAsyncEncrypter.Callback<Boolean>> mCallbacks = new ArrayList<IAsyncEncrypter.Callback<Boolean>>();
+
+        @Override
+        public char[] encrypt(Context context, List<Cell> pattern) {
+            throw new UnsupportedOperationException();
+        }// encrypt()
+
+        @Override
+        public List<Cell> decrypt(Context context, char[] encryptedPattern) {
+            throw new UnsupportedOperationException();
+        }// decrypt()
+
+        @Override
+        public Future<char[]> encrypt(Context context, List<Cell> pattern,
+                IAsyncEncrypter.Callback<char[]> callback) {
+            throw new UnsupportedOperationException();
+        }// encrypt()
+
+        @Override
+        public Future<List<Cell>> decrypt(Context context,
+                char[] encryptedPattern,
+                IAsyncEncrypter.Callback<List<Cell>> callback) {
+            throw new UnsupportedOperationException();
+        }// decrypt()
+
+        @Override
+        public synchronized Future<Boolean> verify(Context context,
+                long pattern, char[] encryptedPattern,
+                IAsyncEncrypter.Callback<Boolean> callback) {
+            mPatterns.add(pattern);
+            mCallbacks.add(callback);
+
+            /*
+             * The task never runs, the test completes it.
+             */
+            return new FutureTask<Boolean>(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() throws Exception {
+                    throw new UnsupportedOperationException();
+                }// call()
+
+            });
+        }// verify()
+
+        synchronized int getVerifyCount() {
+            return mPatterns.size();
+        }// getVerifyCount()
+
+        synchronized long getVerifiedPattern(int index) {
+            return mPatterns.get(index);
+        }// getVerifiedPattern()
+
+        /**
+         * Completes a verification, on the UI thread.
+         *
+         * @param index
+         *            the index of the verification.
+         * @param result
+         *            the result.
+         */
+        void complete(int index, final boolean result) {
+            final IAsyncEncrypter.Callback<Boolean> callback;
+            synchronized (this) {
+                callback = mCallbacks.get(index);
+            }
+
+            getInstrumentation().runOnMainSync(new Runnable() {
+
+                @Override
+                public void run() {
+                    callback.onCompleted(result);
+                }// run()
+
+            });
+        }// complete()
+
+    }// ManualEncrypter
+
+}
@@ -16,7 +16,6 @@
 
 package haibison.android.lockpattern;
 
-import static android.text.format.DateUtils.SECOND_IN_MILLIS;
 import static haibison.android.lockpattern.BuildConfig.DEBUG;
 import static haibison.android.lockpattern.util.AlpSettings.Display.METADATA_CAPTCHA_WIRED_DOTS;
 import static haibison.android.lockpattern.util.AlpSettings.Display.METADATA_MAX_RETRIES;
@@ -27,18 +26,16 @@ import static haibison.android.lockpattern.util.AlpSettings.Security.METADATA_EN
 import haibison.android.lockpattern.util.AlpSettings;
 import haibison.android.lockpattern.util.AlpSettings.Display;
 import haibison.android.lockpattern.util.AlpSettings.Security;
+import haibison.android.lockpattern.util.EncrypterRegistry;
 import haibison.android.lockpattern.util.IEncrypter;
-import haibison.android.lockpattern.util.InvalidEncrypterException;
-import haibison.android.lockpattern.util.LoadingView;
+import haibison.android.lockpattern.util.PatternStore;
+import haibison.android.lockpattern.util.ResultCallbacks;
 import haibison.android.lockpattern.util.UI;
 import haibison.android.lockpattern.widget.LockPatternUtils;
 import haibison.android.lockpattern.widget.LockPatternView;
-import haibison.android.lockpattern.widget.LockPatternView.Cell;
-import haibison.android.lockpattern.widget.LockPatternView.DisplayMode;
+import haibison.android.lockpattern.widget.Pattern;
 
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import android.app.Activity;
@@ -51,16 +48,16 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Configuration;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.os.ResultReceiver;
-import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.TypedValue;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewConfiguration;
-import android.view.ViewGroup.LayoutParams;
-import android.widget.Button;
-import android.widget.TextView;
 
 /**
  * Main activity for this library.
@@ -70,6 +67,10 @@ import android.widget.TextView;
  * {@link #EXTRA_PENDING_INTENT_CANCELLED} and {@link #EXTRA_RESULT_RECEIVER}
  * for more details.
  * </p>
+ * <p>
+ * The UI is driven by {@link LockPatternController}. If you don't need a
+ * separate activity, you can use the controller in your own view hierarchy.
+ * </p>
  * 
  * <h1>NOTES</h1>
  * <ul>
@@ -265,6 +266,43 @@ public class LockPatternActivity extends Activity {
                 newIntentToComparePattern(context, pattern), requestCode);
     }// startToComparePattern()
 
+    /**
+     * Use this action to find the profile of the pattern which the user draws,
+     * among profiles saved in {@link PatternStore} with their plain patterns
+     * (for example by {@link #ACTION_CREATE_PATTERN} with
+     * {@link #EXTRA_PROFILE_ID}, {@link #EXTRA_INDEX_PROFILE} and auto-save
+     * mode).
+     * <p/>
+     * If a profile is found, {@link Activity#RESULT_OK} returns, with the
+     * profile ID in {@link #EXTRA_PROFILE_ID}. Otherwise, like
+     * {@link #ACTION_COMPARE_PATTERN}, the user can retry until
+     * {@link #RESULT_FAILED} returns.
+     * <p/>
+     * In any case, there will have extra {@link #EXTRA_RETRY_COUNT} available
+     * in the intent result.
+     * 
+     * @see #EXTRA_PROFILE_ID
+     * @see #RESULT_FAILED
+     * @see #EXTRA_RETRY_COUNT
+     * @since v3.2.1 beta
+     */
+    public static final String ACTION_IDENTIFY_PATTERN = CLASSNAME
+            + ".identify_pattern";
+
+    /**
+     * Creates new intent with {@link #ACTION_IDENTIFY_PATTERN}. You must call
+     * this intent from a UI thread.
+     * 
+     * @param context
+     *            the context.
+     * @return new intent.
+     */
+    public static Intent newIntentToIdentifyPattern(Context context) {
+        Intent result = new Intent(ACTION_IDENTIFY_PATTERN, null, context,
+                LockPatternActivity.class);
+        return result;
+    }// newIntentToIdentifyPattern()
+
     /**
      * Use this action to let the activity generate a random pattern and ask the
      * user to re-draw it to verify.
@@ -370,6 +408,38 @@ public class LockPatternActivity extends Activity {
      */
     public static final String EXTRA_PATTERN = CLASSNAME + ".pattern";
 
+    /**
+     * Key to hold the profile ID, a {@link String}. If set, the pattern of
+     * that profile is taken from {@link PatternStore}, instead of
+     * {@link AlpSettings.Security#getPattern(Context)}:
+     * <p/>
+     * <ul>
+     * <li>With {@link #ACTION_COMPARE_PATTERN}, the pattern is compared to the
+     * one of the profile, unless you provide {@link #EXTRA_PATTERN}.</li>
+     * <li>With {@link #ACTION_CREATE_PATTERN} and auto-save mode, the new
+     * pattern is saved to the profile.</li>
+     * <li>With {@link #ACTION_IDENTIFY_PATTERN}, the activity returns the
+     * profile ID found in this extra.</li>
+     * </ul>
+     * 
+     * @since v3.2.1 beta
+     */
+    public static final String EXTRA_PROFILE_ID = CLASSNAME + ".profile_id";
+
+    /**
+     * Use this key with {@link #ACTION_CREATE_PATTERN},
+     * {@link #EXTRA_PROFILE_ID} and auto-save mode, to index the profile for
+     * {@link #ACTION_IDENTIFY_PATTERN}, a {@code boolean}. Default is
+     * {@code false}.
+     * <p/>
+     * <b>Note:</b> the index weakens the stored pattern against anyone who can
+     * read the app's files, see {@link PatternStore}.
+     * 
+     * @since v3.2.1 beta
+     */
+    public static final String EXTRA_INDEX_PROFILE = CLASSNAME
+            + ".index_profile";
+
     /**
      * You can provide an {@link ResultReceiver} with this key. The activity
      * will notify your receiver the same result code and intent data as you
@@ -380,6 +450,19 @@ public class LockPatternActivity extends Activity {
     public static final String EXTRA_RESULT_RECEIVER = CLASSNAME
             + ".result_receiver";
 
+    /**
+     * Put a token of {@link ResultCallbacks} into this key, a {@code long}.
+     * If the caller is in the same process, the activity delivers the result
+     * directly to the registered callback, on the UI thread. Then
+     * {@link #EXTRA_RESULT_RECEIVER}, {@link #EXTRA_PENDING_INTENT_OK} and
+     * {@link #EXTRA_PENDING_INTENT_CANCELLED} are not used.
+     * 
+     * @see #setResultCallback(Intent, ResultCallbacks.Callback)
+     * @since v3.2.1 beta
+     */
+    public static final String EXTRA_RESULT_CALLBACK = CLASSNAME
+            + ".result_callback";
+
     /**
      * Put a {@link PendingIntent} into this key. It will be sent before
      * {@link Activity#RESULT_OK} will be returning. If you were calling this
@@ -435,39 +518,45 @@ public class LockPatternActivity extends Activity {
             + ".pending_intent_forgot_pattern";
 
     /**
-     * Helper enum for button OK commands. (Because we use only one "OK" button
-     * for different commands).
+     * Registers {@code callback} with {@link ResultCallbacks}, and puts the
+     * token into {@code intent} ({@link #EXTRA_RESULT_CALLBACK}).
+     * <p/>
+     * The callback is held by a weak reference, keep it in a field of the
+     * caller while waiting for the result. See {@link ResultCallbacks}.
      * 
-     * @author Hai Bison
-     */
-    private static enum ButtonOkCommand {
-        CONTINUE, FORGOT_PATTERN, DONE
-    }// ButtonOkCommand
-
-    /**
-     * Delay time to reload the lock pattern view after a wrong pattern.
+     * @param intent
+     *            the intent to start this activity.
+     * @param callback
+     *            the callback.
+     * @return the token, which can be used to unregister the callback.
+     * @since v3.2.1 beta
      */
-    private static final long DELAY_TIME_TO_RELOAD_LOCK_PATTERN_VIEW = SECOND_IN_MILLIS;
+    public static long setResultCallback(Intent intent,
+            ResultCallbacks.Callback callback) {
+        final long token = ResultCallbacks.register(callback);
+        intent.putExtra(EXTRA_RESULT_CALLBACK, token);
+        return token;
+    }// setResultCallback()
 
     /*
      * FIELDS
      */
-    private int mMaxRetries, mMinWiredDots, mRetryCount = 0, mCaptchaWiredDots;
-    private boolean mAutoSave, mStealthMode;
-    private IEncrypter mEncrypter;
-    private ButtonOkCommand mBtnOkCmd;
+    private LockPatternController mController;
     private Intent mIntentResult;
-    private LoadingView<Void, Void, Object> mLoadingView;
 
-    /*
-     * CONTROLS
+    /**
+     * Content views which have been inflated, by orientation. See
+     * {@link #initContentView()}.
+     */
+    private final SparseArray<View> mContentViews = new SparseArray<View>();
+    private View mContentView;
+
+    /**
+     * The lock pattern view which was moved while the user was drawing. It
+     * receives the rest of the gesture, see
+     * {@link #dispatchTouchEvent(MotionEvent)}.
      */
-    private TextView mTextInfo;
-    private LockPatternView mLockPatternView;
-    private View mFooter;
-    private Button mBtnCancel;
-    private Button mBtnConfirm;
-    private View mViewGroupProgressBar;
+    private LockPatternView mGestureTarget;
 
     /**
      * Called when the activity is first created.
@@ -487,12 +576,29 @@ public class LockPatternActivity extends Activity {
 
         super.onCreate(savedInstanceState);
 
+        mController = new LockPatternController(this, getMode());
         loadSettings();
+        mController.setCallback(mControllerCallback);
 
         mIntentResult = new Intent();
         setResult(RESULT_CANCELED, mIntentResult);
 
         initContentView();
+
+        /*
+         * Inflate the layout of the other orientation when the UI is idle, so
+         * rotating the screen doesn't need to inflate it.
+         */
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+
+            @Override
+            public boolean queueIdle() {
+                if (!isFinishing())
+                    preInflateAlternateContentView();
+                return false;
+            }// queueIdle()
+
+        });
     }// onCreate()
 
     @Override
@@ -505,6 +611,31 @@ public class LockPatternActivity extends Activity {
         initContentView();
     }// onConfigurationChanged()
 
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent ev) {
+        if (mGestureTarget != null) {
+            final int action = ev.getAction() & MotionEvent.ACTION_MASK;
+            if (action == MotionEvent.ACTION_DOWN)
+                mGestureTarget = null;
+            else {
+                final int[] location = new int[2];
+                mGestureTarget.getLocationInWindow(location);
+                final MotionEvent event = MotionEvent.obtain(ev);
+                event.offsetLocation(-location[0], -location[1]);
+                mGestureTarget.dispatchTouchEvent(event);
+                event.recycle();
+
+                if (action == MotionEvent.ACTION_UP
+                        || action == MotionEvent.ACTION_CANCEL
+                        || !mGestureTarget.isPatternInProgress())
+                    mGestureTarget = null;
+                return true;
+            }
+        }// if
+
+        return super.dispatchTouchEvent(ev);
+    }// dispatchTouchEvent()
+
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
         /*
@@ -512,9 +643,9 @@ public class LockPatternActivity extends Activity {
          * not available in API 4.
          */
         if (keyCode == KeyEvent.KEYCODE_BACK
-                && ACTION_COMPARE_PATTERN.equals(getIntent().getAction())) {
-            if (mLoadingView != null)
-                mLoadingView.cancel(true);
+                && (ACTION_COMPARE_PATTERN.equals(getIntent().getAction()) || ACTION_IDENTIFY_PATTERN
+                        .equals(getIntent().getAction()))) {
+            mController.cancelCryptoOperations();
 
             finishWithNegativeResult(RESULT_CANCELED);
 
@@ -554,14 +685,30 @@ public class LockPatternActivity extends Activity {
 
     @Override
     protected void onDestroy() {
-        if (mLoadingView != null)
-            mLoadingView.cancel(true);
+        mController.destroy();
 
         super.onDestroy();
     }// onDestroy()
 
     /**
-     * Loads settings, either from manifest or {@link AlpSettings}.
+     * Gets the mode of the controller from the intent action.
+     * 
+     * @return the mode.
+     */
+    private LockPatternController.Mode getMode() {
+        final String action = getIntent().getAction();
+        if (ACTION_COMPARE_PATTERN.equals(action))
+            return LockPatternController.Mode.COMPARE_PATTERN;
+        if (ACTION_IDENTIFY_PATTERN.equals(action))
+            return LockPatternController.Mode.IDENTIFY_PATTERN;
+        if (ACTION_VERIFY_CAPTCHA.equals(action))
+            return LockPatternController.Mode.VERIFY_CAPTCHA;
+        return LockPatternController.Mode.CREATE_PATTERN;
+    }// getMode()
+
+    /**
+     * Loads settings from manifest and the intent, into the controller. Other
+     * settings are taken from {@link AlpSettings} by the controller.
      */
     private void loadSettings() {
         Bundle metaData = null;
@@ -575,371 +722,126 @@ public class LockPatternActivity extends Activity {
             e.printStackTrace();
         }
 
-        if (metaData != null && metaData.containsKey(METADATA_MIN_WIRED_DOTS))
-            mMinWiredDots = AlpSettings.Display.validateMinWiredDots(this,
-                    metaData.getInt(METADATA_MIN_WIRED_DOTS));
-        else
-            mMinWiredDots = AlpSettings.Display.getMinWiredDots(this);
-
-        if (metaData != null && metaData.containsKey(METADATA_MAX_RETRIES))
-            mMaxRetries = AlpSettings.Display.validateMaxRetries(this,
-                    metaData.getInt(METADATA_MAX_RETRIES));
-        else
-            mMaxRetries = AlpSettings.Display.getMaxRetries(this);
-
-        if (metaData != null
-                && metaData.containsKey(METADATA_AUTO_SAVE_PATTERN))
-            mAutoSave = metaData.getBoolean(METADATA_AUTO_SAVE_PATTERN);
-        else
-            mAutoSave = AlpSettings.Security.isAutoSavePattern(this);
-
-        if (metaData != null
-                && metaData.containsKey(METADATA_CAPTCHA_WIRED_DOTS))
-            mCaptchaWiredDots = AlpSettings.Display.validateCaptchaWiredDots(
-                    this, metaData.getInt(METADATA_CAPTCHA_WIRED_DOTS));
-        else
-            mCaptchaWiredDots = AlpSettings.Display.getCaptchaWiredDots(this);
-
-        if (metaData != null && metaData.containsKey(METADATA_STEALTH_MODE))
-            mStealthMode = metaData.getBoolean(METADATA_STEALTH_MODE);
-        else
-            mStealthMode = AlpSettings.Display.isStealthMode(this);
-
-        /*
-         * Encrypter.
-         */
-        char[] encrypterClass;
-        if (metaData != null && metaData.containsKey(METADATA_ENCRYPTER_CLASS))
-            encrypterClass = metaData.getString(METADATA_ENCRYPTER_CLASS)
-                    .toCharArray();
-        else
-            encrypterClass = AlpSettings.Security.getEncrypterClass(this);
+        if (metaData != null) {
+            if (metaData.containsKey(METADATA_MIN_WIRED_DOTS))
+                mController.setMinWiredDots(metaData
+                        .getInt(METADATA_MIN_WIRED_DOTS));
+            if (metaData.containsKey(METADATA_MAX_RETRIES))
+                mController.setMaxRetries(metaData
+                        .getInt(METADATA_MAX_RETRIES));
+            if (metaData.containsKey(METADATA_AUTO_SAVE_PATTERN))
+                mController.setAutoSavePattern(metaData
+                        .getBoolean(METADATA_AUTO_SAVE_PATTERN));
+            if (metaData.containsKey(METADATA_CAPTCHA_WIRED_DOTS))
+                mController.setCaptchaWiredDots(metaData
+                        .getInt(METADATA_CAPTCHA_WIRED_DOTS));
+            if (metaData.containsKey(METADATA_STEALTH_MODE))
+                mController.setStealthMode(metaData
+                        .getBoolean(METADATA_STEALTH_MODE));
 
-        if (encrypterClass != null) {
-            try {
-                mEncrypter = (IEncrypter) Class.forName(
-                        new String(encrypterClass), false, getClassLoader())
-                        .newInstance();
-            } catch (Throwable t) {
-                throw new InvalidEncrypterException();
+            /*
+             * Encrypter.
+             */
+            if (metaData.containsKey(METADATA_ENCRYPTER_CLASS)) {
+                final String encrypterClass = metaData
+                        .getString(METADATA_ENCRYPTER_CLASS);
+                mController.setEncrypter(encrypterClass != null ? EncrypterRegistry
+                        .getEncrypter(this, encrypterClass) : null);
             }
         }
+
+        mController.setProfileId(getIntent().getStringExtra(EXTRA_PROFILE_ID));
+        mController.setIndexProfile(getIntent().getBooleanExtra(
+                EXTRA_INDEX_PROFILE, false));
+        if (ACTION_COMPARE_PATTERN.equals(getIntent().getAction())) {
+            mController.setStoredPattern(getIntent().getCharArrayExtra(
+                    EXTRA_PATTERN));
+            mController.setForgotPatternEnabled(getIntent().hasExtra(
+                    EXTRA_PENDING_INTENT_FORGOT_PATTERN));
+        }// ACTION_COMPARE_PATTERN
+        else if (ACTION_VERIFY_CAPTCHA.equals(getIntent().getAction())) {
+            /*
+             * NOTE: EXTRA_PATTERN should hold a char[] array. In this case we
+             * use it to hold the packed "CAPTCHA" pattern, which is generated
+             * by the controller if not given.
+             */
+            mController.setCaptchaPattern(Pattern.getExtra(getIntent(),
+                    EXTRA_PATTERN));
+        }// ACTION_VERIFY_CAPTCHA
     }// loadSettings()
 
     /**
      * Initializes UI...
+     * <p/>
+     * The content view of each orientation is inflated only once. When the
+     * orientation changes, the lock pattern view is moved into the content
+     * view of the new orientation, so it keeps its pattern, animations and
+     * the gesture in progress. When only the screen size changes, the current
+     * content view is kept.
      */
     private void initContentView() {
-        /*
-         * Save all controls' state to restore later.
-         */
-        CharSequence infoText = mTextInfo != null ? mTextInfo.getText() : null;
-        Boolean btnOkEnabled = mBtnConfirm != null ? mBtnConfirm.isEnabled()
-                : null;
-        LockPatternView.DisplayMode lastDisplayMode = mLockPatternView != null ? mLockPatternView
-                .getDisplayMode() : null;
-        List<Cell> lastPattern = mLockPatternView != null ? mLockPatternView
-                .getPattern() : null;
-
-        setContentView(R.layout.alp_42447968_lock_pattern_activity);
-        UI.adjustDialogSizeForLargeScreens(getWindow());
-
-        /*
-         * MAP CONTROLS
-         */
-
-        mTextInfo = (TextView) findViewById(R.id.alp_42447968_textview_info);
-        mLockPatternView = (LockPatternView) findViewById(R.id.alp_42447968_view_lock_pattern);
-
-        mFooter = findViewById(R.id.alp_42447968_viewgroup_footer);
-        mBtnCancel = (Button) findViewById(R.id.alp_42447968_button_cancel);
-        mBtnConfirm = (Button) findViewById(R.id.alp_42447968_button_confirm);
-
-        mViewGroupProgressBar = findViewById(R.id.alp_42447968_view_group_progress_bar);
-
-        /*
-         * SETUP CONTROLS
-         */
-
-        mViewGroupProgressBar
-                .setOnClickListener(mViewGroupProgressBarOnClickListener);
-
-        /*
-         * LOCK PATTERN VIEW
-         */
-
-        switch (getResources().getConfiguration().screenLayout
-                & Configuration.SCREENLAYOUT_SIZE_MASK) {
-        case Configuration.SCREENLAYOUT_SIZE_LARGE:
-        case Configuration.SCREENLAYOUT_SIZE_XLARGE: {
-            final int size = getResources().getDimensionPixelSize(
-                    R.dimen.alp_42447968_lockpatternview_size);
-            LayoutParams lp = mLockPatternView.getLayoutParams();
-            lp.width = size;
-            lp.height = size;
-            mLockPatternView.setLayoutParams(lp);
-
-            break;
-        }// LARGE / XLARGE
-        }
-
-        /*
-         * Haptic feedback.
-         */
-        boolean hapticFeedbackEnabled = false;
-        try {
-            hapticFeedbackEnabled = android.provider.Settings.System
-                    .getInt(getContentResolver(),
-                            android.provider.Settings.System.HAPTIC_FEEDBACK_ENABLED,
-                            0) != 0;
-        } catch (Throwable t) {
-            /*
-             * Ignore it.
-             */
+        final int orientation = getResources().getConfiguration().orientation;
+        View contentView = mContentViews.get(orientation);
+        if (contentView == null) {
+            contentView = getLayoutInflater().inflate(
+                    R.layout.alp_42447968_lock_pattern_activity, null);
+            mContentViews.put(orientation, contentView);
         }
-        mLockPatternView.setTactileFeedbackEnabled(hapticFeedbackEnabled);
-
-        mLockPatternView.setInStealthMode(mStealthMode
-                && !ACTION_VERIFY_CAPTCHA.equals(getIntent().getAction()));
-        mLockPatternView.setOnPatternListener(mLockPatternViewListener);
-        if (lastPattern != null && lastDisplayMode != null
-                && !ACTION_VERIFY_CAPTCHA.equals(getIntent().getAction()))
-            mLockPatternView.setPattern(lastDisplayMode, lastPattern);
-
-        /*
-         * COMMAND BUTTONS
-         */
 
-        if (ACTION_CREATE_PATTERN.equals(getIntent().getAction())) {
-            mBtnCancel.setOnClickListener(mBtnCancelOnClickListener);
-            mBtnConfirm.setOnClickListener(mBtnConfirmOnClickListener);
-
-            mBtnCancel.setVisibility(View.VISIBLE);
-            mFooter.setVisibility(View.VISIBLE);
-
-            if (infoText != null)
-                mTextInfo.setText(infoText);
-            else
-                mTextInfo
-                        .setText(R.string.alp_42447968_msg_draw_an_unlock_pattern);
-
-            /*
-             * BUTTON OK
-             */
-            if (mBtnOkCmd == null)
-                mBtnOkCmd = ButtonOkCommand.CONTINUE;
-            switch (mBtnOkCmd) {
-            case CONTINUE:
-                mBtnConfirm.setText(R.string.alp_42447968_cmd_continue);
-                break;
-            case DONE:
-                mBtnConfirm.setText(R.string.alp_42447968_cmd_confirm);
-                break;
-            default:
-                /*
-                 * Do nothing.
-                 */
-                break;
+        if (contentView != mContentView) {
+            if (mContentView != null) {
+                final LockPatternView lockPatternView = (LockPatternView) mContentView
+                        .findViewById(R.id.alp_42447968_view_lock_pattern);
+                final View placeholder = contentView
+                        .findViewById(R.id.alp_42447968_view_lock_pattern);
+                if (lockPatternView != null && placeholder != null
+                        && lockPatternView.moveTo(placeholder))
+                    mGestureTarget = lockPatternView;
             }
-            if (btnOkEnabled != null)
-                mBtnConfirm.setEnabled(btnOkEnabled);
-        }// ACTION_CREATE_PATTERN
-        else if (ACTION_COMPARE_PATTERN.equals(getIntent().getAction())) {
-            if (TextUtils.isEmpty(infoText))
-                mTextInfo
-                        .setText(R.string.alp_42447968_msg_draw_pattern_to_unlock);
-            else
-                mTextInfo.setText(infoText);
-            if (getIntent().hasExtra(EXTRA_PENDING_INTENT_FORGOT_PATTERN)) {
-                mBtnConfirm.setOnClickListener(mBtnConfirmOnClickListener);
-                mBtnConfirm.setText(R.string.alp_42447968_cmd_forgot_pattern);
-                mBtnConfirm.setEnabled(true);
-                mFooter.setVisibility(View.VISIBLE);
-            }
-        }// ACTION_COMPARE_PATTERN
-        else if (ACTION_VERIFY_CAPTCHA.equals(getIntent().getAction())) {
-            mTextInfo
-                    .setText(R.string.alp_42447968_msg_redraw_pattern_to_confirm);
 
-            /*
-             * NOTE: EXTRA_PATTERN should hold a char[] array. In this case we
-             * use it as a temporary variable to hold a list of Cell.
-             */
+            mContentView = contentView;
+            setContentView(contentView);
+        }
+        UI.adjustDialogSizeForLargeScreens(getWindow());
 
-            final ArrayList<Cell> pattern;
-            if (getIntent().hasExtra(EXTRA_PATTERN))
-                pattern = getIntent()
-                        .getParcelableArrayListExtra(EXTRA_PATTERN);
-            else
-                getIntent().putParcelableArrayListExtra(
-                        EXTRA_PATTERN,
-                        pattern = LockPatternUtils
-                                .genCaptchaPattern(mCaptchaWiredDots));
+        mController.attach(contentView);
 
-            mLockPatternView.setPattern(DisplayMode.Animate, pattern);
-        }// ACTION_VERIFY_CAPTCHA
+        if (ACTION_VERIFY_CAPTCHA.equals(getIntent().getAction())
+                && !getIntent().hasExtra(EXTRA_PATTERN))
+            Pattern.putExtra(getIntent(), EXTRA_PATTERN, mController
+                    .getCaptchaPattern().asList());
     }// initContentView()
 
     /**
-     * Compares {@code pattern} to the given pattern (
-     * {@link #ACTION_COMPARE_PATTERN}) or to the generated "CAPTCHA" pattern (
-     * {@link #ACTION_VERIFY_CAPTCHA}). Then finishes the activity if they
-     * match.
-     * 
-     * @param pattern
-     *            the pattern to be compared.
+     * Inflates the content view of the other orientation, if the layout is the
+     * default one of this library. Those layouts don't depend on other
+     * resources of a specific orientation, so they can be inflated in the
+     * current one.
      */
-    private void doComparePattern(final List<Cell> pattern) {
-        if (pattern == null)
-            return;
+    private void preInflateAlternateContentView() {
+        final TypedValue value = new TypedValue();
+        getResources().getValue(R.layout.alp_42447968_lock_pattern_activity,
+                value, true);
 
         /*
-         * Use a LoadingView because decrypting pattern might take time...
+         * NOTE: resource IDs of library projects are not constants, so we
+         * can't use switch here.
          */
-
-        mLoadingView = new LoadingView<Void, Void, Object>(this,
-                mViewGroupProgressBar) {
-
-            @Override
-            protected Object doInBackground(Void... params) {
-                if (ACTION_COMPARE_PATTERN.equals(getIntent().getAction())) {
-                    char[] currentPattern = getIntent().getCharArrayExtra(
-                            EXTRA_PATTERN);
-                    if (currentPattern == null)
-                        currentPattern = AlpSettings.Security
-                                .getPattern(LockPatternActivity.this);
-                    if (currentPattern != null) {
-                        if (mEncrypter != null)
-                            return pattern.equals(mEncrypter.decrypt(
-                                    LockPatternActivity.this, currentPattern));
-                        else
-                            return Arrays.equals(currentPattern,
-                                    LockPatternUtils.patternToSha1(pattern)
-                                            .toCharArray());
-                    }
-                }// ACTION_COMPARE_PATTERN
-                else if (ACTION_VERIFY_CAPTCHA.equals(getIntent().getAction())) {
-                    return pattern.equals(getIntent()
-                            .getParcelableArrayListExtra(EXTRA_PATTERN));
-                }// ACTION_VERIFY_CAPTCHA
-
-                return false;
-            }// doInBackground()
-
-            @Override
-            protected void onPostExecute(Object result) {
-                super.onPostExecute(result);
-
-                if ((Boolean) result)
-                    finishWithResultOk(null);
-                else {
-                    mRetryCount++;
-                    mIntentResult.putExtra(EXTRA_RETRY_COUNT, mRetryCount);
-
-                    if (mRetryCount >= mMaxRetries)
-                        finishWithNegativeResult(RESULT_FAILED);
-                    else {
-                        mLockPatternView.setDisplayMode(DisplayMode.Wrong);
-                        mTextInfo.setText(R.string.alp_42447968_msg_try_again);
-                        mLockPatternView.postDelayed(mLockPatternViewReloader,
-                                DELAY_TIME_TO_RELOAD_LOCK_PATTERN_VIEW);
-                    }
-                }
-            }// onPostExecute()
-
-        };
-
-        mLoadingView.execute();
-    }// doComparePattern()
-
-    /**
-     * Checks and creates the pattern.
-     * 
-     * @param pattern
-     *            the current pattern of lock pattern view.
-     */
-    private void doCheckAndCreatePattern(final List<Cell> pattern) {
-        if (pattern.size() < mMinWiredDots) {
-            mLockPatternView.setDisplayMode(DisplayMode.Wrong);
-            mTextInfo.setText(getResources().getQuantityString(
-                    R.plurals.alp_42447968_pmsg_connect_x_dots, mMinWiredDots,
-                    mMinWiredDots));
-            mLockPatternView.postDelayed(mLockPatternViewReloader,
-                    DELAY_TIME_TO_RELOAD_LOCK_PATTERN_VIEW);
+        final int orientation;
+        final int layout;
+        if (value.resourceId == R.layout.alp_42447968_lock_pattern_activity_port) {
+            orientation = Configuration.ORIENTATION_LANDSCAPE;
+            layout = R.layout.alp_42447968_lock_pattern_activity_land;
+        } else if (value.resourceId == R.layout.alp_42447968_lock_pattern_activity_land) {
+            orientation = Configuration.ORIENTATION_PORTRAIT;
+            layout = R.layout.alp_42447968_lock_pattern_activity_port;
+        } else
             return;
-        }// if
 
-        if (getIntent().hasExtra(EXTRA_PATTERN)) {
-            /*
-             * Use a LoadingView because decrypting pattern might take time...
-             */
-            mLoadingView = new LoadingView<Void, Void, Object>(this,
-                    mViewGroupProgressBar) {
-
-                @Override
-                protected Object doInBackground(Void... params) {
-                    if (mEncrypter != null)
-                        return pattern.equals(mEncrypter.decrypt(
-                                LockPatternActivity.this, getIntent()
-                                        .getCharArrayExtra(EXTRA_PATTERN)));
-                    else
-                        return Arrays.equals(
-                                getIntent().getCharArrayExtra(EXTRA_PATTERN),
-                                LockPatternUtils.patternToSha1(pattern)
-                                        .toCharArray());
-                }// doInBackground()
-
-                @Override
-                protected void onPostExecute(Object result) {
-                    super.onPostExecute(result);
-
-                    if ((Boolean) result) {
-                        mTextInfo
-                                .setText(R.string.alp_42447968_msg_your_new_unlock_pattern);
-                        mBtnConfirm.setEnabled(true);
-                    } else {
-                        mTextInfo
-                                .setText(R.string.alp_42447968_msg_redraw_pattern_to_confirm);
-                        mBtnConfirm.setEnabled(false);
-                        mLockPatternView.setDisplayMode(DisplayMode.Wrong);
-                        mLockPatternView.postDelayed(mLockPatternViewReloader,
-                                DELAY_TIME_TO_RELOAD_LOCK_PATTERN_VIEW);
-                    }
-                }// onPostExecute()
-
-            };
-
-            mLoadingView.execute();
-        } else {
-            /*
-             * Use a LoadingView because encrypting pattern might take time...
-             */
-            mLoadingView = new LoadingView<Void, Void, Object>(this,
-                    mViewGroupProgressBar) {
-
-                @Override
-                protected Object doInBackground(Void... params) {
-                    return mEncrypter != null ? mEncrypter.encrypt(
-                            LockPatternActivity.this, pattern)
-                            : LockPatternUtils.patternToSha1(pattern)
-                                    .toCharArray();
-                }// onCancel()
-
-                @Override
-                protected void onPostExecute(Object result) {
-                    super.onPostExecute(result);
-
-                    getIntent().putExtra(EXTRA_PATTERN, (char[]) result);
-                    mTextInfo
-                            .setText(R.string.alp_42447968_msg_pattern_recorded);
-                    mBtnConfirm.setEnabled(true);
-                }// onPostExecute()
-
-            };
-
-            mLoadingView.execute();
-        }
-    }// doCheckAndCreatePattern()
+        if (mContentViews.get(orientation) == null)
+            mContentViews.put(orientation,
+                    getLayoutInflater().inflate(layout, null));
+    }// preInflateAlternateContentView()
 
     /**
      * Finishes activity with {@link Activity#RESULT_OK}.
@@ -947,19 +849,27 @@ public class LockPatternActivity extends Activity {
      * @param pattern
      *            the pattern, if this is in mode creating pattern. In any
      *            cases, it can be set to {@code null}.
+     * @param retryCount
+     *            the retry count, if this is not in mode creating pattern.
+     * @param profileId
+     *            the profile ID, if this is in mode identifying pattern.
      */
-    private void finishWithResultOk(char[] pattern) {
+    private void finishWithResultOk(char[] pattern, int retryCount,
+            String profileId) {
         if (ACTION_CREATE_PATTERN.equals(getIntent().getAction()))
             mIntentResult.putExtra(EXTRA_PATTERN, pattern);
-        else {
-            /*
-             * If the user was "logging in", minimum try count can not be zero.
-             */
-            mIntentResult.putExtra(EXTRA_RETRY_COUNT, mRetryCount + 1);
-        }
+        else
+            mIntentResult.putExtra(EXTRA_RETRY_COUNT, retryCount);
+        if (ACTION_IDENTIFY_PATTERN.equals(getIntent().getAction()))
+            mIntentResult.putExtra(EXTRA_PROFILE_ID, profileId);
 
         setResult(RESULT_OK, mIntentResult);
 
+        if (deliverResultInProcess(RESULT_OK)) {
+            finish();
+            return;
+        }
+
         /*
          * ResultReceiver
          */
@@ -969,13 +879,10 @@ public class LockPatternActivity extends Activity {
             Bundle bundle = new Bundle();
             if (ACTION_CREATE_PATTERN.equals(getIntent().getAction()))
                 bundle.putCharArray(EXTRA_PATTERN, pattern);
-            else {
-                /*
-                 * If the user was "logging in", minimum try count can not be
-                 * zero.
-                 */
-                bundle.putInt(EXTRA_RETRY_COUNT, mRetryCount + 1);
-            }
+            else
+                bundle.putInt(EXTRA_RETRY_COUNT, retryCount);
+            if (ACTION_IDENTIFY_PATTERN.equals(getIntent().getAction()))
+                bundle.putString(EXTRA_PROFILE_ID, profileId);
             receiver.send(RESULT_OK, bundle);
         }
 
@@ -1001,11 +908,18 @@ public class LockPatternActivity extends Activity {
      * {@link #RESULT_FORGOT_PATTERN}).
      */
     private void finishWithNegativeResult(int resultCode) {
-        if (ACTION_COMPARE_PATTERN.equals(getIntent().getAction()))
-            mIntentResult.putExtra(EXTRA_RETRY_COUNT, mRetryCount);
+        final int retryCount = mController.getRetryCount();
+        if (ACTION_COMPARE_PATTERN.equals(getIntent().getAction())
+                || ACTION_IDENTIFY_PATTERN.equals(getIntent().getAction()))
+            mIntentResult.putExtra(EXTRA_RETRY_COUNT, retryCount);
 
         setResult(resultCode, mIntentResult);
 
+        if (deliverResultInProcess(resultCode)) {
+            finish();
+            return;
+        }
+
         /*
          * ResultReceiver
          */
@@ -1013,9 +927,10 @@ public class LockPatternActivity extends Activity {
                 EXTRA_RESULT_RECEIVER);
         if (receiver != null) {
             Bundle resultBundle = null;
-            if (ACTION_COMPARE_PATTERN.equals(getIntent().getAction())) {
+            if (ACTION_COMPARE_PATTERN.equals(getIntent().getAction())
+                    || ACTION_IDENTIFY_PATTERN.equals(getIntent().getAction())) {
                 resultBundle = new Bundle();
-                resultBundle.putInt(EXTRA_RETRY_COUNT, mRetryCount);
+                resultBundle.putInt(EXTRA_RETRY_COUNT, retryCount);
             }
             receiver.send(resultCode, resultBundle);
         }
@@ -1036,171 +951,81 @@ public class LockPatternActivity extends Activity {
         finish();
     }// finishWithNegativeResult()
 
+    /**
+     * Delivers the result to the callback given in
+     * {@link #EXTRA_RESULT_CALLBACK}, if it is registered in this process.
+     * 
+     * @param resultCode
+     *            the result code.
+     * @return {@code true} if the result was delivered.
+     */
+    private boolean deliverResultInProcess(int resultCode) {
+        final ResultCallbacks.Callback callback = ResultCallbacks
+                .take(getIntent().getLongExtra(EXTRA_RESULT_CALLBACK, 0));
+        if (callback == null)
+            return false;
+
+        try {
+            callback.onResult(resultCode, mIntentResult);
+        } catch (Throwable t) {
+            Log.e(CLASSNAME, "Error delivering result: " + callback, t);
+        }
+        return true;
+    }// deliverResultInProcess()
+
     /*
      * LISTENERS
      */
 
     /**
-     * Pattern listener for LockPatternView.
+     * Callback of {@link #mController}.
      */
-    private final LockPatternView.OnPatternListener mLockPatternViewListener = new LockPatternView.OnPatternListener() {
+    private final LockPatternController.Callback mControllerCallback = new LockPatternController.Callback() {
 
         @Override
-        public void onPatternStart() {
-            mLockPatternView.removeCallbacks(mLockPatternViewReloader);
-            mLockPatternView.setDisplayMode(DisplayMode.Correct);
-
-            if (ACTION_CREATE_PATTERN.equals(getIntent().getAction())) {
-                mTextInfo
-                        .setText(R.string.alp_42447968_msg_release_finger_when_done);
-                mBtnConfirm.setEnabled(false);
-                if (mBtnOkCmd == ButtonOkCommand.CONTINUE)
-                    getIntent().removeExtra(EXTRA_PATTERN);
-            }// ACTION_CREATE_PATTERN
-            else if (ACTION_COMPARE_PATTERN.equals(getIntent().getAction())) {
-                mTextInfo
-                        .setText(R.string.alp_42447968_msg_draw_pattern_to_unlock);
-            }// ACTION_COMPARE_PATTERN
-            else if (ACTION_VERIFY_CAPTCHA.equals(getIntent().getAction())) {
-                mTextInfo
-                        .setText(R.string.alp_42447968_msg_redraw_pattern_to_confirm);
-            }// ACTION_VERIFY_CAPTCHA
-        }// onPatternStart()
+        public void onPatternCreated(char[] pattern) {
+            finishWithResultOk(pattern, 0, null);
+        }// onPatternCreated()
 
         @Override
-        public void onPatternDetected(List<Cell> pattern) {
-            if (ACTION_CREATE_PATTERN.equals(getIntent().getAction())) {
-                doCheckAndCreatePattern(pattern);
-            }// ACTION_CREATE_PATTERN
-            else if (ACTION_COMPARE_PATTERN.equals(getIntent().getAction())) {
-                doComparePattern(pattern);
-            }// ACTION_COMPARE_PATTERN
-            else if (ACTION_VERIFY_CAPTCHA.equals(getIntent().getAction())) {
-                if (!DisplayMode.Animate.equals(mLockPatternView
-                        .getDisplayMode()))
-                    doComparePattern(pattern);
-            }// ACTION_VERIFY_CAPTCHA
-        }// onPatternDetected()
+        public void onPatternMatched(int retryCount, String profileId) {
+            finishWithResultOk(null, retryCount, profileId);
+        }// onPatternMatched()
 
         @Override
-        public void onPatternCleared() {
-            mLockPatternView.removeCallbacks(mLockPatternViewReloader);
-
-            if (ACTION_CREATE_PATTERN.equals(getIntent().getAction())) {
-                mLockPatternView.setDisplayMode(DisplayMode.Correct);
-                mBtnConfirm.setEnabled(false);
-                if (mBtnOkCmd == ButtonOkCommand.CONTINUE) {
-                    getIntent().removeExtra(EXTRA_PATTERN);
-                    mTextInfo
-                            .setText(R.string.alp_42447968_msg_draw_an_unlock_pattern);
-                } else
-                    mTextInfo
-                            .setText(R.string.alp_42447968_msg_redraw_pattern_to_confirm);
-            }// ACTION_CREATE_PATTERN
-            else if (ACTION_COMPARE_PATTERN.equals(getIntent().getAction())) {
-                mLockPatternView.setDisplayMode(DisplayMode.Correct);
-                mTextInfo
-                        .setText(R.string.alp_42447968_msg_draw_pattern_to_unlock);
-            }// ACTION_COMPARE_PATTERN
-            else if (ACTION_VERIFY_CAPTCHA.equals(getIntent().getAction())) {
-                mTextInfo
-                        .setText(R.string.alp_42447968_msg_redraw_pattern_to_confirm);
-                List<Cell> pattern = getIntent().getParcelableArrayListExtra(
-                        EXTRA_PATTERN);
-                mLockPatternView.setPattern(DisplayMode.Animate, pattern);
-            }// ACTION_VERIFY_CAPTCHA
-        }// onPatternCleared()
+        public void onPatternMismatched(int retryCount) {
+            mIntentResult.putExtra(EXTRA_RETRY_COUNT, retryCount);
+        }// onPatternMismatched()
 
         @Override
-        public void onPatternCellAdded(List<Cell> pattern) {
-            // TODO Auto-generated method stub
-        }// onPatternCellAdded()
-
-    };// mLockPatternViewListener
-
-    /**
-     * Click listener for button Cancel.
-     */
-    private final View.OnClickListener mBtnCancelOnClickListener = new View.OnClickListener() {
+        public void onRetriesExceeded(int retryCount) {
+            mIntentResult.putExtra(EXTRA_RETRY_COUNT, retryCount);
+            finishWithNegativeResult(RESULT_FAILED);
+        }// onRetriesExceeded()
 
         @Override
-        public void onClick(View v) {
+        public void onCancelled(int retryCount) {
             finishWithNegativeResult(RESULT_CANCELED);
-        }// onClick()
-
-    };// mBtnCancelOnClickListener
-
-    /**
-     * Click listener for button Confirm.
-     */
-    private final View.OnClickListener mBtnConfirmOnClickListener = new View.OnClickListener() {
+        }// onCancelled()
 
         @Override
-        public void onClick(View v) {
-            if (ACTION_CREATE_PATTERN.equals(getIntent().getAction())) {
-                if (mBtnOkCmd == ButtonOkCommand.CONTINUE) {
-                    mBtnOkCmd = ButtonOkCommand.DONE;
-                    mLockPatternView.clearPattern();
-                    mTextInfo
-                            .setText(R.string.alp_42447968_msg_redraw_pattern_to_confirm);
-                    mBtnConfirm.setText(R.string.alp_42447968_cmd_confirm);
-                    mBtnConfirm.setEnabled(false);
-                } else {
-                    final char[] pattern = getIntent().getCharArrayExtra(
-                            EXTRA_PATTERN);
-                    if (mAutoSave)
-                        AlpSettings.Security.setPattern(
-                                LockPatternActivity.this, pattern);
-                    finishWithResultOk(pattern);
-                }
-            }// ACTION_CREATE_PATTERN
-            else if (ACTION_COMPARE_PATTERN.equals(getIntent().getAction())) {
-                /*
-                 * We don't need to verify the extra. First, this button is only
-                 * visible if there is this extra in the intent. Second, it is
-                 * the responsibility of the caller to make sure the extra is
-                 * good.
-                 */
-                PendingIntent pi = null;
-                try {
-                    pi = getIntent().getParcelableExtra(
-                            EXTRA_PENDING_INTENT_FORGOT_PATTERN);
-                    pi.send();
-                } catch (Throwable t) {
-                    Log.e(CLASSNAME, "Error sending pending intent: " + pi, t);
-                }
-                finishWithNegativeResult(RESULT_FORGOT_PATTERN);
-            }// ACTION_COMPARE_PATTERN
-        }// onClick()
-
-    };// mBtnConfirmOnClickListener
-
-    /**
-     * This reloads the {@link #mLockPatternView} after a wrong pattern.
-     */
-    private final Runnable mLockPatternViewReloader = new Runnable() {
-
-        @Override
-        public void run() {
-            mLockPatternView.clearPattern();
-            mLockPatternViewListener.onPatternCleared();
-        }// run()
-
-    };// mLockPatternViewReloader
-
-    /**
-     * Click listener for view group progress bar.
-     */
-    private final View.OnClickListener mViewGroupProgressBarOnClickListener = new View.OnClickListener() {
-
-        @Override
-        public void onClick(View v) {
+        public void onForgotPattern(int retryCount) {
             /*
-             * Do nothing. We just don't want the user to interact with controls
-             * behind this view.
+             * We don't need to verify the extra. First, this button is only
+             * visible if there is this extra in the intent. Second, it is the
+             * responsibility of the caller to make sure the extra is good.
              */
-        }// onClick()
+            PendingIntent pi = null;
+            try {
+                pi = getIntent().getParcelableExtra(
+                        EXTRA_PENDING_INTENT_FORGOT_PATTERN);
+                pi.send();
+            } catch (Throwable t) {
+                Log.e(CLASSNAME, "Error sending pending intent: " + pi, t);
+            }
+            finishWithNegativeResult(RESULT_FORGOT_PATTERN);
+        }// onForgotPattern()
 
-    };// mViewGroupProgressBarOnClickListener
+    };// mControllerCallback
 
 }
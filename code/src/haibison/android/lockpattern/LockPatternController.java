@@ -0,0 +1,1678 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package haibison.android.lockpattern;
+
+import static android.text.format.DateUtils.SECOND_IN_MILLIS;
+import static haibison.android.lockpattern.BuildConfig.DEBUG;
+import haibison.android.lockpattern.util.AlpExecutor;
+import haibison.android.lockpattern.util.AlpSettings;
+import haibison.android.lockpattern.util.AsyncEncrypterAdapter;
+import haibison.android.lockpattern.util.EncrypterRegistry;
+import haibison.android.lockpattern.util.IAsyncEncrypter;
+import haibison.android.lockpattern.util.IEncrypter;
+import haibison.android.lockpattern.util.IPackedEncrypter;
+import haibison.android.lockpattern.util.IPatternVerifier;
+import haibison.android.lockpattern.util.PatternMatcher;
+import haibison.android.lockpattern.util.PatternSlot;
+import haibison.android.lockpattern.util.PatternStore;
+import haibison.android.lockpattern.widget.LockPatternUtils;
+import haibison.android.lockpattern.widget.LockPatternView;
+import haibison.android.lockpattern.widget.LockPatternView.Cell;
+import haibison.android.lockpattern.widget.LockPatternView.DisplayMode;
+import haibison.android.lockpattern.widget.Pattern;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewGroup.LayoutParams;
+import android.view.ViewStub;
+import android.widget.Button;
+import android.widget.TextView;
+
+/**
+ * Drives the lock pattern UI: creating, comparing and identifying patterns, and
+ * verifying "CAPTCHA" patterns.
+ * <p/>
+ * {@link LockPatternActivity} is a thin shell over this class. You can also
+ * use it directly in your own view hierarchy or fragment, to avoid starting a
+ * new activity:
+ * <ol>
+ * <li>Create the controller, change its settings if needed, and set a
+ * {@link Callback}.</li>
+ * <li>Inflate the layout with {@link #inflate(LayoutInflater, ViewGroup)}, or
+ * use your own layout with the same view IDs, then call {@link #attach(View)}.
+ * Call {@link #attach(View)} again with the new views after the views are
+ * re-created (for example after a configuration change).</li>
+ * <li>Call {@link #destroy()} when you don't need the controller any more.</li>
+ * </ol>
+ * The settings default to {@link AlpSettings}. They must be set before the
+ * first call to {@link #attach(View)}.
+ * <p/>
+ * This class must be used from the UI thread.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class LockPatternController {
+
+    private static final String CLASSNAME = LockPatternController.class
+            .getName();
+
+    /**
+     * Modes of the controller.
+     */
+    public static enum Mode {
+
+        /**
+         * Creates new pattern. See
+         * {@link LockPatternActivity#ACTION_CREATE_PATTERN}.
+         */
+        CREATE_PATTERN,
+
+        /**
+         * Compares the drawn pattern to the stored one. See
+         * {@link LockPatternActivity#ACTION_COMPARE_PATTERN}.
+         */
+        COMPARE_PATTERN,
+
+        /**
+         * Finds the profile of the drawn pattern. See
+         * {@link LockPatternActivity#ACTION_IDENTIFY_PATTERN}.
+         */
+        IDENTIFY_PATTERN,
+
+        /**
+         * Asks the user to re-draw a random pattern. See
+         * {@link LockPatternActivity#ACTION_VERIFY_CAPTCHA}.
+         */
+        VERIFY_CAPTCHA
+
+    }// Mode
+
+    /**
+     * Callback of the controller. All methods are called on the UI thread.
+     * <p/>
+     * The retry count is the number of patterns the user has drawn, see
+     * {@link LockPatternActivity#EXTRA_RETRY_COUNT}.
+     */
+    public static interface Callback {
+
+        /**
+         * Will be called when the user created and confirmed new pattern (
+         * {@link Mode#CREATE_PATTERN}).
+         *
+         * @param pattern
+         *            the encrypted pattern, or SHA-1 of the pattern.
+         */
+        void onPatternCreated(char[] pattern);
+
+        /**
+         * Will be called when the user drew the right pattern.
+         *
+         * @param retryCount
+         *            the retry count, including the right pattern.
+         * @param profileId
+         *            the profile ID, only for {@link Mode#IDENTIFY_PATTERN}.
+         *            Otherwise {@code null}.
+         */
+        void onPatternMatched(int retryCount, String profileId);
+
+        /**
+         * Will be called when the user drew a wrong pattern, and can try
+         * again.
+         *
+         * @param retryCount
+         *            the retry count.
+         */
+        void onPatternMismatched(int retryCount);
+
+        /**
+         * Will be called when the user drew a wrong pattern, and has reached
+         * the maximum retries.
+         *
+         * @param retryCount
+         *            the retry count.
+         */
+        void onRetriesExceeded(int retryCount);
+
+        /**
+         * Will be called when the user tapped the button Cancel.
+         *
+         * @param retryCount
+         *            the retry count.
+         */
+        void onCancelled(int retryCount);
+
+        /**
+         * Will be called when the user tapped the button
+         * <i>"Forgot pattern?"</i>, see
+         * {@link #setForgotPatternEnabled(boolean)}.
+         *
+         * @param retryCount
+         *            the retry count.
+         */
+        void onForgotPattern(int retryCount);
+
+    }// Callback
+
+    /**
+     * Helper enum for button OK commands. (Because we use only one "OK" button
+     * for different commands).
+     */
+    private static enum ButtonOkCommand {
+        CONTINUE, FORGOT_PATTERN, DONE
+    }// ButtonOkCommand
+
+    /**
+     * Delay time to reload the lock pattern view after a wrong pattern.
+     */
+    private static final long DELAY_TIME_TO_RELOAD_LOCK_PATTERN_VIEW = SECOND_IN_MILLIS;
+
+    /**
+     * Delay time to show the progress bar while waiting for the encrypter.
+     */
+    private static final long DELAY_TIME_TO_SHOW_PROGRESS_BAR = SECOND_IN_MILLIS / 2;
+
+    /*
+     * FIELDS
+     */
+    private final Context mContext;
+    private final Mode mMode;
+    private Callback mCallback;
+    private int mMaxRetries, mMinWiredDots, mRetryCount = 0, mCaptchaWiredDots;
+    private boolean mAutoSave, mStealthMode, mForgotPatternEnabled;
+    private boolean mIndexProfile;
+    private boolean mEncrypterSet = false;
+    private IEncrypter mEncrypter;
+    private IAsyncEncrypter mAsyncEncrypter;
+    private IAsyncEncrypter mAsyncVerifier;
+    private char[] mGivenPattern;
+    private String mProfileId;
+    private Pattern mCaptchaPattern;
+    private ButtonOkCommand mBtnOkCmd;
+    private boolean mStarted = false;
+
+    /**
+     * The pattern recorded in the first step of {@link Mode#CREATE_PATTERN}.
+     */
+    private char[] mRecordedPattern;
+
+    /**
+     * The running crypto operation. See
+     * {@link #runCryptoOperation(CryptoOperation)}. It is running until its
+     * callback has been called, even if its task is done.
+     */
+    private CryptoOperation<?> mRunningOperation;
+
+    /**
+     * The crypto operation which is waiting for {@link #mRunningOperation}.
+     */
+    private CryptoOperation<?> mPendingOperation;
+
+    /**
+     * Generation of the latest pattern detection. Results of crypto operations
+     * of older generations are dropped.
+     */
+    private int mGeneration = 0;
+
+    /**
+     * The stored pattern, prepared in {@link #attach(View)} for
+     * {@link Mode#COMPARE_PATTERN}.
+     */
+    private final PatternSlot mStoredPattern = new PatternSlot();
+    private Future<?> mPreparingTask;
+    private boolean mPreparingStoredPattern = false;
+
+    /**
+     * The record of the profile, read in background by
+     * {@link #prepareStoredPattern()}.
+     */
+    private PatternStore.Record mProfileRecord;
+
+    /**
+     * The pattern which is waiting for {@link #mStoredPattern} to be ready.
+     */
+    private List<Cell> mPendingPattern;
+
+    /**
+     * Matches the pattern being drawn against the stored pattern (if its
+     * plaintext is available) or the "CAPTCHA" pattern. Can be {@code null}.
+     */
+    private PatternMatcher mPatternMatcher;
+
+    /*
+     * CONTROLS
+     */
+    private View mRoot;
+    private TextView mTextInfo;
+    private LockPatternView mLockPatternView;
+    private View mFooter;
+    private Button mBtnCancel;
+    private Button mBtnConfirm;
+    private View mViewGroupProgressBar;
+
+    /**
+     * Creates new instance. The settings are loaded from
+     * {@link AlpSettings#getSnapshot(Context)}.
+     *
+     * @param context
+     *            the context.
+     * @param mode
+     *            the mode.
+     */
+    public LockPatternController(Context context, Mode mode) {
+        mContext = context;
+        mMode = mode;
+
+        final AlpSettings.Snapshot settings = AlpSettings.getSnapshot(context);
+        mMinWiredDots = settings.minWiredDots;
+        mMaxRetries = settings.maxRetries;
+        mAutoSave = settings.autoSavePattern;
+        mCaptchaWiredDots = settings.captchaWiredDots;
+        mStealthMode = settings.stealthMode;
+    }// LockPatternController()
+
+    /**
+     * Gets the mode.
+     *
+     * @return the mode.
+     */
+    public Mode getMode() {
+        return mMode;
+    }// getMode()
+
+    /**
+     * Sets the callback.
+     *
+     * @param callback
+     *            the callback, can be {@code null}.
+     * @return this controller.
+     */
+    public LockPatternController setCallback(Callback callback) {
+        mCallback = callback;
+        return this;
+    }// setCallback()
+
+    /**
+     * Sets minimum wired-dots allowed for a pattern, for
+     * {@link Mode#CREATE_PATTERN}.
+     *
+     * @param value
+     *            the value, see
+     *            {@link AlpSettings.Display#validateMinWiredDots(Context, int)}
+     *            .
+     * @return this controller.
+     */
+    public LockPatternController setMinWiredDots(int value) {
+        mMinWiredDots = AlpSettings.Display.validateMinWiredDots(mContext,
+                value);
+        return this;
+    }// setMinWiredDots()
+
+    /**
+     * Sets max retries allowed.
+     *
+     * @param value
+     *            the value, see
+     *            {@link AlpSettings.Display#validateMaxRetries(Context, int)}.
+     * @return this controller.
+     */
+    public LockPatternController setMaxRetries(int value) {
+        mMaxRetries = AlpSettings.Display.validateMaxRetries(mContext, value);
+        return this;
+    }// setMaxRetries()
+
+    /**
+     * Sets wired dots for a "CAPTCHA" pattern, for {@link Mode#VERIFY_CAPTCHA}.
+     *
+     * @param value
+     *            the value, see
+     *            {@link AlpSettings.Display#validateCaptchaWiredDots(Context, int)}
+     *            .
+     * @return this controller.
+     */
+    public LockPatternController setCaptchaWiredDots(int value) {
+        mCaptchaWiredDots = AlpSettings.Display.validateCaptchaWiredDots(
+                mContext, value);
+        return this;
+    }// setCaptchaWiredDots()
+
+    /**
+     * Sets the "CAPTCHA" pattern, for {@link Mode#VERIFY_CAPTCHA}. If not set,
+     * the controller generates a random one.
+     *
+     * @param pattern
+     *            the pattern.
+     * @return this controller.
+     */
+    public LockPatternController setCaptchaPattern(Pattern pattern) {
+        mCaptchaPattern = pattern;
+        return this;
+    }// setCaptchaPattern()
+
+    /**
+     * Gets the "CAPTCHA" pattern.
+     *
+     * @return the pattern, can be {@code null} if it has not been generated
+     *         yet.
+     */
+    public Pattern getCaptchaPattern() {
+        return mCaptchaPattern;
+    }// getCaptchaPattern()
+
+    /**
+     * Sets auto-save pattern, for {@link Mode#CREATE_PATTERN}.
+     *
+     * @param value
+     *            the value.
+     * @return this controller.
+     */
+    public LockPatternController setAutoSavePattern(boolean value) {
+        mAutoSave = value;
+        return this;
+    }// setAutoSavePattern()
+
+    /**
+     * Sets stealth mode.
+     *
+     * @param value
+     *            the value.
+     * @return this controller.
+     */
+    public LockPatternController setStealthMode(boolean value) {
+        mStealthMode = value;
+        return this;
+    }// setStealthMode()
+
+    /**
+     * Sets the encrypter. If not set, the encrypter class in
+     * {@link AlpSettings} is used.
+     *
+     * @param encrypter
+     *            the encrypter, can be {@code null} to use SHA-1.
+     * @return this controller.
+     */
+    public LockPatternController setEncrypter(IEncrypter encrypter) {
+        mEncrypterSet = true;
+        mEncrypter = encrypter;
+        /*
+         * Prefer the asynchronous interface if the encrypter implements it.
+         */
+        if (encrypter == null)
+            mAsyncEncrypter = null;
+        else
+            mAsyncEncrypter = encrypter instanceof IAsyncEncrypter ? (IAsyncEncrypter) encrypter
+                    : new AsyncEncrypterAdapter(encrypter);
+
+        /*
+         * Verification prefers IPackedEncrypter and IPatternVerifier, even
+         * over the asynchronous interface.
+         */
+        if (encrypter instanceof IAsyncEncrypter
+                && (encrypter instanceof IPackedEncrypter || encrypter instanceof IPatternVerifier))
+            mAsyncVerifier = new AsyncEncrypterAdapter(encrypter);
+        else
+            mAsyncVerifier = mAsyncEncrypter;
+        return this;
+    }// setEncrypter()
+
+    /**
+     * Sets the stored pattern to compare with, for
+     * {@link Mode#COMPARE_PATTERN}. See
+     * {@link LockPatternActivity#EXTRA_PATTERN}. It overrides the profile ID.
+     *
+     * @param pattern
+     *            the stored pattern, can be {@code null}. It is copied.
+     * @return this controller.
+     */
+    public LockPatternController setStoredPattern(char[] pattern) {
+        mGivenPattern = pattern != null ? pattern.clone() : null;
+        return this;
+    }// setStoredPattern()
+
+    /**
+     * Sets the profile ID, see {@link LockPatternActivity#EXTRA_PROFILE_ID}.
+     *
+     * @param profileId
+     *            the profile ID, can be {@code null}.
+     * @return this controller.
+     */
+    public LockPatternController setProfileId(String profileId) {
+        mProfileId = profileId;
+        return this;
+    }// setProfileId()
+
+    /**
+     * Sets whether to index the profile for {@link Mode#IDENTIFY_PATTERN} when
+     * saving a new pattern, see {@link LockPatternActivity#EXTRA_INDEX_PROFILE}
+     * . Default is {@code false}.
+     *
+     * @param value
+     *            the value.
+     * @return this controller.
+     */
+    public LockPatternController setIndexProfile(boolean value) {
+        mIndexProfile = value;
+        return this;
+    }// setIndexProfile()
+
+    /**
+     * Shows the button <i>"Forgot pattern?"</i>, for
+     * {@link Mode#COMPARE_PATTERN}. See {@link Callback#onForgotPattern(int)}.
+     *
+     * @param value
+     *            the value.
+     * @return this controller.
+     */
+    public LockPatternController setForgotPatternEnabled(boolean value) {
+        mForgotPatternEnabled = value;
+        return this;
+    }// setForgotPatternEnabled()
+
+    /**
+     * Gets the retry count.
+     *
+     * @return the retry count.
+     */
+    public int getRetryCount() {
+        return mRetryCount;
+    }// getRetryCount()
+
+    /**
+     * Inflates the default layout.
+     *
+     * @param inflater
+     *            the inflater.
+     * @param container
+     *            the parent view, can be {@code null}.
+     * @return the root view, which is not attached to {@code container}. Pass
+     *         it to {@link #attach(View)}.
+     */
+    public static View inflate(LayoutInflater inflater, ViewGroup container) {
+        return inflater.inflate(R.layout.alp_42447968_lock_pattern_activity,
+                container, false);
+    }// inflate()
+
+    /**
+     * Attaches the controller to the views. The state of the views which were
+     * attached before is moved to the new ones.
+     * <p/>
+     * If the new views contain the {@link LockPatternView} which was attached
+     * before (see {@link LockPatternView#moveTo(View)}), the pattern and the
+     * animations of that view are left as they are.
+     *
+     * @param root
+     *            the root view, which contains the views of the layout
+     *            {@code alp_42447968_lock_pattern_activity}.
+     */
+    public void attach(View root) {
+        if (!mStarted) {
+            mStarted = true;
+            if (!mEncrypterSet) {
+                final String encrypterClass = AlpSettings.getSnapshot(mContext).encrypterClass;
+                setEncrypter(encrypterClass != null ? EncrypterRegistry
+                        .getEncrypter(mContext, encrypterClass) : null);
+            }
+
+            /*
+             * Prepare the stored pattern while the user is drawing.
+             */
+            if (mMode == Mode.COMPARE_PATTERN)
+                prepareStoredPattern();
+        }
+
+        /*
+         * Save all controls' state to restore later.
+         */
+        CharSequence infoText = mTextInfo != null ? mTextInfo.getText() : null;
+        Boolean btnOkEnabled = mBtnConfirm != null ? mBtnConfirm.isEnabled()
+                : null;
+        LockPatternView.DisplayMode lastDisplayMode = mLockPatternView != null ? mLockPatternView
+                .getDisplayMode() : null;
+        List<Cell> lastPattern = mLockPatternView != null ? mLockPatternView
+                .getPattern() : null;
+        final LockPatternView lastLockPatternView = mLockPatternView;
+        if (lastLockPatternView != null)
+            lastLockPatternView.removeCallbacks(mProgressBarShower);
+        final boolean progressBarShown = mViewGroupProgressBar != null
+                && mViewGroupProgressBar.getVisibility() == View.VISIBLE;
+
+        /*
+         * MAP CONTROLS
+         */
+
+        mRoot = root;
+        mTextInfo = (TextView) root
+                .findViewById(R.id.alp_42447968_textview_info);
+        mLockPatternView = (LockPatternView) root
+                .findViewById(R.id.alp_42447968_view_lock_pattern);
+
+        /*
+         * The footer and the progress bar might still be view stubs, they are
+         * inflated on demand. See inflateFooter() and showProgressBar().
+         */
+        mFooter = root.findViewById(R.id.alp_42447968_viewgroup_footer);
+        mBtnCancel = (Button) root
+                .findViewById(R.id.alp_42447968_button_cancel);
+        mBtnConfirm = (Button) root
+                .findViewById(R.id.alp_42447968_button_confirm);
+
+        mViewGroupProgressBar = root
+                .findViewById(R.id.alp_42447968_view_group_progress_bar);
+
+        /*
+         * The host might have moved the same lock pattern view into the new
+         * views. Then it still holds its pattern and animations.
+         */
+        final boolean sameLockPatternView = mLockPatternView == lastLockPatternView;
+        if (lastLockPatternView != null && !sameLockPatternView)
+            lastLockPatternView.setOnPatternListener(null);
+
+        /*
+         * SETUP CONTROLS
+         */
+
+        if (mViewGroupProgressBar != null)
+            mViewGroupProgressBar
+                    .setOnClickListener(mViewGroupProgressBarOnClickListener);
+        if (progressBarShown)
+            showProgressBar();
+        else if (mRunningOperation != null || mPendingPattern != null)
+            showProgressBarDelayed();
+
+        /*
+         * LOCK PATTERN VIEW
+         */
+
+        switch (mContext.getResources().getConfiguration().screenLayout
+                & Configuration.SCREENLAYOUT_SIZE_MASK) {
+        case Configuration.SCREENLAYOUT_SIZE_LARGE:
+        case Configuration.SCREENLAYOUT_SIZE_XLARGE: {
+            final int size = mContext.getResources().getDimensionPixelSize(
+                    R.dimen.alp_42447968_lockpatternview_size);
+            LayoutParams lp = mLockPatternView.getLayoutParams();
+            lp.width = size;
+            lp.height = size;
+            mLockPatternView.setLayoutParams(lp);
+
+            break;
+        }// LARGE / XLARGE
+        }
+
+        /*
+         * Haptic feedback.
+         */
+        boolean hapticFeedbackEnabled = false;
+        try {
+            hapticFeedbackEnabled = android.provider.Settings.System
+                    .getInt(mContext.getContentResolver(),
+                            android.provider.Settings.System.HAPTIC_FEEDBACK_ENABLED,
+                            0) != 0;
+        } catch (Throwable t) {
+            /*
+             * Ignore it.
+             */
+        }
+        mLockPatternView.setTactileFeedbackEnabled(hapticFeedbackEnabled);
+
+        mLockPatternView.setInStealthMode(mStealthMode
+                && mMode != Mode.VERIFY_CAPTCHA);
+        mLockPatternView.setOnPatternListener(mLockPatternViewListener);
+        if (!sameLockPatternView && lastPattern != null
+                && lastDisplayMode != null && mMode != Mode.VERIFY_CAPTCHA)
+            mLockPatternView.setPattern(lastDisplayMode, lastPattern);
+
+        /*
+         * COMMAND BUTTONS
+         */
+
+        switch (mMode) {
+        case CREATE_PATTERN: {
+            inflateFooter();
+            mBtnCancel.setOnClickListener(mBtnCancelOnClickListener);
+            mBtnConfirm.setOnClickListener(mBtnConfirmOnClickListener);
+
+            mBtnCancel.setVisibility(View.VISIBLE);
+            mFooter.setVisibility(View.VISIBLE);
+
+            if (infoText != null)
+                mTextInfo.setText(infoText);
+            else
+                mTextInfo
+                        .setText(R.string.alp_42447968_msg_draw_an_unlock_pattern);
+
+            /*
+             * BUTTON OK
+             */
+            if (mBtnOkCmd == null)
+                mBtnOkCmd = ButtonOkCommand.CONTINUE;
+            switch (mBtnOkCmd) {
+            case CONTINUE:
+                mBtnConfirm.setText(R.string.alp_42447968_cmd_continue);
+                break;
+            case DONE:
+                mBtnConfirm.setText(R.string.alp_42447968_cmd_confirm);
+                break;
+            default:
+                /*
+                 * Do nothing.
+                 */
+                break;
+            }
+            if (btnOkEnabled != null)
+                mBtnConfirm.setEnabled(btnOkEnabled);
+
+            break;
+        }// CREATE_PATTERN
+
+        case COMPARE_PATTERN: {
+            if (TextUtils.isEmpty(infoText))
+                mTextInfo
+                        .setText(R.string.alp_42447968_msg_draw_pattern_to_unlock);
+            else
+                mTextInfo.setText(infoText);
+            if (mForgotPatternEnabled) {
+                inflateFooter();
+                mBtnConfirm.setOnClickListener(mBtnConfirmOnClickListener);
+                mBtnConfirm.setText(R.string.alp_42447968_cmd_forgot_pattern);
+                mBtnConfirm.setEnabled(true);
+                mFooter.setVisibility(View.VISIBLE);
+            }
+
+            break;
+        }// COMPARE_PATTERN
+
+        case IDENTIFY_PATTERN: {
+            if (TextUtils.isEmpty(infoText))
+                mTextInfo
+                        .setText(R.string.alp_42447968_msg_draw_pattern_to_unlock);
+            else
+                mTextInfo.setText(infoText);
+
+            break;
+        }// IDENTIFY_PATTERN
+
+        case VERIFY_CAPTCHA: {
+            mTextInfo
+                    .setText(R.string.alp_42447968_msg_redraw_pattern_to_confirm);
+
+            if (mCaptchaPattern == null)
+                mCaptchaPattern = Pattern.of(LockPatternUtils
+                        .genCaptchaPattern(mCaptchaWiredDots));
+
+            if (!sameLockPatternView) {
+                mPatternMatcher = new PatternMatcher(mCaptchaPattern);
+                mLockPatternView.setPattern(DisplayMode.Animate,
+                        mCaptchaPattern);
+            }
+
+            break;
+        }// VERIFY_CAPTCHA
+        }
+    }// attach()
+
+    /**
+     * Cancels all pending operations, and releases resources. The controller
+     * can't be used after this call.
+     */
+    public void destroy() {
+        cancelCryptoOperations();
+        if (mPreparingTask != null)
+            mPreparingTask.cancel(true);
+        mStoredPattern.clear();
+        mPatternMatcher = null;
+        mPendingPattern = null;
+        if (mLockPatternView != null) {
+            mLockPatternView.removeCallbacks(mLockPatternViewReloader);
+            mLockPatternView.setOnPatternListener(null);
+        }
+        mCallback = null;
+    }// destroy()
+
+    /**
+     * Reads the stored pattern, from {@link #setStoredPattern(char[])} first,
+     * then from the profile record (see {@link #prepareStoredPattern()}), then
+     * from {@link AlpSettings.Security#getPattern(Context)}.
+     *
+     * @return the stored pattern, can be {@code null}.
+     */
+    private char[] readStoredPattern() {
+        if (mGivenPattern != null)
+            return mGivenPattern;
+
+        if (mProfileRecord != null)
+            return mProfileRecord.pattern;
+        return mProfileId != null ? null : AlpSettings.Security
+                .getPattern(mContext);
+    }// readStoredPattern()
+
+    /**
+     * Prepares {@link #mStoredPattern}, for {@link Mode#COMPARE_PATTERN}.
+     * <p/>
+     * The record of the profile given in {@link #setProfileId(String)} is read
+     * in background first, since its shard might have to be loaded from disk.
+     */
+    private void prepareStoredPattern() {
+        if (mProfileId == null || mGivenPattern != null) {
+            prepareStoredPattern(null);
+            return;
+        }
+
+        final String profileId = mProfileId;
+        final PatternStore store = PatternStore.getInstance(mContext);
+        mPreparingStoredPattern = true;
+        mPreparingTask = AlpExecutor.submit(
+                new Callable<PatternStore.Record>() {
+
+                    @Override
+                    public PatternStore.Record call() throws Exception {
+                        return store.getRecord(profileId);
+                    }// call()
+
+                }, new AlpExecutor.Callback<PatternStore.Record>() {
+
+                    @Override
+                    public void onCompleted(PatternStore.Record result) {
+                        onProfileRecordRead(result);
+                    }// onCompleted()
+
+                    @Override
+                    public void onFailed(Throwable t) {
+                        if (t instanceof RejectedExecutionException) {
+                            /*
+                             * The executor is full, read it here rather than
+                             * locking the user out.
+                             */
+                            onProfileRecordRead(store.getRecord(profileId));
+                            return;
+                        }
+
+                        Log.e(CLASSNAME, "Error reading profile", t);
+                        onProfileRecordRead(null);
+                    }// onFailed()
+
+                });
+    }// prepareStoredPattern()
+
+    /**
+     * Will be called after reading the record of the profile, to continue
+     * {@link #prepareStoredPattern()}.
+     *
+     * @param record
+     *            the record, can be {@code null}.
+     */
+    private void onProfileRecordRead(PatternStore.Record record) {
+        mProfileRecord = record;
+        mPreparingStoredPattern = false;
+        mPreparingTask = null;
+
+        prepareStoredPattern(record);
+        if (!mPreparingStoredPattern)
+            onStoredPatternPrepared();
+    }// onProfileRecordRead()
+
+    /**
+     * Prepares {@link #mStoredPattern} from a stored pattern.
+     * <p/>
+     * If there is no encrypter, the stored pattern is SHA-1 of the pattern, so
+     * it is ready immediately. If there is an encrypter which only supports
+     * decrypting, the stored pattern is decrypted in background.
+     * <p/>
+     * Encrypters which can verify patterns without decrypting them (
+     * {@link IPackedEncrypter}, {@link IPatternVerifier} or custom
+     * {@link IAsyncEncrypter}) are left alone. We don't want to decrypt the
+     * stored pattern in those cases.
+     *
+     * @param record
+     *            the record of the profile, or {@code null} to use
+     *            {@link #readStoredPattern()}.
+     */
+    private void prepareStoredPattern(final PatternStore.Record record) {
+        /*
+         * The verifier of the profile might have been prepared before.
+         */
+        final String profileId = mProfileId;
+        if (record != null
+                && PatternStore.getInstance(mContext).getVerifier(profileId,
+                        record.version, mStoredPattern))
+            return;
+
+        final char[] storedPattern = record != null ? record.pattern
+                : readStoredPattern();
+        if (storedPattern == null) {
+            mStoredPattern.setNoPattern();
+            return;
+        }
+
+        if (mEncrypter == null) {
+            /*
+             * The slot wipes its array when cleared, so give it a copy.
+             */
+            mStoredPattern.setSha1(storedPattern.clone());
+            if (record != null)
+                PatternStore.getInstance(mContext).putVerifier(profileId,
+                        record.version, mStoredPattern);
+            return;
+        }
+
+        if (mEncrypter instanceof IPackedEncrypter
+                || mEncrypter instanceof IPatternVerifier
+                || mEncrypter instanceof IAsyncEncrypter)
+            return;
+
+        mPreparingStoredPattern = true;
+        mPreparingTask = mAsyncEncrypter.decrypt(mContext, storedPattern,
+                new IAsyncEncrypter.Callback<List<Cell>>() {
+
+                    @Override
+                    public void onCompleted(List<Cell> result) {
+                        if (result != null) {
+                            mStoredPattern.setPackedPattern(LockPatternUtils
+                                    .patternToLong(result));
+                            if (record != null)
+                                PatternStore.getInstance(mContext)
+                                        .putVerifier(profileId,
+                                                record.version, mStoredPattern);
+                        } else
+                            mStoredPattern.setNoPattern();
+                        onStoredPatternPrepared();
+                    }// onCompleted()
+
+                    @Override
+                    public void onFailed(Throwable t) {
+                        Log.e(CLASSNAME, "Error decrypting pattern", t);
+                        onStoredPatternPrepared();
+                    }// onFailed()
+
+                });
+    }// prepareStoredPattern()
+
+    /**
+     * Will be called after preparing {@link #mStoredPattern}, successfully or
+     * not.
+     */
+    private void onStoredPatternPrepared() {
+        mPreparingStoredPattern = false;
+        mPreparingTask = null;
+
+        if (mPendingPattern != null) {
+            final List<Cell> pattern = mPendingPattern;
+            mPendingPattern = null;
+            hideProgressBar();
+            doComparePattern(pattern);
+        }
+    }// onStoredPatternPrepared()
+
+    /**
+     * Compares {@code pattern} to the stored pattern (
+     * {@link Mode#COMPARE_PATTERN}) or to the "CAPTCHA" pattern (
+     * {@link Mode#VERIFY_CAPTCHA}).
+     *
+     * @param pattern
+     *            the pattern to be compared.
+     */
+    private void doComparePattern(final List<Cell> pattern) {
+        if (pattern == null)
+            return;
+
+        supersedeCryptoOperations();
+
+        /*
+         * The plaintext of the expected pattern is available, the matcher has
+         * checked most of the cells while the user was drawing.
+         */
+        if (mPatternMatcher != null) {
+            onPatternCompared(mPatternMatcher.matches(pattern), null);
+            return;
+        }
+
+        if (mMode == Mode.COMPARE_PATTERN) {
+            /*
+             * The stored pattern might be ready...
+             */
+            final Boolean matched = mStoredPattern.verify(pattern);
+            if (matched != null) {
+                onPatternCompared(matched, null);
+                return;
+            }
+
+            /*
+             * ... or being prepared...
+             */
+            if (mPreparingStoredPattern) {
+                mPendingPattern = new ArrayList<Cell>(pattern);
+                showProgressBarDelayed();
+                return;
+            }
+
+            /*
+             * ... or not at all. Let the encrypter verify the pattern in its
+             * own thread.
+             */
+
+            final char[] currentPattern = readStoredPattern();
+            if (currentPattern == null) {
+                onPatternCompared(false, null);
+                return;
+            }
+
+            final long packedPattern = LockPatternUtils.patternToLong(pattern);
+            runCryptoOperation(new CryptoOperation<Boolean>() {
+
+                @Override
+                Future<Boolean> start(IAsyncEncrypter.Callback<Boolean> callback) {
+                    return mAsyncVerifier.verify(mContext, packedPattern,
+                            currentPattern, callback);
+                }// start()
+
+                @Override
+                public void onCompleted(Boolean result) {
+                    onPatternCompared(result, null);
+                }// onCompleted()
+
+                @Override
+                public void onFailed(Throwable t) {
+                    Log.e(CLASSNAME, "Error verifying pattern", t);
+                    onPatternCompared(false, null);
+                }// onFailed()
+
+            });
+
+            return;
+        }// COMPARE_PATTERN
+
+        if (mMode == Mode.VERIFY_CAPTCHA)
+            onPatternCompared(
+                    mCaptchaPattern != null
+                            && mCaptchaPattern.equals(Pattern.of(pattern)),
+                    null);
+    }// doComparePattern()
+
+    /**
+     * Finds the profile of {@code pattern} ({@link Mode#IDENTIFY_PATTERN}).
+     *
+     * @param pattern
+     *            the pattern.
+     */
+    private void doIdentifyPattern(List<Cell> pattern) {
+        supersedeCryptoOperations();
+
+        final List<Cell> newPattern = new ArrayList<Cell>(pattern);
+        final PatternStore store = PatternStore.getInstance(mContext);
+        runCryptoOperation(new CryptoOperation<String>() {
+
+            @Override
+            Future<String> start(IAsyncEncrypter.Callback<String> callback) {
+                return AlpExecutor.submit(new Callable<String>() {
+
+                    @Override
+                    public String call() throws Exception {
+                        return store.identify(mContext, mEncrypter, newPattern);
+                    }// call()
+
+                }, callback);
+            }// start()
+
+            @Override
+            public void onCompleted(String result) {
+                onPatternCompared(result != null, result);
+            }// onCompleted()
+
+            @Override
+            public void onFailed(Throwable t) {
+                Log.e(CLASSNAME, "Error identifying pattern", t);
+                onPatternCompared(false, null);
+            }// onFailed()
+
+        });
+    }// doIdentifyPattern()
+
+    /**
+     * Handles the result of comparing patterns (
+     * {@link #doComparePattern(List)}).
+     *
+     * @param matched
+     *            {@code true} if the patterns match.
+     * @param profileId
+     *            the profile ID, for {@link Mode#IDENTIFY_PATTERN}.
+     */
+    private void onPatternCompared(boolean matched, String profileId) {
+        if (matched) {
+            /*
+             * If the user was "logging in", minimum try count can not be zero.
+             */
+            if (mCallback != null)
+                mCallback.onPatternMatched(mRetryCount + 1, profileId);
+            return;
+        }
+
+        mRetryCount++;
+        if (mRetryCount >= mMaxRetries) {
+            if (mCallback != null)
+                mCallback.onRetriesExceeded(mRetryCount);
+            return;
+        }
+
+        mLockPatternView.setDisplayMode(DisplayMode.Wrong);
+        mTextInfo.setText(R.string.alp_42447968_msg_try_again);
+        mLockPatternView.postDelayed(mLockPatternViewReloader,
+                DELAY_TIME_TO_RELOAD_LOCK_PATTERN_VIEW);
+        if (mCallback != null)
+            mCallback.onPatternMismatched(mRetryCount);
+    }// onPatternCompared()
+
+    /**
+     * Checks and creates the pattern.
+     *
+     * @param pattern
+     *            the current pattern of lock pattern view.
+     */
+    private void doCheckAndCreatePattern(final List<Cell> pattern) {
+        supersedeCryptoOperations();
+
+        if (pattern.size() < mMinWiredDots) {
+            mLockPatternView.setDisplayMode(DisplayMode.Wrong);
+            mTextInfo.setText(mContext.getResources().getQuantityString(
+                    R.plurals.alp_42447968_pmsg_connect_x_dots, mMinWiredDots,
+                    mMinWiredDots));
+            mLockPatternView.postDelayed(mLockPatternViewReloader,
+                    DELAY_TIME_TO_RELOAD_LOCK_PATTERN_VIEW);
+            return;
+        }// if
+
+        /*
+         * The pattern list belongs to the view, copy it because the operation
+         * might start later.
+         */
+        final List<Cell> newPattern = new ArrayList<Cell>(pattern);
+        final char[] recordedPattern = mRecordedPattern;
+
+        if (recordedPattern != null) {
+            runCryptoOperation(new CryptoOperation<Boolean>() {
+
+                @Override
+                Future<Boolean> start(IAsyncEncrypter.Callback<Boolean> callback) {
+                    /*
+                     * Let the encrypter verify the pattern in its own
+                     * thread...
+                     */
+                    if (mEncrypter != null)
+                        return mAsyncVerifier.verify(mContext,
+                                LockPatternUtils.patternToLong(newPattern),
+                                recordedPattern, callback);
+
+                    /*
+                     * ... or hash the pattern in background, because it might
+                     * take time.
+                     */
+                    return AlpExecutor.submit(new Callable<Boolean>() {
+
+                        @Override
+                        public Boolean call() throws Exception {
+                            return LockPatternUtils.constantTimeEquals(
+                                    recordedPattern, LockPatternUtils
+                                            .patternToSha1(newPattern)
+                                            .toCharArray());
+                        }// call()
+
+                    }, callback);
+                }// start()
+
+                @Override
+                public void onCompleted(Boolean result) {
+                    onPatternConfirmed(result);
+                }// onCompleted()
+
+                @Override
+                public void onFailed(Throwable t) {
+                    Log.e(CLASSNAME, "Error verifying pattern", t);
+                    onPatternConfirmed(false);
+                }// onFailed()
+
+            });
+        } else {
+            runCryptoOperation(new CryptoOperation<char[]>() {
+
+                @Override
+                Future<char[]> start(IAsyncEncrypter.Callback<char[]> callback) {
+                    /*
+                     * Let the encrypter encrypt the pattern in its own
+                     * thread...
+                     */
+                    if (mEncrypter != null)
+                        return mAsyncEncrypter.encrypt(mContext, newPattern,
+                                callback);
+
+                    /*
+                     * ... or hash the pattern in background, because it might
+                     * take time.
+                     */
+                    return AlpExecutor.submit(new Callable<char[]>() {
+
+                        @Override
+                        public char[] call() throws Exception {
+                            return LockPatternUtils.patternToSha1(newPattern)
+                                    .toCharArray();
+                        }// call()
+
+                    }, callback);
+                }// start()
+
+                @Override
+                public void onCompleted(char[] result) {
+                    onPatternRecorded(result);
+                }// onCompleted()
+
+                @Override
+                public void onFailed(Throwable t) {
+                    Log.e(CLASSNAME, "Error encrypting pattern", t);
+                    mLockPatternViewReloader.run();
+                }// onFailed()
+
+            });
+        }
+    }// doCheckAndCreatePattern()
+
+    /**
+     * Handles the result of confirming the new pattern (
+     * {@link #doCheckAndCreatePattern(List)}).
+     *
+     * @param matched
+     *            {@code true} if the confirmed pattern matches the recorded
+     *            one.
+     */
+    private void onPatternConfirmed(boolean matched) {
+        if (matched) {
+            mTextInfo.setText(R.string.alp_42447968_msg_your_new_unlock_pattern);
+            mBtnConfirm.setEnabled(true);
+        } else {
+            mTextInfo
+                    .setText(R.string.alp_42447968_msg_redraw_pattern_to_confirm);
+            mBtnConfirm.setEnabled(false);
+            mLockPatternView.setDisplayMode(DisplayMode.Wrong);
+            mLockPatternView.postDelayed(mLockPatternViewReloader,
+                    DELAY_TIME_TO_RELOAD_LOCK_PATTERN_VIEW);
+        }
+    }// onPatternConfirmed()
+
+    /**
+     * Handles the newly recorded pattern (
+     * {@link #doCheckAndCreatePattern(List)}).
+     *
+     * @param pattern
+     *            the encrypted pattern, or SHA-1 of the pattern.
+     */
+    private void onPatternRecorded(char[] pattern) {
+        mRecordedPattern = pattern;
+        mTextInfo.setText(R.string.alp_42447968_msg_pattern_recorded);
+        mBtnConfirm.setEnabled(true);
+    }// onPatternRecorded()
+
+    /**
+     * Runs a crypto operation. This controller runs at most one crypto
+     * operation at a time: if another one is running, the new operation waits
+     * for it, replacing any operation which is already waiting. The result of
+     * the running operation is then dropped, because it has been superseded.
+     *
+     * @param operation
+     *            the operation.
+     */
+    private void runCryptoOperation(CryptoOperation<?> operation) {
+        operation.mGeneration = ++mGeneration;
+        mPendingOperation = operation;
+        showProgressBarDelayed();
+
+        if (mRunningOperation == null)
+            startPendingOperation();
+    }// runCryptoOperation()
+
+    /**
+     * Starts {@link #mPendingOperation}, if any.
+     */
+    private void startPendingOperation() {
+        final CryptoOperation<?> operation = mPendingOperation;
+        mPendingOperation = null;
+        mRunningOperation = operation;
+        if (operation != null)
+            startCryptoOperation(operation);
+    }// startPendingOperation()
+
+    /**
+     * Starts a crypto operation.
+     *
+     * @param operation
+     *            the operation.
+     */
+    private <T> void startCryptoOperation(final CryptoOperation<T> operation) {
+        final Future<T> task = operation.start(new IAsyncEncrypter.Callback<T>() {
+
+            @Override
+            public void onCompleted(T result) {
+                if (onCryptoOperationFinished(operation))
+                    operation.onCompleted(result);
+            }// onCompleted()
+
+            @Override
+            public void onFailed(Throwable t) {
+                if (onCryptoOperationFinished(operation))
+                    operation.onFailed(t);
+                else if (DEBUG)
+                    Log.d(CLASSNAME, "Superseded operation failed: " + t);
+            }// onFailed()
+
+        });
+
+        /*
+         * The callback might have been called already.
+         */
+        if (operation == mRunningOperation)
+            operation.mTask = task;
+    }// startCryptoOperation()
+
+    /**
+     * Will be called when a crypto operation finished.
+     *
+     * @param operation
+     *            the operation.
+     * @return {@code true} if the operation is of the latest generation, and
+     *         its result should be used.
+     */
+    private boolean onCryptoOperationFinished(CryptoOperation<?> operation) {
+        if (operation != mRunningOperation) {
+            /*
+             * The operation has been cancelled.
+             */
+            return false;
+        }
+
+        mRunningOperation = null;
+        if (operation.mGeneration == mGeneration) {
+            hideProgressBar();
+            return true;
+        }
+
+        if (DEBUG)
+            Log.d(CLASSNAME, "Dropped result of generation "
+                    + operation.mGeneration + ", current: " + mGeneration);
+        startPendingOperation();
+        return false;
+    }// onCryptoOperationFinished()
+
+    /**
+     * Marks all crypto operations as superseded by a new pattern detection.
+     * Results of running operations will be dropped, waiting operations will
+     * not start.
+     */
+    private void supersedeCryptoOperations() {
+        mGeneration++;
+        mPendingOperation = null;
+        hideProgressBar();
+    }// supersedeCryptoOperations()
+
+    /**
+     * Cancels all crypto operations.
+     */
+    public void cancelCryptoOperations() {
+        supersedeCryptoOperations();
+        if (mRunningOperation != null) {
+            if (mRunningOperation.mTask != null)
+                mRunningOperation.mTask.cancel(true);
+            mRunningOperation = null;
+        }
+    }// cancelCryptoOperations()
+
+    /**
+     * Inflates the footer if it is a view stub, and maps its buttons.
+     */
+    private void inflateFooter() {
+        if (mFooter != null)
+            return;
+
+        mFooter = ((ViewStub) mRoot
+                .findViewById(R.id.alp_42447968_stub_footer)).inflate();
+        mBtnCancel = (Button) mFooter
+                .findViewById(R.id.alp_42447968_button_cancel);
+        mBtnConfirm = (Button) mFooter
+                .findViewById(R.id.alp_42447968_button_confirm);
+    }// inflateFooter()
+
+    /**
+     * Shows the progress bar after {@link #DELAY_TIME_TO_SHOW_PROGRESS_BAR}.
+     */
+    private void showProgressBarDelayed() {
+        if (mLockPatternView == null)
+            return;
+        mLockPatternView.removeCallbacks(mProgressBarShower);
+        mLockPatternView.postDelayed(mProgressBarShower,
+                DELAY_TIME_TO_SHOW_PROGRESS_BAR);
+    }// showProgressBarDelayed()
+
+    /**
+     * Shows the progress bar, inflating it if it is a view stub.
+     */
+    private void showProgressBar() {
+        if (mViewGroupProgressBar == null) {
+            mViewGroupProgressBar = ((ViewStub) mRoot
+                    .findViewById(R.id.alp_42447968_stub_progress_bar))
+                    .inflate();
+            mViewGroupProgressBar
+                    .setOnClickListener(mViewGroupProgressBarOnClickListener);
+        }
+        mViewGroupProgressBar.setVisibility(View.VISIBLE);
+    }// showProgressBar()
+
+    /**
+     * Hides the progress bar.
+     */
+    private void hideProgressBar() {
+        if (mLockPatternView != null)
+            mLockPatternView.removeCallbacks(mProgressBarShower);
+        if (mViewGroupProgressBar != null)
+            mViewGroupProgressBar.setVisibility(View.GONE);
+    }// hideProgressBar()
+
+    /**
+     * Saves the new pattern, to the profile given in
+     * {@link #setProfileId(String)} or to {@link AlpSettings}. The pattern is
+     * written in background. If {@link AlpExecutor} is full, it is written in
+     * the calling thread, so it is never lost.
+     *
+     * @param pattern
+     *            the pattern.
+     * @param plainPattern
+     *            the plain pattern, to index the profile for
+     *            {@link Mode#IDENTIFY_PATTERN}. It is used only if
+     *            {@link #setIndexProfile(boolean)} is on.
+     */
+    private void savePattern(final char[] pattern,
+            final List<Cell> plainPattern) {
+        final String profileId = mProfileId;
+        final Runnable writer;
+        if (profileId == null) {
+            final AlpSettings.Editor editor = AlpSettings.edit(mContext)
+                    .setPattern(pattern);
+            writer = new Runnable() {
+
+                @Override
+                public void run() {
+                    editor.commit();
+                }// run()
+
+            };
+        } else {
+            final PatternStore store = PatternStore.getInstance(mContext);
+            final List<Cell> indexedPattern = mIndexProfile ? plainPattern
+                    : null;
+            writer = new Runnable() {
+
+                @Override
+                public void run() {
+                    store.setPattern(profileId, pattern, indexedPattern);
+                }// run()
+
+            };
+        }
+
+        if (!AlpExecutor.tryExecute(writer))
+            writer.run();
+    }// savePattern()
+
+    /*
+     * LISTENERS
+     */
+
+    /**
+     * Pattern listener for LockPatternView.
+     */
+    private final LockPatternView.OnPatternListener mLockPatternViewListener = new LockPatternView.OnPatternListener() {
+
+        @Override
+        public void onPatternStart() {
+            mLockPatternView.removeCallbacks(mLockPatternViewReloader);
+            mLockPatternView.setDisplayMode(DisplayMode.Correct);
+
+            switch (mMode) {
+            case CREATE_PATTERN:
+                mTextInfo
+                        .setText(R.string.alp_42447968_msg_release_finger_when_done);
+                mBtnConfirm.setEnabled(false);
+                if (mBtnOkCmd == ButtonOkCommand.CONTINUE)
+                    mRecordedPattern = null;
+                break;
+            case COMPARE_PATTERN:
+            case IDENTIFY_PATTERN:
+                mTextInfo
+                        .setText(R.string.alp_42447968_msg_draw_pattern_to_unlock);
+                break;
+            case VERIFY_CAPTCHA:
+                mTextInfo
+                        .setText(R.string.alp_42447968_msg_redraw_pattern_to_confirm);
+                break;
+            }
+        }// onPatternStart()
+
+        @Override
+        public void onPatternDetected(List<Cell> pattern) {
+            switch (mMode) {
+            case CREATE_PATTERN:
+                doCheckAndCreatePattern(pattern);
+                break;
+            case COMPARE_PATTERN:
+                doComparePattern(pattern);
+                break;
+            case IDENTIFY_PATTERN:
+                doIdentifyPattern(pattern);
+                break;
+            case VERIFY_CAPTCHA:
+                if (!DisplayMode.Animate.equals(mLockPatternView
+                        .getDisplayMode()))
+                    doComparePattern(pattern);
+                break;
+            }
+
+            /*
+             * The next cell added belongs to a new pattern.
+             */
+            if (mPatternMatcher != null)
+                mPatternMatcher.reset();
+        }// onPatternDetected()
+
+        @Override
+        public void onPatternCleared() {
+            mLockPatternView.removeCallbacks(mLockPatternViewReloader);
+            if (mPatternMatcher != null)
+                mPatternMatcher.reset();
+
+            switch (mMode) {
+            case CREATE_PATTERN:
+                mLockPatternView.setDisplayMode(DisplayMode.Correct);
+                mBtnConfirm.setEnabled(false);
+                if (mBtnOkCmd == ButtonOkCommand.CONTINUE) {
+                    mRecordedPattern = null;
+                    mTextInfo
+                            .setText(R.string.alp_42447968_msg_draw_an_unlock_pattern);
+                } else
+                    mTextInfo
+                            .setText(R.string.alp_42447968_msg_redraw_pattern_to_confirm);
+                break;
+            case COMPARE_PATTERN:
+            case IDENTIFY_PATTERN:
+                mLockPatternView.setDisplayMode(DisplayMode.Correct);
+                mTextInfo
+                        .setText(R.string.alp_42447968_msg_draw_pattern_to_unlock);
+                break;
+            case VERIFY_CAPTCHA:
+                mTextInfo
+                        .setText(R.string.alp_42447968_msg_redraw_pattern_to_confirm);
+                if (mCaptchaPattern != null)
+                    mLockPatternView.setPattern(DisplayMode.Animate,
+                            mCaptchaPattern);
+                break;
+            }
+        }// onPatternCleared()
+
+        @Override
+        public void onPatternCellAdded(List<Cell> pattern) {
+            /*
+             * The stored pattern might become ready while the user is drawing.
+             * The matcher catches up with all cells drawn so far.
+             */
+            if (mPatternMatcher == null && mMode == Mode.COMPARE_PATTERN)
+                mPatternMatcher = mStoredPattern.newMatcher();
+
+            if (mPatternMatcher != null)
+                mPatternMatcher.update(pattern);
+        }// onPatternCellAdded()
+
+    };// mLockPatternViewListener
+
+    /**
+     * Click listener for button Cancel.
+     */
+    private final View.OnClickListener mBtnCancelOnClickListener = new View.OnClickListener() {
+
+        @Override
+        public void onClick(View v) {
+            cancelCryptoOperations();
+            if (mCallback != null)
+                mCallback.onCancelled(mRetryCount);
+        }// onClick()
+
+    };// mBtnCancelOnClickListener
+
+    /**
+     * Click listener for button Confirm.
+     */
+    private final View.OnClickListener mBtnConfirmOnClickListener = new View.OnClickListener() {
+
+        @Override
+        public void onClick(View v) {
+            switch (mMode) {
+            case CREATE_PATTERN:
+                if (mBtnOkCmd == ButtonOkCommand.CONTINUE) {
+                    mBtnOkCmd = ButtonOkCommand.DONE;
+                    mLockPatternView.clearPattern();
+                    mTextInfo
+                            .setText(R.string.alp_42447968_msg_redraw_pattern_to_confirm);
+                    mBtnConfirm.setText(R.string.alp_42447968_cmd_confirm);
+                    mBtnConfirm.setEnabled(false);
+                } else {
+                    final char[] pattern = mRecordedPattern;
+                    if (mAutoSave)
+                        savePattern(pattern, mLockPatternView.getPattern());
+                    if (mCallback != null)
+                        mCallback.onPatternCreated(pattern);
+                }
+                break;
+            case COMPARE_PATTERN:
+                if (mCallback != null)
+                    mCallback.onForgotPattern(mRetryCount);
+                break;
+            default:
+                /*
+                 * Do nothing.
+                 */
+                break;
+            }
+        }// onClick()
+
+    };// mBtnConfirmOnClickListener
+
+    /**
+     * This reloads the {@link #mLockPatternView} after a wrong pattern.
+     */
+    private final Runnable mLockPatternViewReloader = new Runnable() {
+
+        @Override
+        public void run() {
+            mLockPatternView.clearPattern();
+            mLockPatternViewListener.onPatternCleared();
+        }// run()
+
+    };// mLockPatternViewReloader
+
+    /**
+     * A crypto operation of this controller. {@link #onCompleted(Object)} and
+     * {@link #onFailed(Throwable)} are only called if the operation has not
+     * been superseded.
+     *
+     * @param <T>
+     *            the result type.
+     */
+    private abstract class CryptoOperation<T> implements
+            IAsyncEncrypter.Callback<T> {
+
+        /**
+         * The generation, see {@link LockPatternController#mGeneration}.
+         */
+        int mGeneration;
+
+        /**
+         * The task, returned by {@link #start(IAsyncEncrypter.Callback)}.
+         */
+        Future<T> mTask;
+
+        /**
+         * Starts the operation.
+         *
+         * @param callback
+         *            the callback.
+         * @return the task.
+         */
+        abstract Future<T> start(IAsyncEncrypter.Callback<T> callback);
+
+    }// CryptoOperation
+
+    /**
+     * This shows {@link #mViewGroupProgressBar}.
+     */
+    private final Runnable mProgressBarShower = new Runnable() {
+
+        @Override
+        public void run() {
+            showProgressBar();
+        }// run()
+
+    };// mProgressBarShower
+
+    /**
+     * Click listener for view group progress bar.
+     */
+    private final View.OnClickListener mViewGroupProgressBarOnClickListener = new View.OnClickListener() {
+
+        @Override
+        public void onClick(View v) {
+            /*
+             * Do nothing. We just don't want the user to interact with controls
+             * behind this view.
+             */
+        }// onClick()
+
+    };// mViewGroupProgressBarOnClickListener
+
+}
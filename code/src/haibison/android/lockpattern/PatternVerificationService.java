@@ -0,0 +1,544 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package haibison.android.lockpattern;
+
+import haibison.android.lockpattern.core.Patterns;
+import haibison.android.lockpattern.util.AlpSettings;
+import haibison.android.lockpattern.util.AsyncEncrypterAdapter;
+import haibison.android.lockpattern.util.BinaryPreferences;
+import haibison.android.lockpattern.util.EncrypterRegistry;
+import haibison.android.lockpattern.util.IAsyncEncrypter;
+import haibison.android.lockpattern.util.IEncrypter;
+import haibison.android.lockpattern.util.IPackedEncrypter;
+import haibison.android.lockpattern.util.IPatternVerifier;
+import haibison.android.lockpattern.util.PatternSlot;
+import haibison.android.lockpattern.util.PatternStore;
+import haibison.android.lockpattern.widget.LockPatternUtils;
+import haibison.android.lockpattern.widget.LockPatternView.Cell;
+import haibison.android.lockpattern.widget.Pattern;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.Process;
+import android.os.RemoteException;
+import android.util.Log;
+
+/**
+ * Bound service which verifies patterns, for hosts which run in several
+ * processes.
+ * <p/>
+ * The service keeps the encrypter and the prepared stored patterns in one
+ * process, and counts retries of each profile there. The retry counts are
+ * kept in a file, so a client can't reset them by rebinding. A client binds to it,
+ * and sends requests through a {@link Messenger}. One request can hold many
+ * (profile ID, packed pattern) pairs, so it costs one Binder call:
+ * 
+ * <pre>
+ * Message msg = PatternVerificationService.newVerifyRequest(profileIds,
+ *         patterns);
+ * msg.replyTo = myMessenger;
+ * serviceMessenger.send(msg);
+ * </pre>
+ * 
+ * The reply has the same {@code what} and {@code arg1} as the request. Use
+ * {@link #getResults(Message)} and {@link #getRetryCounts(Message)} to read
+ * it.
+ * <p/>
+ * Profile IDs are those of {@link PatternStore}. A {@code null} profile ID
+ * means the pattern stored in {@link AlpSettings}.
+ * <p/>
+ * The service can run in its own process. It reloads the files of
+ * {@link PatternStore} when the app changes them, so it always verifies
+ * against the current patterns.
+ * <p/>
+ * You must declare the service in your manifest, for example:
+ * 
+ * <pre>
+ * &lt;service
+ *     android:name="haibison.android.lockpattern.PatternVerificationService"
+ *     android:exported="false"
+ *     android:process=":lockpattern" /&gt;
+ * </pre>
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class PatternVerificationService extends Service {
+
+    private static final String CLASSNAME = PatternVerificationService.class
+            .getName();
+
+    /**
+     * Verifies patterns. The data holds {@link #EXTRA_PROFILE_IDS} and
+     * {@link #EXTRA_PATTERNS}. The reply holds {@link #EXTRA_RESULTS} and
+     * {@link #EXTRA_RETRY_COUNTS}.
+     */
+    public static final int MSG_VERIFY = 1;
+
+    /**
+     * Resets the retry count of profiles. The data holds
+     * {@link #EXTRA_PROFILE_IDS}. The reply, if requested, has no data.
+     */
+    public static final int MSG_RESET_RETRY_COUNT = 2;
+
+    /**
+     * Key to hold profile IDs, a {@code String[]} array.
+     */
+    public static final String EXTRA_PROFILE_IDS = CLASSNAME + ".profile_ids";
+
+    /**
+     * Key to hold packed patterns (see
+     * {@link LockPatternUtils#patternToLong(List)}), a {@code long[]} array
+     * of the same length as {@link #EXTRA_PROFILE_IDS}.
+     */
+    public static final String EXTRA_PATTERNS = CLASSNAME + ".patterns";
+
+    /**
+     * Key to hold the results, an {@code int[]} array. Each result is one of
+     * {@link #RESULT_MATCHED}, {@link #RESULT_MISMATCHED},
+     * {@link #RESULT_LOCKED} and {@link #RESULT_ERROR}.
+     */
+    public static final String EXTRA_RESULTS = CLASSNAME + ".results";
+
+    /**
+     * Key to hold the retry counts, an {@code int[]} array. See
+     * {@link LockPatternActivity#EXTRA_RETRY_COUNT}.
+     */
+    public static final String EXTRA_RETRY_COUNTS = CLASSNAME
+            + ".retry_counts";
+
+    /**
+     * The pattern matches the stored one. The retry count of the profile is
+     * reset.
+     */
+    public static final int RESULT_MATCHED = 0;
+
+    /**
+     * The pattern doesn't match the stored one, or there is no stored
+     * pattern.
+     */
+    public static final int RESULT_MISMATCHED = 1;
+
+    /**
+     * The profile has reached the maximum retries (see
+     * {@link AlpSettings.Display#getMaxRetries(Context)}), so the pattern was
+     * not verified. Send {@link #MSG_RESET_RETRY_COUNT} to unlock it.
+     */
+    public static final int RESULT_LOCKED = 2;
+
+    /**
+     * An error occurred while verifying the pattern.
+     */
+    public static final int RESULT_ERROR = 3;
+
+    /**
+     * Creates new intent to bind to this service.
+     * 
+     * @param context
+     *            the context.
+     * @return the intent.
+     */
+    public static Intent newIntent(Context context) {
+        return new Intent(context, PatternVerificationService.class);
+    }// newIntent()
+
+    /**
+     * Creates new request of {@link #MSG_VERIFY}.
+     * 
+     * @param profileIds
+     *            the profile IDs.
+     * @param patterns
+     *            the packed patterns.
+     * @return the message. Set its {@link Message#replyTo} before sending.
+     * @throws IllegalArgumentException
+     *             if the arrays have different lengths.
+     */
+    public static Message newVerifyRequest(String[] profileIds, long[] patterns) {
+        if (profileIds.length != patterns.length)
+            throw new IllegalArgumentException(
+                    "`profileIds` and `patterns` must have the same length");
+
+        final Message result = Message.obtain(null, MSG_VERIFY);
+        final Bundle data = new Bundle();
+        data.putStringArray(EXTRA_PROFILE_IDS, profileIds);
+        data.putLongArray(EXTRA_PATTERNS, patterns);
+        result.setData(data);
+        return result;
+    }// newVerifyRequest()
+
+    /**
+     * Gets the results from a reply of {@link #MSG_VERIFY}.
+     * 
+     * @param reply
+     *            the reply.
+     * @return the results, see {@link #EXTRA_RESULTS}.
+     */
+    public static int[] getResults(Message reply) {
+        return reply.getData().getIntArray(EXTRA_RESULTS);
+    }// getResults()
+
+    /**
+     * Gets the retry counts from a reply of {@link #MSG_VERIFY}.
+     * 
+     * @param reply
+     *            the reply.
+     * @return the retry counts, see {@link #EXTRA_RETRY_COUNTS}.
+     */
+    public static int[] getRetryCounts(Message reply) {
+        return reply.getData().getIntArray(EXTRA_RETRY_COUNTS);
+    }// getRetryCounts()
+
+    /*
+     * FIELDS
+     */
+
+    private HandlerThread mThread;
+    private Messenger mMessenger;
+
+    /*
+     * The fields below are accessed only by the thread of the handler.
+     */
+
+    private IEncrypter mEncrypter;
+
+    /**
+     * Retry counts, by {@link #getRetryCountKey(String)}. They are kept in a
+     * file, so unbinding or killing the service doesn't reset them. Loaded
+     * lazily, see {@link #getRetryCounts()}.
+     */
+    private BinaryPreferences mRetryCounts;
+
+    /**
+     * The prepared pattern of {@link AlpSettings}, and a copy of the stored
+     * pattern it was prepared from.
+     */
+    private final PatternSlot mDefaultSlot = new PatternSlot();
+    private char[] mDefaultPattern;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mThread = new HandlerThread(CLASSNAME,
+                Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+
+        final Handler handler = new Handler(mThread.getLooper(), mCallback);
+        mMessenger = new Messenger(handler);
+
+        /*
+         * Load the encrypter before the first request comes.
+         */
+        handler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                final String className = EncrypterRegistry
+                        .getEncrypterClassName(PatternVerificationService.this);
+                if (className != null)
+                    mEncrypter = EncrypterRegistry.getEncrypter(
+                            PatternVerificationService.this, className);
+            }// run()
+
+        });
+    }// onCreate()
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mMessenger.getBinder();
+    }// onBind()
+
+    @Override
+    public void onDestroy() {
+        mThread.quit();
+        mDefaultSlot.clear();
+        if (mDefaultPattern != null)
+            Arrays.fill(mDefaultPattern, '\0');
+
+        super.onDestroy();
+    }// onDestroy()
+
+    /**
+     * Verifies a batch of patterns.
+     * 
+     * @param profileIds
+     *            the profile IDs.
+     * @param patterns
+     *            the packed patterns.
+     * @param results
+     *            the array to receive the results.
+     * @param retryCounts
+     *            the array to receive the retry counts.
+     */
+    private void verify(String[] profileIds, long[] patterns, int[] results,
+            int[] retryCounts) {
+        /*
+         * The settings (the default pattern, and max retries) may have been
+         * changed by the app, in another process.
+         */
+        AlpSettings.reload(this);
+        final int maxRetries = AlpSettings.getSnapshot(this).maxRetries;
+
+        /*
+         * Changes are staged, and written once for the whole batch. A profile
+         * can appear more than once, so read the staged count first.
+         */
+        final BinaryPreferences counts = getRetryCounts();
+        final Map<String, Integer> newCounts = new HashMap<String, Integer>();
+        for (int i = 0; i < results.length; i++) {
+            final String profileId = profileIds[i];
+            final String key = getRetryCountKey(profileId);
+            final Integer newCount = newCounts.get(key);
+            int retryCount = newCount != null ? newCount : counts.getInt(key,
+                    0);
+
+            if (retryCount >= maxRetries) {
+                results[i] = RESULT_LOCKED;
+                retryCounts[i] = retryCount;
+                continue;
+            }
+
+            try {
+                if (verify(profileId, patterns[i])) {
+                    results[i] = RESULT_MATCHED;
+                    /*
+                     * If the user was "logging in", minimum try count can not
+                     * be zero.
+                     */
+                    retryCounts[i] = retryCount + 1;
+                    newCounts.put(key, 0);
+                    continue;
+                }
+                results[i] = RESULT_MISMATCHED;
+            } catch (Throwable t) {
+                Log.e(CLASSNAME, "Error verifying pattern", t);
+                results[i] = RESULT_ERROR;
+            }
+
+            retryCounts[i] = ++retryCount;
+            newCounts.put(key, retryCount);
+        }// for
+
+        if (newCounts.isEmpty())
+            return;
+
+        final BinaryPreferences.Editor editor = counts.edit();
+        for (Map.Entry<String, Integer> entry : newCounts.entrySet()) {
+            if (entry.getValue() == 0)
+                editor.remove(entry.getKey());
+            else
+                editor.putInt(entry.getKey(), entry.getValue());
+        }
+        editor.commit();
+    }// verify()
+
+    /**
+     * Gets the retry counts, loads them if needed.
+     * 
+     * @return the retry counts.
+     */
+    private BinaryPreferences getRetryCounts() {
+        if (mRetryCounts == null)
+            mRetryCounts = BinaryPreferences.getInstance(new File(
+                    getFilesDir(),
+                    AlpSettings.genDatabaseFilename("retry_counts")));
+        return mRetryCounts;
+    }// getRetryCounts()
+
+    /**
+     * Gets the key of a profile in {@link #mRetryCounts}.
+     * 
+     * @param profileId
+     *            the profile ID, can be {@code null}.
+     * @return the key.
+     */
+    private static String getRetryCountKey(String profileId) {
+        return profileId != null ? "profile:" + profileId : "";
+    }// getRetryCountKey()
+
+    /**
+     * Verifies a pattern.
+     * 
+     * @param profileId
+     *            the profile ID, can be {@code null}.
+     * @param pattern
+     *            the packed pattern.
+     * @return {@code true} if the pattern matches the stored one. An invalid
+     *         packed pattern never matches.
+     */
+    private boolean verify(String profileId, long pattern) {
+        if (!Patterns.isValid(pattern))
+            return false;
+
+        final char[] storedPattern;
+        final PatternSlot slot;
+        if (profileId != null) {
+            final PatternStore store = PatternStore.getInstance(this);
+            final PatternStore.Record record = store.getRecord(profileId);
+            if (record == null)
+                return false;
+
+            slot = new PatternSlot();
+            if (!store.getVerifier(profileId, record.version, slot)) {
+                prepare(slot, record.pattern);
+                if (slot.isReady())
+                    store.putVerifier(profileId, record.version, slot);
+            }
+            storedPattern = record.pattern;
+        } else {
+            storedPattern = AlpSettings.Security.getPattern(this);
+            if (storedPattern == null)
+                return false;
+
+            slot = mDefaultSlot;
+            if (!Arrays.equals(storedPattern, mDefaultPattern)) {
+                if (mDefaultPattern != null)
+                    Arrays.fill(mDefaultPattern, '\0');
+                mDefaultPattern = storedPattern.clone();
+                slot.clear();
+                prepare(slot, storedPattern.clone());
+            }
+        }
+
+        try {
+            final Boolean result = slot.verify(Pattern.fromLong(pattern));
+            if (result != null)
+                return result;
+
+            /*
+             * Let the encrypter verify the pattern without decrypting it.
+             */
+            return AsyncEncrypterAdapter.verify(this, mEncrypter, pattern,
+                    storedPattern);
+        } finally {
+            if (slot != mDefaultSlot)
+                slot.clear();
+        }
+    }// verify()
+
+    /**
+     * Prepares a slot. It's the same as {@link LockPatternController} does,
+     * except that decrypting happens in the calling thread.
+     * 
+     * @param slot
+     *            the slot.
+     * @param storedPattern
+     *            the stored pattern. The slot might take ownership of it.
+     */
+    private void prepare(PatternSlot slot, char[] storedPattern) {
+        if (mEncrypter == null) {
+            slot.setSha1(storedPattern);
+            return;
+        }
+
+        if (mEncrypter instanceof IPackedEncrypter
+                || mEncrypter instanceof IPatternVerifier
+                || mEncrypter instanceof IAsyncEncrypter)
+            return;
+
+        final List<Cell> pattern = mEncrypter.decrypt(this, storedPattern);
+        if (pattern != null)
+            slot.setPackedPattern(LockPatternUtils.patternToLong(pattern));
+        else
+            slot.setNoPattern();
+    }// prepare()
+
+    /**
+     * Handles messages from clients, in the thread of the service.
+     */
+    private final Handler.Callback mCallback = new Handler.Callback() {
+
+        @Override
+        public boolean handleMessage(Message msg) {
+            final Message reply = Message.obtain(null, msg.what, msg.arg1, 0);
+
+            switch (msg.what) {
+            case MSG_VERIFY: {
+                final Bundle data = msg.getData();
+                final String[] profileIds = data
+                        .getStringArray(EXTRA_PROFILE_IDS);
+                final long[] patterns = data.getLongArray(EXTRA_PATTERNS);
+                if (profileIds == null || patterns == null
+                        || profileIds.length != patterns.length) {
+                    Log.e(CLASSNAME, "Invalid request: " + data);
+                    reply.recycle();
+                    return true;
+                }
+
+                final int[] results = new int[patterns.length];
+                final int[] retryCounts = new int[patterns.length];
+                verify(profileIds, patterns, results, retryCounts);
+
+                final Bundle replyData = new Bundle();
+                replyData.putIntArray(EXTRA_RESULTS, results);
+                replyData.putIntArray(EXTRA_RETRY_COUNTS, retryCounts);
+                reply.setData(replyData);
+
+                break;
+            }// MSG_VERIFY
+
+            case MSG_RESET_RETRY_COUNT: {
+                final String[] profileIds = msg.getData().getStringArray(
+                        EXTRA_PROFILE_IDS);
+                if (profileIds != null) {
+                    final BinaryPreferences.Editor editor = getRetryCounts()
+                            .edit();
+                    for (String profileId : profileIds)
+                        editor.remove(getRetryCountKey(profileId));
+                    editor.commit();
+                }
+
+                break;
+            }// MSG_RESET_RETRY_COUNT
+
+            default:
+                reply.recycle();
+                return false;
+            }
+
+            if (msg.replyTo != null) {
+                try {
+                    msg.replyTo.send(reply);
+                } catch (RemoteException e) {
+                    /*
+                     * The client is gone. Just ignore it.
+                     */
+                    Log.w(CLASSNAME, "Error sending reply: " + e);
+                }
+            } else
+                reply.recycle();
+
+            return true;
+        }// handleMessage()
+
+    };// mCallback
+
+}
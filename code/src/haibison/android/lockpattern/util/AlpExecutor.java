@@ -0,0 +1,281 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package haibison.android.lockpattern.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * The executor of the library.
+ * <p/>
+ * Background tasks of the library run here, instead of the shared executor of
+ * {@link AsyncTask}. So they don't have to wait for tasks of the host app.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class AlpExecutor {
+
+    private static final String CLASSNAME = AlpExecutor.class.getName();
+
+    /**
+     * Number of threads.
+     */
+    public static final int POOL_SIZE = 2;
+
+    /**
+     * Maximum number of tasks waiting in the queue. If the queue is full, new
+     * tasks will be cancelled. Tasks submitted with
+     * {@link #submit(Callable, Callback)} then fail with
+     * {@link RejectedExecutionException}.
+     */
+    public static final int QUEUE_CAPACITY = 16;
+
+    /**
+     * Priority of the threads.
+     */
+    public static final int THREAD_PRIORITY = Process.THREAD_PRIORITY_BACKGROUND
+            + Process.THREAD_PRIORITY_MORE_FAVORABLE;
+
+    /**
+     * The handler of the main thread.
+     */
+    public static final Handler HANDLER = new Handler(Looper.getMainLooper());
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            POOL_SIZE, POOL_SIZE, 1, TimeUnit.MINUTES,
+            new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY),
+            new ThreadFactory() {
+
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread result = new Thread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(THREAD_PRIORITY);
+                            r.run();
+                        }// run()
+
+                    }, CLASSNAME + " #" + mCount.incrementAndGet());
+                    result.setDaemon(true);
+                    return result;
+                }// newThread()
+
+            }, new RejectedExecutionHandler() {
+
+                @Override
+                public void rejectedExecution(Runnable r,
+                        ThreadPoolExecutor executor) {
+                    Log.w(CLASSNAME, "Queue is full, cancelling task: " + r);
+
+                    /*
+                     * Cancel the task, so its owner doesn't wait for it
+                     * forever.
+                     */
+                    if (r instanceof CallbackTask)
+                        ((CallbackTask<?>) r).reject();
+                    else if (r instanceof Future)
+                        ((Future<?>) r).cancel(false);
+                }// rejectedExecution()
+
+            });
+
+    /**
+     * This is singleton class.
+     */
+    private AlpExecutor() {
+    }// AlpExecutor()
+
+    /**
+     * Executes a task.
+     *
+     * @param task
+     *            the task.
+     */
+    public static void execute(Runnable task) {
+        EXECUTOR.execute(task);
+    }// execute()
+
+    /**
+     * Executes a task, unless the queue is full. Use this method when the
+     * caller must not lose the task: it can run the task by itself if this
+     * method returns {@code false}.
+     * <p/>
+     * Exceptions thrown by the task are not propagated to the thread.
+     *
+     * @param task
+     *            the task.
+     * @return {@code true} if the task has been queued, {@code false} if the
+     *         executor rejected it.
+     */
+    public static boolean tryExecute(Runnable task) {
+        final FutureTask<Void> future = new FutureTask<Void>(task, null);
+        EXECUTOR.execute(future);
+
+        /*
+         * Only the rejection handler can cancel the task.
+         */
+        return !future.isCancelled();
+    }// tryExecute()
+
+    /**
+     * Callback of the tasks submitted with {@link #submit(Callable, Callback)}.
+     *
+     * @param <T>
+     *            the result type.
+     */
+    public static interface Callback<T> {
+
+        /**
+         * Will be called when the task completed successfully.
+         *
+         * @param result
+         *            the result.
+         */
+        void onCompleted(T result);
+
+        /**
+         * Will be called when the task failed, or when the executor rejected
+         * it ({@link RejectedExecutionException}).
+         *
+         * @param t
+         *            the error.
+         */
+        void onFailed(Throwable t);
+
+    }// Callback
+
+    /**
+     * Submits a task. The callback will be called on the main thread, unless
+     * the task is cancelled by its owner. If the queue is full, the task is
+     * cancelled and the callback gets {@link RejectedExecutionException}.
+     *
+     * @param callable
+     *            the task.
+     * @param callback
+     *            the callback, can be {@code null}.
+     * @return the task.
+     */
+    public static <T> Future<T> submit(Callable<T> callable,
+            Callback<T> callback) {
+        final CallbackTask<T> result = new CallbackTask<T>(callable, callback);
+        EXECUTOR.execute(result);
+        return result;
+    }// submit()
+
+    /**
+     * Task which calls its callback on the main thread.
+     *
+     * @param <T>
+     *            the result type.
+     */
+    private static class CallbackTask<T> extends FutureTask<T> {
+
+        private final Callback<T> mCallback;
+
+        /**
+         * {@code true} if the executor rejected this task.
+         */
+        private volatile boolean mRejected = false;
+
+        /**
+         * {@code true} if the owner cancelled this task. Then the callback is
+         * never called.
+         */
+        private volatile boolean mCancelledByOwner = false;
+
+        CallbackTask(Callable<T> callable, Callback<T> callback) {
+            super(callable);
+            mCallback = callback;
+        }// CallbackTask()
+
+        /**
+         * Cancels this task because the executor rejected it.
+         */
+        void reject() {
+            mRejected = true;
+            super.cancel(false);
+        }// reject()
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            mCancelledByOwner = true;
+            return super.cancel(mayInterruptIfRunning);
+        }// cancel()
+
+        @Override
+        protected void done() {
+            if (mCallback == null || mCancelledByOwner)
+                return;
+
+            T value = null;
+            Throwable error = null;
+            if (mRejected)
+                error = new RejectedExecutionException("Queue is full");
+            else {
+                try {
+                    value = get();
+                } catch (ExecutionException e) {
+                    error = e.getCause() != null ? e.getCause() : e;
+                } catch (Throwable t) {
+                    error = t;
+                }
+            }
+
+            final T finalValue = value;
+            final Throwable finalError = error;
+            HANDLER.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    /*
+                     * The task might be cancelled while this runnable was
+                     * waiting in the queue.
+                     */
+                    if (mCancelledByOwner)
+                        return;
+
+                    if (finalError != null)
+                        mCallback.onFailed(finalError);
+                    else
+                        mCallback.onCompleted(finalValue);
+                }// run()
+
+            });
+        }// done()
+
+    }// CallbackTask
+
+
+}
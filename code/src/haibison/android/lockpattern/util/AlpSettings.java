@@ -16,22 +16,33 @@
 
 package haibison.android.lockpattern.util;
 
+import static android.text.format.DateUtils.SECOND_IN_MILLIS;
 import haibison.android.lockpattern.R;
+
+import java.io.File;
+
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.content.res.Resources;
 import android.os.Build;
+import android.os.SystemClock;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
 
 /**
- * All settings for the library. They are stored in {@link SharedPreferences}.
+ * All settings for the library. They are stored in {@link SharedPreferences},
+ * provided by an {@link ISettingsStorage}.
  * <p/>
  * For some options, you can set them directly via tag {@code <meta-data>}
  * inside tag {@code <activity>} in AndroidManifest.xml. Refer to setter methods
  * for details. Note that the values in the manifest get higher priority than
  * the ones from this class.
+ * <p/>
+ * Setter methods write to disk synchronously. To change multiple settings, or
+ * to write asynchronously, use {@link #edit(Context)}.
  * 
  * @author Hai Bison
  * 
@@ -63,25 +74,69 @@ public class AlpSettings {
     }// genDatabaseFilename()
 
     /**
-     * Gets new {@link SharedPreferences}
+     * The storage.
+     */
+    private static volatile ISettingsStorage sStorage = new SharedPreferencesStorage();
+
+    /**
+     * Gets new {@link SharedPreferences}, from the storage (see
+     * {@link #setStorage(ISettingsStorage)}).
      * 
      * @param context
      *            the context.
      * @return {@link SharedPreferences}
      */
-    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
     public static SharedPreferences p(Context context) {
-        /*
-         * Always use application context.
-         */
-        return context.getApplicationContext().getSharedPreferences(
-                genPreferenceFilename(), Context.MODE_MULTI_PROCESS);
+        return sStorage.open(context);
     }// p()
 
+    /**
+     * Gets the storage of the settings.
+     * 
+     * @return the storage. Default is {@link SharedPreferencesStorage}.
+     * @since v3.2.1 beta
+     */
+    public static ISettingsStorage getStorage() {
+        return sStorage;
+    }// getStorage()
+
+    /**
+     * Sets the storage of the settings. You should call this method in
+     * {@link android.app.Application#onCreate()}, before using any other
+     * methods of this class.
+     * 
+     * @param storage
+     *            the storage, for example {@link BinarySettingsStorage}.
+     * @throws NullPointerException
+     *             if {@code storage} is {@code null}.
+     * @since v3.2.1 beta
+     */
+    public static void setStorage(ISettingsStorage storage) {
+        if (storage == null)
+            throw new NullPointerException();
+
+        synchronized (AlpSettings.class) {
+            sStorage = storage;
+
+            /*
+             * The snapshot belongs to the old storage.
+             */
+            if (sSnapshotPreferences != null) {
+                sSnapshotPreferences
+                        .unregisterOnSharedPreferenceChangeListener(sSnapshotUpdater);
+                sSnapshotPreferences = null;
+            }
+            sSnapshotUpdater = null;
+            sSnapshot = null;
+        }
+    }// setStorage()
+
     /**
      * Setup {@code pm} to use global unique filename and global access mode.
      * You must use this method if you let the user change preferences via UI
      * (such as {@link PreferenceActivity}, {@link PreferenceFragment}...).
+     * <p/>
+     * This only works with {@link SharedPreferencesStorage}.
      * 
      * @param context
      *            the context.
@@ -96,6 +151,177 @@ public class AlpSettings {
         pm.setSharedPreferencesName(genPreferenceFilename());
     }// setupPreferenceManager()
 
+    /**
+     * Minimum time between two checks of whether another process has changed
+     * the settings, see {@link #getSnapshot(Context)}.
+     */
+    private static final long SNAPSHOT_CHECK_INTERVAL = SECOND_IN_MILLIS;
+
+    /**
+     * Keys of the settings, resolved once per process.
+     */
+    private static volatile Keys sKeys;
+
+    /**
+     * The latest snapshot of the settings, see {@link #getSnapshot(Context)}.
+     */
+    private static volatile Snapshot sSnapshot;
+
+    /**
+     * Keeps {@link #sSnapshot} up to date. {@link SharedPreferences} only holds
+     * weak references to its listeners, so we hold a strong one here.
+     */
+    private static OnSharedPreferenceChangeListener sSnapshotUpdater;
+
+    /**
+     * The preferences which {@link #sSnapshotUpdater} listens to.
+     */
+    private static SharedPreferences sSnapshotPreferences;
+
+    /**
+     * Gets the keys of the settings.
+     * 
+     * @param context
+     *            the context.
+     * @return the keys.
+     */
+    private static Keys keys(Context context) {
+        Keys result = sKeys;
+        if (result == null) {
+            /*
+             * Keys are the same for all threads, it's OK if some threads
+             * create them more than once.
+             */
+            result = new Keys(context.getApplicationContext());
+            sKeys = result;
+        }
+
+        return result;
+    }// keys()
+
+    /**
+     * Gets the snapshot of the settings. The snapshot is loaded once, then
+     * replaced whenever the settings change in this process.
+     * <p/>
+     * With {@link SharedPreferencesStorage}, the preferences file is shared
+     * between processes ({@link Context#MODE_MULTI_PROCESS}), so its time
+     * stamp and size are checked, at most once per second: if another process
+     * changed the file, the preferences are reloaded and a new snapshot is
+     * made. With {@link BinarySettingsStorage}, the checksum of its file is
+     * checked the same way. Other storages are expected to be used in one
+     * process only.
+     * 
+     * @param context
+     *            the context.
+     * @return the snapshot.
+     * @since v3.2.1 beta
+     */
+    public static Snapshot getSnapshot(Context context) {
+        Snapshot result = sSnapshot;
+        if (result != null && !result.isOutdated(false))
+            return result;
+
+        synchronized (AlpSettings.class) {
+            /*
+             * Another thread may have made a new snapshot meanwhile. Don't
+             * check the old one again, the check is throttled.
+             */
+            if (sSnapshot != null && sSnapshot != result)
+                return sSnapshot;
+
+            final Context appContext = context.getApplicationContext();
+
+            /*
+             * With MODE_MULTI_PROCESS, this reloads the preferences if the
+             * file has been changed.
+             */
+            final SharedPreferences preferences = p(appContext);
+
+            if (sSnapshotPreferences != preferences) {
+                if (sSnapshotPreferences != null)
+                    sSnapshotPreferences
+                            .unregisterOnSharedPreferenceChangeListener(sSnapshotUpdater);
+
+                sSnapshotUpdater = new OnSharedPreferenceChangeListener() {
+
+                    @Override
+                    public void onSharedPreferenceChanged(
+                            SharedPreferences sharedPreferences, String key) {
+                        /*
+                         * The pattern is not a part of snapshots.
+                         */
+                        if (!keys(appContext).sysPattern.equals(key))
+                            sSnapshot = newSnapshot(appContext,
+                                    sharedPreferences);
+                    }// onSharedPreferenceChanged()
+
+                };
+                preferences
+                        .registerOnSharedPreferenceChangeListener(sSnapshotUpdater);
+                sSnapshotPreferences = preferences;
+            }
+
+            sSnapshot = newSnapshot(appContext, preferences);
+            return sSnapshot;
+        }
+    }// getSnapshot()
+
+    /**
+     * Checks now if another process has changed the settings, without waiting
+     * for the throttled check of {@link #getSnapshot(Context)}. Call this
+     * before reading settings which must be current, for example in a
+     * service running in its own process.
+     * 
+     * @param context
+     *            the context.
+     * @since v3.2.1 beta
+     */
+    public static void reload(Context context) {
+        /*
+         * With MODE_MULTI_PROCESS, this reloads the preferences if the file
+         * has been changed.
+         */
+        final SharedPreferences preferences = p(context);
+        final boolean reloaded = preferences instanceof BinaryPreferences
+                && ((BinaryPreferences) preferences).reloadIfModified();
+
+        final Snapshot snapshot = sSnapshot;
+        if (snapshot != null && (reloaded || snapshot.isOutdated(true))) {
+            synchronized (AlpSettings.class) {
+                if (sSnapshot == snapshot)
+                    sSnapshot = null;
+            }
+        }
+    }// reload()
+
+    /**
+     * Creates new snapshot.
+     * 
+     * @param context
+     *            the application context.
+     * @param preferences
+     *            the preferences.
+     * @return the snapshot.
+     */
+    private static Snapshot newSnapshot(Context context,
+            SharedPreferences preferences) {
+        return new Snapshot(context, preferences,
+                sStorage instanceof SharedPreferencesStorage ? SharedPreferencesStorage
+                        .getFile(context) : null);
+    }// newSnapshot()
+
+    /**
+     * Creates new {@link Editor}, to change multiple settings in one write.
+     * 
+     * @param context
+     *            the context.
+     * @return the editor.
+     * @since v3.2.1 beta
+     */
+    public static Editor edit(Context context) {
+        return new Editor(context);
+    }// edit()
+
     /**
      * Display preferences.
      * 
@@ -148,7 +374,7 @@ public class AlpSettings {
         public static boolean isStealthMode(Context context) {
             return p(context)
                     .getBoolean(
-                            context.getString(R.string.alp_42447968_pkey_display_stealth_mode),
+                            keys(context).displayStealthMode,
                             context.getResources()
                                     .getBoolean(
                                             R.bool.alp_42447968_pkey_display_stealth_mode_default));
@@ -169,7 +395,7 @@ public class AlpSettings {
             p(context)
                     .edit()
                     .putBoolean(
-                            context.getString(R.string.alp_42447968_pkey_display_stealth_mode),
+                            keys(context).displayStealthMode,
                             v).commit();
         }// setStealthMode()
 
@@ -183,8 +409,7 @@ public class AlpSettings {
          */
         public static int getMinWiredDots(Context context) {
             return p(context)
-                    .getInt(context
-                            .getString(R.string.alp_42447968_pkey_display_min_wired_dots),
+                    .getInt(keys(context).displayMinWiredDots,
                             context.getResources()
                                     .getInteger(
                                             R.integer.alp_42447968_pkey_display_min_wired_dots_default));
@@ -223,8 +448,7 @@ public class AlpSettings {
             v = validateMinWiredDots(context, v);
             p(context)
                     .edit()
-                    .putInt(context
-                            .getString(R.string.alp_42447968_pkey_display_min_wired_dots),
+                    .putInt(keys(context).displayMinWiredDots,
                             v).commit();
         }// setMinWiredDots()
 
@@ -238,8 +462,7 @@ public class AlpSettings {
          */
         public static int getMaxRetries(Context context) {
             return p(context)
-                    .getInt(context
-                            .getString(R.string.alp_42447968_pkey_display_max_retries),
+                    .getInt(keys(context).displayMaxRetries,
                             context.getResources()
                                     .getInteger(
                                             R.integer.alp_42447968_pkey_display_max_retries_default));
@@ -278,8 +501,7 @@ public class AlpSettings {
             v = validateMaxRetries(context, v);
             p(context)
                     .edit()
-                    .putInt(context
-                            .getString(R.string.alp_42447968_pkey_display_max_retries),
+                    .putInt(keys(context).displayMaxRetries,
                             v).commit();
         }// setMaxRetries()
 
@@ -292,8 +514,7 @@ public class AlpSettings {
          */
         public static int getCaptchaWiredDots(Context context) {
             return p(context)
-                    .getInt(context
-                            .getString(R.string.alp_42447968_pkey_display_captcha_wired_dots),
+                    .getInt(keys(context).displayCaptchaWiredDots,
                             context.getResources()
                                     .getInteger(
                                             R.integer.alp_42447968_pkey_display_captcha_wired_dots_default));
@@ -332,8 +553,7 @@ public class AlpSettings {
             v = validateCaptchaWiredDots(context, v);
             p(context)
                     .edit()
-                    .putInt(context
-                            .getString(R.string.alp_42447968_pkey_display_captcha_wired_dots),
+                    .putInt(keys(context).displayCaptchaWiredDots,
                             v).commit();
         }// setCaptchaWiredDots()
 
@@ -378,7 +598,7 @@ public class AlpSettings {
         public static boolean isAutoSavePattern(Context context) {
             return p(context)
                     .getBoolean(
-                            context.getString(R.string.alp_42447968_pkey_sys_auto_save_pattern),
+                            keys(context).sysAutoSavePattern,
                             context.getResources()
                                     .getBoolean(
                                             R.bool.alp_42447968_pkey_sys_auto_save_pattern_default));
@@ -399,7 +619,7 @@ public class AlpSettings {
             p(context)
                     .edit()
                     .putBoolean(
-                            context.getString(R.string.alp_42447968_pkey_sys_auto_save_pattern),
+                            keys(context).sysAutoSavePattern,
                             v).commit();
             if (!v)
                 setPattern(context, null);
@@ -414,7 +634,7 @@ public class AlpSettings {
          */
         public static char[] getPattern(Context context) {
             String pattern = p(context).getString(
-                    context.getString(R.string.alp_42447968_pkey_sys_pattern),
+                    keys(context).sysPattern,
                     null);
             return pattern == null ? null : pattern.toCharArray();
         }// getPattern()
@@ -431,7 +651,7 @@ public class AlpSettings {
             p(context)
                     .edit()
                     .putString(
-                            context.getString(R.string.alp_42447968_pkey_sys_pattern),
+                            keys(context).sysPattern,
                             pattern != null ? new String(pattern) : null)
                     .commit();
         }// setPattern()
@@ -446,7 +666,7 @@ public class AlpSettings {
         public static char[] getEncrypterClass(Context context) {
             String clazz = p(context)
                     .getString(
-                            context.getString(R.string.alp_42447968_pkey_sys_encrypter_class),
+                            keys(context).sysEncrypterClass,
                             null);
             return clazz == null ? null : clazz.toCharArray();
         }// getEncrypterClass()
@@ -473,6 +693,9 @@ public class AlpSettings {
          * <p/>
          * You can set this value in AndroidManifest.xml with
          * {@link #METADATA_ENCRYPTER_CLASS}.
+         * <p/>
+         * This method also instantiates the encrypter in a background thread,
+         * see {@link EncrypterRegistry}.
          * 
          * @param context
          *            the context.
@@ -481,13 +704,380 @@ public class AlpSettings {
          *            you don't want to use it.
          */
         public static void setEncrypterClass(Context context, char[] clazz) {
+            final String className = clazz != null ? new String(clazz) : null;
             p(context)
                     .edit()
                     .putString(
-                            context.getString(R.string.alp_42447968_pkey_sys_encrypter_class),
-                            clazz != null ? new String(clazz) : null).commit();
+                            keys(context).sysEncrypterClass,
+                            className).commit();
+            EncrypterRegistry.warmUp(context, className);
         }// setEncrypterClass()
 
     }// Security
 
+    /**
+     * Batch editor for the settings. Changes are coalesced and written to disk
+     * at once, by {@link #apply()} or {@link #commit()}.
+     * <p/>
+     * For example:
+     * 
+     * <pre>
+     * AlpSettings.edit(context).setMinWiredDots(4).setPattern(pattern).apply();
+     * </pre>
+     * 
+     * @author Hai Bison
+     * @since v3.2.1 beta
+     */
+    public static class Editor {
+
+        private final Context mContext;
+        private final SharedPreferences.Editor mEditor;
+        private boolean mEncrypterClassChanged = false;
+        private String mEncrypterClass;
+
+        /**
+         * Creates new instance.
+         * 
+         * @param context
+         *            the context.
+         */
+        private Editor(Context context) {
+            mContext = context.getApplicationContext();
+            mEditor = p(mContext).edit();
+        }// Editor()
+
+        /**
+         * See {@link Display#setStealthMode(Context, boolean)}.
+         * 
+         * @param v
+         *            the value.
+         * @return the instance of this object, for chaining multiple calls
+         *         into a single statement.
+         */
+        public Editor setStealthMode(boolean v) {
+            mEditor.putBoolean(
+                    keys(mContext).displayStealthMode,
+                    v);
+            return this;
+        }// setStealthMode()
+
+        /**
+         * See {@link Display#setMinWiredDots(Context, int)}.
+         * 
+         * @param v
+         *            the minimum wired dots allowed for a pattern.
+         * @return the instance of this object, for chaining multiple calls
+         *         into a single statement.
+         */
+        public Editor setMinWiredDots(int v) {
+            mEditor.putInt(
+                    keys(mContext).displayMinWiredDots,
+                    Display.validateMinWiredDots(mContext, v));
+            return this;
+        }// setMinWiredDots()
+
+        /**
+         * See {@link Display#setMaxRetries(Context, int)}.
+         * 
+         * @param v
+         *            the max retries allowed in mode comparing pattern.
+         * @return the instance of this object, for chaining multiple calls
+         *         into a single statement.
+         */
+        public Editor setMaxRetries(int v) {
+            mEditor.putInt(
+                    keys(mContext).displayMaxRetries,
+                    Display.validateMaxRetries(mContext, v));
+            return this;
+        }// setMaxRetries()
+
+        /**
+         * See {@link Display#setCaptchaWiredDots(Context, int)}.
+         * 
+         * @param v
+         *            the wired dots for a "CAPTCHA" pattern.
+         * @return the instance of this object, for chaining multiple calls
+         *         into a single statement.
+         */
+        public Editor setCaptchaWiredDots(int v) {
+            mEditor.putInt(
+                    keys(mContext).displayCaptchaWiredDots,
+                    Display.validateCaptchaWiredDots(mContext, v));
+            return this;
+        }// setCaptchaWiredDots()
+
+        /**
+         * See {@link Security#setAutoSavePattern(Context, boolean)}.
+         * 
+         * @param v
+         *            the auto-save mode.
+         * @return the instance of this object, for chaining multiple calls
+         *         into a single statement.
+         */
+        public Editor setAutoSavePattern(boolean v) {
+            mEditor.putBoolean(
+                    keys(mContext).sysAutoSavePattern,
+                    v);
+            if (!v)
+                setPattern(null);
+            return this;
+        }// setAutoSavePattern()
+
+        /**
+         * See {@link Security#setPattern(Context, char[])}.
+         * 
+         * @param pattern
+         *            the pattern, can be {@code null} to reset it.
+         * @return the instance of this object, for chaining multiple calls
+         *         into a single statement.
+         */
+        public Editor setPattern(char[] pattern) {
+            mEditor.putString(
+                    keys(mContext).sysPattern,
+                    pattern != null ? new String(pattern) : null);
+            return this;
+        }// setPattern()
+
+        /**
+         * See {@link Security#setEncrypterClass(Context, char[])}.
+         * 
+         * @param clazz
+         *            the full name of encrypter class, can be {@code null} if
+         *            you don't want to use it.
+         * @return the instance of this object, for chaining multiple calls
+         *         into a single statement.
+         */
+        public Editor setEncrypterClass(char[] clazz) {
+            mEncrypterClass = clazz != null ? new String(clazz) : null;
+            mEncrypterClassChanged = true;
+            mEditor.putString(
+                    keys(mContext).sysEncrypterClass,
+                    mEncrypterClass);
+            return this;
+        }// setEncrypterClass()
+
+        /**
+         * Writes the changes to disk asynchronously. The changes are visible
+         * to getters of {@link AlpSettings} right away on API 9+.
+         * <p/>
+         * On API 8 and below, {@link SharedPreferences.Editor#apply()} is not
+         * available, the changes are committed synchronously. A background
+         * commit could be rejected by {@link AlpExecutor} and lost.
+         */
+        @TargetApi(Build.VERSION_CODES.GINGERBREAD)
+        public void apply() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD)
+                mEditor.apply();
+            else
+                mEditor.commit();
+
+            onChanged();
+        }// apply()
+
+        /**
+         * Writes the changes to disk synchronously. Use this method if you need
+         * the changes to be durable before going on, such as when saving the
+         * pattern right before the process might be killed.
+         * 
+         * @return {@code true} if the changes were written successfully.
+         */
+        public boolean commit() {
+            final boolean result = mEditor.commit();
+            onChanged();
+            return result;
+        }// commit()
+
+        /**
+         * Will be called after applying or committing the changes.
+         */
+        private void onChanged() {
+            if (mEncrypterClassChanged)
+                EncrypterRegistry.warmUp(mContext, mEncrypterClass);
+        }// onChanged()
+
+    }// Editor
+
+    /**
+     * Keys of the settings.
+     */
+    private static class Keys {
+
+        final String displayStealthMode;
+        final String displayMinWiredDots;
+        final String displayMaxRetries;
+        final String displayCaptchaWiredDots;
+        final String sysAutoSavePattern;
+        final String sysPattern;
+        final String sysEncrypterClass;
+
+        /**
+         * Creates new instance.
+         * 
+         * @param context
+         *            the context.
+         */
+        Keys(Context context) {
+            displayStealthMode = context
+                    .getString(R.string.alp_42447968_pkey_display_stealth_mode);
+            displayMinWiredDots = context
+                    .getString(R.string.alp_42447968_pkey_display_min_wired_dots);
+            displayMaxRetries = context
+                    .getString(R.string.alp_42447968_pkey_display_max_retries);
+            displayCaptchaWiredDots = context
+                    .getString(R.string.alp_42447968_pkey_display_captcha_wired_dots);
+            sysAutoSavePattern = context
+                    .getString(R.string.alp_42447968_pkey_sys_auto_save_pattern);
+            sysPattern = context
+                    .getString(R.string.alp_42447968_pkey_sys_pattern);
+            sysEncrypterClass = context
+                    .getString(R.string.alp_42447968_pkey_sys_encrypter_class);
+        }// Keys()
+
+    }// Keys
+
+    /**
+     * Immutable snapshot of the settings, except the pattern. See
+     * {@link AlpSettings#getSnapshot(Context)}.
+     * 
+     * @author Hai Bison
+     * @since v3.2.1 beta
+     */
+    public static class Snapshot {
+
+        /**
+         * See {@link Display#isStealthMode(Context)}.
+         */
+        public final boolean stealthMode;
+
+        /**
+         * See {@link Display#getMinWiredDots(Context)}.
+         */
+        public final int minWiredDots;
+
+        /**
+         * See {@link Display#getMaxRetries(Context)}.
+         */
+        public final int maxRetries;
+
+        /**
+         * See {@link Display#getCaptchaWiredDots(Context)}.
+         */
+        public final int captchaWiredDots;
+
+        /**
+         * See {@link Security#isAutoSavePattern(Context)}.
+         */
+        public final boolean autoSavePattern;
+
+        /**
+         * See {@link Security#getEncrypterClass(Context)}. Can be {@code null}
+         * .
+         */
+        public final String encrypterClass;
+
+        /**
+         * The preferences, if they are {@link BinaryPreferences}. Their file
+         * can be changed by other processes. Can be {@code null}.
+         */
+        private final BinaryPreferences mBinaryPreferences;
+
+        /**
+         * The file of the preferences, if it can be changed by other
+         * processes. Can be {@code null}.
+         */
+        private final File mFile;
+        private final long mFileLastModified;
+        private final long mFileLength;
+
+        /**
+         * The time of the last check of the preferences file, see
+         * {@link SystemClock#uptimeMillis()}.
+         */
+        private volatile long mCheckedAt;
+
+        /**
+         * Creates new instance.
+         * 
+         * @param context
+         *            the application context.
+         * @param preferences
+         *            the preferences.
+         * @param file
+         *            the file of the preferences, if it can be changed by
+         *            other processes. Can be {@code null}.
+         */
+        private Snapshot(Context context, SharedPreferences preferences,
+                File file) {
+            /*
+             * Read the file attributes before the values, so a change made in
+             * between makes this snapshot outdated.
+             */
+            mFile = file;
+            mFileLastModified = file != null ? file.lastModified() : 0;
+            mFileLength = file != null ? file.length() : 0;
+            mBinaryPreferences = preferences instanceof BinaryPreferences ? (BinaryPreferences) preferences
+                    : null;
+            mCheckedAt = SystemClock.uptimeMillis();
+
+            final Keys keys = keys(context);
+            final Resources resources = context.getResources();
+
+            stealthMode = preferences
+                    .getBoolean(
+                            keys.displayStealthMode,
+                            resources
+                                    .getBoolean(R.bool.alp_42447968_pkey_display_stealth_mode_default));
+            minWiredDots = preferences
+                    .getInt(keys.displayMinWiredDots,
+                            resources
+                                    .getInteger(R.integer.alp_42447968_pkey_display_min_wired_dots_default));
+            maxRetries = preferences
+                    .getInt(keys.displayMaxRetries,
+                            resources
+                                    .getInteger(R.integer.alp_42447968_pkey_display_max_retries_default));
+            captchaWiredDots = preferences
+                    .getInt(keys.displayCaptchaWiredDots,
+                            resources
+                                    .getInteger(R.integer.alp_42447968_pkey_display_captcha_wired_dots_default));
+            autoSavePattern = preferences
+                    .getBoolean(
+                            keys.sysAutoSavePattern,
+                            resources
+                                    .getBoolean(R.bool.alp_42447968_pkey_sys_auto_save_pattern_default));
+            encrypterClass = preferences.getString(keys.sysEncrypterClass,
+                    null);
+        }// Snapshot()
+
+        /**
+         * Checks if another process has changed the preferences file since
+         * this snapshot was made. Unless {@code checkNow} is {@code true}, the
+         * file is checked at most once per
+         * {@link AlpSettings#SNAPSHOT_CHECK_INTERVAL}, so most calls don't
+         * touch the disk.
+         * <p/>
+         * {@link BinaryPreferences} are reloaded by the check, if their file
+         * has been changed.
+         * 
+         * @param checkNow
+         *            {@code true} to check regardless of the last check.
+         * @return {@code true} or {@code false}.
+         */
+        private boolean isOutdated(boolean checkNow) {
+            if (mFile == null && mBinaryPreferences == null)
+                return false;
+
+            final long now = SystemClock.uptimeMillis();
+            if (!checkNow && now - mCheckedAt < SNAPSHOT_CHECK_INTERVAL)
+                return false;
+            mCheckedAt = now;
+
+            if (mBinaryPreferences != null)
+                return mBinaryPreferences.reloadIfModified();
+
+            return mFile.lastModified() != mFileLastModified
+                    || mFile.length() != mFileLength;
+        }// isOutdated()
+
+    }// Snapshot
+
 }
@@ -0,0 +1,156 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.android.lockpattern.util;
+
+import haibison.android.lockpattern.widget.LockPatternUtils;
+import haibison.android.lockpattern.widget.LockPatternView.Cell;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import android.content.Context;
+
+/**
+ * Wraps a synchronous {@link IEncrypter} into an {@link IAsyncEncrypter}.
+ * <p/>
+ * Operations run on {@link AlpExecutor}, so slow encrypters don't hold up the
+ * shared executor of {@link android.os.AsyncTask}.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class AsyncEncrypterAdapter implements IAsyncEncrypter {
+
+    private final IEncrypter mEncrypter;
+
+    /**
+     * Creates new instance.
+     *
+     * @param encrypter
+     *            the encrypter to be wrapped.
+     * @throws NullPointerException
+     *             if {@code encrypter} is {@code null}.
+     */
+    public AsyncEncrypterAdapter(IEncrypter encrypter) {
+        if (encrypter == null)
+            throw new NullPointerException();
+        mEncrypter = encrypter;
+    }// AsyncEncrypterAdapter()
+
+    /**
+     * Gets the wrapped encrypter.
+     *
+     * @return the wrapped encrypter.
+     */
+    public IEncrypter getEncrypter() {
+        return mEncrypter;
+    }// getEncrypter()
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * If the wrapped encrypter is an {@link IPackedEncrypter}, this method uses
+     * {@link IPackedEncrypter#encrypt(Context, long)}.
+     */
+    @Override
+    public Future<char[]> encrypt(final Context context,
+            final List<Cell> pattern, Callback<char[]> callback) {
+        return AlpExecutor.submit(new Callable<char[]>() {
+
+            @Override
+            public char[] call() throws Exception {
+                if (mEncrypter instanceof IPackedEncrypter)
+                    return ((IPackedEncrypter) mEncrypter).encrypt(context,
+                            LockPatternUtils.patternToLong(pattern));
+
+                return mEncrypter.encrypt(context, pattern);
+            }// call()
+
+        }, callback);
+    }// encrypt()
+
+    @Override
+    public Future<List<Cell>> decrypt(final Context context,
+            final char[] encryptedPattern, Callback<List<Cell>> callback) {
+        return AlpExecutor.submit(new Callable<List<Cell>>() {
+
+            @Override
+            public List<Cell> call() throws Exception {
+                return mEncrypter.decrypt(context, encryptedPattern);
+            }// call()
+
+        }, callback);
+    }// decrypt()
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * This method uses, in order of preference:
+     * <ul>
+     * <li>{@link IPackedEncrypter#verify(Context, long, char[])};</li>
+     * <li>{@link IPatternVerifier#verify(Context, List, char[])};</li>
+     * <li>{@link IEncrypter#decrypt(Context, char[])}, then compares the result
+     * with {@code pattern}.</li>
+     * </ul>
+     */
+    @Override
+    public Future<Boolean> verify(final Context context, final long pattern,
+            final char[] encryptedPattern, Callback<Boolean> callback) {
+        return AlpExecutor.submit(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws Exception {
+                return verify(context, mEncrypter, pattern, encryptedPattern);
+            }// call()
+
+        }, callback);
+    }// verify()
+
+    /**
+     * Verifies a pattern against an encrypted pattern, in the calling thread.
+     * See {@link #verify(Context, long, char[], Callback)} for the methods
+     * used.
+     *
+     * @param context
+     *            the context.
+     * @param encrypter
+     *            the encrypter.
+     * @param pattern
+     *            the packed pattern, see
+     *            {@link LockPatternUtils#patternToLong(List)}.
+     * @param encryptedPattern
+     *            the encrypted pattern.
+     * @return {@code true} if {@code encryptedPattern} is the encrypted form
+     *         of {@code pattern}.
+     */
+    public static boolean verify(Context context, IEncrypter encrypter,
+            long pattern, char[] encryptedPattern) {
+        if (encrypter instanceof IPackedEncrypter)
+            return ((IPackedEncrypter) encrypter).verify(context, pattern,
+                    encryptedPattern);
+        if (encrypter instanceof IPatternVerifier)
+            return ((IPatternVerifier) encrypter).verify(context,
+                    LockPatternUtils.longToPattern(pattern), encryptedPattern);
+
+        final List<Cell> decryptedPattern = encrypter.decrypt(context,
+                encryptedPattern);
+        return decryptedPattern != null
+                && LockPatternUtils.patternToLong(decryptedPattern) == pattern;
+    }// verify()
+
+}
@@ -0,0 +1,708 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package haibison.android.lockpattern.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
+
+import android.content.SharedPreferences;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * {@link SharedPreferences} stored in a small binary file.
+ * <p/>
+ * The file is read with a single read, and written to a temporary file which
+ * then replaces the old one, so a crash never leaves a half-written file.
+ * <p/>
+ * <h1>File format</h1>
+ * <p/>
+ * All numbers are big-endian.
+ * <ul>
+ * <li>Magic number: {@code int} {@link #MAGIC}.</li>
+ * <li>Version: {@code int} {@link #VERSION}.</li>
+ * <li>Entry count: {@code int}.</li>
+ * <li>Entries: key (modified UTF-8), type ({@code byte}), value.</li>
+ * <li>CRC-32 of all preceding bytes: {@code int}.</li>
+ * </ul>
+ * <p/>
+ * This class is thread-safe. Instances are cached per file, so they don't see
+ * changes made by other processes, until {@link #reloadIfModified()} is
+ * called. It compares the checksum at the end of the file, which changes with
+ * every new content, unlike the modification time whose granularity can be
+ * one second. Only one process should write a file: a write replaces the whole
+ * file with the values of the writing process.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class BinaryPreferences implements SharedPreferences {
+
+    private static final String CLASSNAME = BinaryPreferences.class.getName();
+
+    /**
+     * Magic number of the file: {@code "ALPS"}.
+     */
+    public static final int MAGIC = 0x414c5053;
+
+    /**
+     * Current version of the file format.
+     */
+    public static final int VERSION = 1;
+
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_STRING_SET = 6;
+
+    /**
+     * Checksum of a file which doesn't exist or is too short.
+     */
+    private static final long NO_CHECKSUM = -1;
+
+    /**
+     * Instances, one per file.
+     */
+    private static final Map<File, BinaryPreferences> INSTANCES = new HashMap<File, BinaryPreferences>();
+
+    /**
+     * Gets the instance for given file. The file is loaded the first time.
+     *
+     * @param file
+     *            the file.
+     * @return the instance.
+     */
+    public static BinaryPreferences getInstance(File file) {
+        synchronized (INSTANCES) {
+            BinaryPreferences result = INSTANCES.get(file);
+            if (result == null) {
+                result = new BinaryPreferences(file);
+                INSTANCES.put(file, result);
+            }
+            return result;
+        }
+    }// getInstance()
+
+    private final File mFile;
+
+    /**
+     * The values. Guarded by {@code this}.
+     */
+    private final Map<String, Object> mMap;
+
+    /**
+     * The listeners. Like {@link SharedPreferences}, they are weakly
+     * referenced. Guarded by {@code this}.
+     */
+    private final WeakHashMap<OnSharedPreferenceChangeListener, Object> mListeners = new WeakHashMap<OnSharedPreferenceChangeListener, Object>();
+
+    /**
+     * Serializes writes to the file.
+     */
+    private final Object mWriteLock = new Object();
+
+    /**
+     * {@code true} if a write is waiting on {@link AlpExecutor}. Guarded by
+     * {@code this}.
+     */
+    private boolean mWriteScheduled = false;
+
+    /**
+     * {@code true} if {@link #mMap} has changes which are not written yet.
+     * Guarded by {@code this}.
+     */
+    private boolean mDirty = false;
+
+    /**
+     * Checksum of the file (see {@link #getChecksum(byte[])}), when it was last
+     * read or written by this instance. Guarded by {@code this}.
+     */
+    private long mFileChecksum;
+
+    /**
+     * Creates new instance.
+     *
+     * @param file
+     *            the file.
+     */
+    private BinaryPreferences(File file) {
+        mFile = file;
+
+        byte[] data = null;
+        try {
+            data = readFile(file);
+        } catch (IOException e) {
+            Log.e(CLASSNAME, "Error reading " + file + ", ignoring it", e);
+        }
+        mFileChecksum = getChecksum(data);
+        mMap = read(file, data);
+    }// BinaryPreferences()
+
+    /**
+     * Reloads the file if another process has replaced it since this instance
+     * last read or wrote it. The check reads only the checksum at the end of
+     * the file.
+     * <p/>
+     * Changes which are not written yet are kept, the file is not reloaded in
+     * that case. Listeners are not notified.
+     *
+     * @return {@code true} if the file has been reloaded.
+     */
+    public boolean reloadIfModified() {
+        synchronized (mWriteLock) {
+            final byte[] data;
+            try {
+                final long checksum = readChecksum(mFile);
+                synchronized (this) {
+                    if (mDirty || checksum == mFileChecksum)
+                        return false;
+                }
+
+                data = readFile(mFile);
+            } catch (IOException e) {
+                Log.e(CLASSNAME, "Error reloading " + mFile, e);
+                return false;
+            }
+
+            /*
+             * The file might have been replaced again after the check, so
+             * take the checksum of what has been read.
+             */
+            final long checksum = getChecksum(data);
+            final Map<String, Object> map = read(mFile, data);
+            synchronized (this) {
+                if (mDirty || checksum == mFileChecksum)
+                    return false;
+
+                mMap.clear();
+                mMap.putAll(map);
+                mFileChecksum = checksum;
+            }
+            return true;
+        }
+    }// reloadIfModified()
+
+    @Override
+    public synchronized Map<String, ?> getAll() {
+        return new HashMap<String, Object>(mMap);
+    }// getAll()
+
+    @Override
+    public synchronized String getString(String key, String defValue) {
+        final String v = (String) mMap.get(key);
+        return v != null ? v : defValue;
+    }// getString()
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public synchronized Set<String> getStringSet(String key,
+            Set<String> defValues) {
+        final Set<String> v = (Set<String>) mMap.get(key);
+        return v != null ? v : defValues;
+    }// getStringSet()
+
+    @Override
+    public synchronized int getInt(String key, int defValue) {
+        final Integer v = (Integer) mMap.get(key);
+        return v != null ? v : defValue;
+    }// getInt()
+
+    @Override
+    public synchronized long getLong(String key, long defValue) {
+        final Long v = (Long) mMap.get(key);
+        return v != null ? v : defValue;
+    }// getLong()
+
+    @Override
+    public synchronized float getFloat(String key, float defValue) {
+        final Float v = (Float) mMap.get(key);
+        return v != null ? v : defValue;
+    }// getFloat()
+
+    @Override
+    public synchronized boolean getBoolean(String key, boolean defValue) {
+        final Boolean v = (Boolean) mMap.get(key);
+        return v != null ? v : defValue;
+    }// getBoolean()
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return mMap.containsKey(key);
+    }// contains()
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl();
+    }// edit()
+
+    @Override
+    public synchronized void registerOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        mListeners.put(listener, this);
+    }// registerOnSharedPreferenceChangeListener()
+
+    @Override
+    public synchronized void unregisterOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        mListeners.remove(listener);
+    }// unregisterOnSharedPreferenceChangeListener()
+
+    /**
+     * Writes current values to the file.
+     *
+     * @return {@code true} if succeeded.
+     */
+    private boolean writeToFile() {
+        synchronized (mWriteLock) {
+            final Map<String, Object> map;
+            synchronized (this) {
+                map = new HashMap<String, Object>(mMap);
+                mDirty = false;
+            }
+
+            try {
+                final long checksum = write(mFile, map);
+                synchronized (this) {
+                    mFileChecksum = checksum;
+                }
+                return true;
+            } catch (IOException e) {
+                Log.e(CLASSNAME, "Error writing " + mFile, e);
+                synchronized (this) {
+                    mDirty = true;
+                }
+                return false;
+            }
+        }
+    }// writeToFile()
+
+    /**
+     * Schedules a write on {@link AlpExecutor}. Multiple calls are coalesced
+     * into one write, while the write is waiting. If the executor rejects the
+     * write, it is done in the calling thread.
+     */
+    private void scheduleWrite() {
+        synchronized (this) {
+            if (mWriteScheduled)
+                return;
+            mWriteScheduled = true;
+        }
+
+        final Runnable writer = new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (BinaryPreferences.this) {
+                    mWriteScheduled = false;
+                }
+                writeToFile();
+            }// run()
+
+        };
+        if (!AlpExecutor.tryExecute(writer))
+            writer.run();
+    }// scheduleWrite()
+
+    /**
+     * Notifies listeners on the main thread.
+     *
+     * @param keys
+     *            the changed keys.
+     */
+    private void notifyListeners(final List<String> keys) {
+        if (keys.isEmpty())
+            return;
+
+        final List<OnSharedPreferenceChangeListener> listeners;
+        synchronized (this) {
+            if (mListeners.isEmpty())
+                return;
+            listeners = new ArrayList<OnSharedPreferenceChangeListener>(
+                    mListeners.keySet());
+        }
+
+        final Runnable notifier = new Runnable() {
+
+            @Override
+            public void run() {
+                for (String key : keys)
+                    for (OnSharedPreferenceChangeListener listener : listeners)
+                        listener.onSharedPreferenceChanged(
+                                BinaryPreferences.this, key);
+            }// run()
+
+        };
+
+        if (Looper.myLooper() == Looper.getMainLooper())
+            notifier.run();
+        else
+            AlpExecutor.HANDLER.post(notifier);
+    }// notifyListeners()
+
+    /**
+     * Reads the whole file.
+     *
+     * @param file
+     *            the file.
+     * @return the content, or {@code null} if the file doesn't exist.
+     * @throws IOException
+     *             if any.
+     */
+    private static byte[] readFile(File file) throws IOException {
+        if (!file.isFile())
+            return null;
+
+        final FileInputStream input = new FileInputStream(file);
+        try {
+            final byte[] result = new byte[(int) input.getChannel().size()];
+            new DataInputStream(input).readFully(result);
+            return result;
+        } finally {
+            input.close();
+        }
+    }// readFile()
+
+    /**
+     * Reads the checksum at the end of the file, without reading the rest.
+     *
+     * @param file
+     *            the file.
+     * @return the checksum, see {@link #getChecksum(byte[])}.
+     * @throws IOException
+     *             if any.
+     */
+    private static long readChecksum(File file) throws IOException {
+        if (!file.isFile())
+            return NO_CHECKSUM;
+
+        final RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            final long length = input.length();
+            if (length < Integer.SIZE / 8)
+                return NO_CHECKSUM;
+
+            input.seek(length - Integer.SIZE / 8);
+            return input.readInt() & 0xffffffffL;
+        } finally {
+            input.close();
+        }
+    }// readChecksum()
+
+    /**
+     * Gets the checksum of a file content: its last {@code int}, which is the
+     * CRC-32 of the rest if the file is valid.
+     *
+     * @param data
+     *            the file content, can be {@code null}.
+     * @return the checksum, or {@link #NO_CHECKSUM} if {@code data} is
+     *         {@code null} or too short.
+     */
+    private static long getChecksum(byte[] data) {
+        if (data == null || data.length < Integer.SIZE / 8)
+            return NO_CHECKSUM;
+
+        long result = 0;
+        for (int i = data.length - Integer.SIZE / 8; i < data.length; i++)
+            result = (result << 8) | (data[i] & 0xff);
+        return result;
+    }// getChecksum()
+
+    /**
+     * Parses the content of a file.
+     *
+     * @param file
+     *            the file, for logging.
+     * @param data
+     *            the content, see {@link #readFile(File)}. Can be
+     *            {@code null}.
+     * @return the values. If the file doesn't exist or is invalid, an empty
+     *         map will be returned.
+     */
+    private static Map<String, Object> read(File file, byte[] data) {
+        final Map<String, Object> result = new HashMap<String, Object>();
+        if (data == null)
+            return result;
+
+        try {
+            /*
+             * Header (3 ints) and the checksum.
+             */
+            if (data.length < Integer.SIZE / 8 * 4)
+                throw new IOException("File too short");
+
+            final int length = data.length - Integer.SIZE / 8;
+            final CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            if (new DataInputStream(new ByteArrayInputStream(data, length,
+                    Integer.SIZE / 8)).readInt() != (int) crc.getValue())
+                throw new IOException("Checksum mismatch");
+
+            final DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(data, 0, length));
+            if (in.readInt() != MAGIC)
+                throw new IOException("Invalid magic number");
+            final int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported version: " + version);
+
+            for (int count = in.readInt(); count > 0; count--) {
+                final String key = in.readUTF();
+                final byte type = in.readByte();
+                switch (type) {
+                case TYPE_STRING:
+                    result.put(key, in.readUTF());
+                    break;
+                case TYPE_INT:
+                    result.put(key, in.readInt());
+                    break;
+                case TYPE_LONG:
+                    result.put(key, in.readLong());
+                    break;
+                case TYPE_FLOAT:
+                    result.put(key, in.readFloat());
+                    break;
+                case TYPE_BOOLEAN:
+                    result.put(key, in.readBoolean());
+                    break;
+                case TYPE_STRING_SET: {
+                    final Set<String> set = new HashSet<String>();
+                    for (int size = in.readInt(); size > 0; size--)
+                        set.add(in.readUTF());
+                    result.put(key, Collections.unmodifiableSet(set));
+                    break;
+                }
+                default:
+                    throw new IOException("Invalid type: " + type);
+                }
+            }// for
+        } catch (IOException e) {
+            Log.e(CLASSNAME, "Error reading " + file + ", ignoring it", e);
+            result.clear();
+        }
+
+        return result;
+    }// read()
+
+    /**
+     * Writes the values to a temporary file, then renames it to {@code file}.
+     *
+     * @param file
+     *            the file.
+     * @param map
+     *            the values.
+     * @return the checksum of the file, see {@link #getChecksum(byte[])}.
+     * @throws IOException
+     *             if any.
+     */
+    @SuppressWarnings("unchecked")
+    private static long write(File file, Map<String, Object> map)
+            throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(map.size());
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            out.writeUTF(entry.getKey());
+
+            final Object value = entry.getValue();
+            if (value instanceof String) {
+                out.writeByte(TYPE_STRING);
+                out.writeUTF((String) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(TYPE_INT);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                out.writeByte(TYPE_FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(TYPE_BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else {
+                final Set<String> set = (Set<String>) value;
+                out.writeByte(TYPE_STRING_SET);
+                out.writeInt(set.size());
+                for (String s : set)
+                    out.writeUTF(s);
+            }
+        }// for
+
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory())
+            parent.mkdirs();
+
+        final File tempFile = new File(file.getPath() + ".tmp");
+        final FileOutputStream output = new FileOutputStream(tempFile);
+        try {
+            buffer.writeTo(output);
+            output.flush();
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Can't rename " + tempFile + " to " + file);
+        }
+
+        return crc.getValue();
+    }// write()
+
+    /**
+     * The editor.
+     */
+    private class EditorImpl implements Editor {
+
+        /**
+         * Changes, a value of {@code this} means removing the key.
+         */
+        private final Map<String, Object> mModified = new HashMap<String, Object>();
+        private boolean mClear = false;
+
+        @Override
+        public synchronized Editor putString(String key, String value) {
+            mModified.put(key, value != null ? value : this);
+            return this;
+        }// putString()
+
+        @Override
+        public synchronized Editor putStringSet(String key, Set<String> values) {
+            mModified.put(key,
+                    values != null ? Collections
+                            .unmodifiableSet(new HashSet<String>(values))
+                            : this);
+            return this;
+        }// putStringSet()
+
+        @Override
+        public synchronized Editor putInt(String key, int value) {
+            mModified.put(key, value);
+            return this;
+        }// putInt()
+
+        @Override
+        public synchronized Editor putLong(String key, long value) {
+            mModified.put(key, value);
+            return this;
+        }// putLong()
+
+        @Override
+        public synchronized Editor putFloat(String key, float value) {
+            mModified.put(key, value);
+            return this;
+        }// putFloat()
+
+        @Override
+        public synchronized Editor putBoolean(String key, boolean value) {
+            mModified.put(key, value);
+            return this;
+        }// putBoolean()
+
+        @Override
+        public synchronized Editor remove(String key) {
+            mModified.put(key, this);
+            return this;
+        }// remove()
+
+        @Override
+        public synchronized Editor clear() {
+            mClear = true;
+            return this;
+        }// clear()
+
+        @Override
+        public boolean commit() {
+            final List<String> keys = commitToMemory();
+            final boolean result = writeToFile();
+            notifyListeners(keys);
+            return result;
+        }// commit()
+
+        @Override
+        public void apply() {
+            final List<String> keys = commitToMemory();
+            scheduleWrite();
+            notifyListeners(keys);
+        }// apply()
+
+        /**
+         * Applies the changes to memory.
+         *
+         * @return the changed keys.
+         */
+        private List<String> commitToMemory() {
+            final List<String> result = new ArrayList<String>();
+            synchronized (BinaryPreferences.this) {
+                synchronized (this) {
+                    if (mClear) {
+                        result.addAll(mMap.keySet());
+                        mMap.clear();
+                        mClear = false;
+                    }
+
+                    for (Map.Entry<String, Object> entry : mModified.entrySet()) {
+                        final String key = entry.getKey();
+                        final Object value = entry.getValue();
+                        if (value == this) {
+                            if (mMap.remove(key) == null)
+                                continue;
+                        } else if (value.equals(mMap.put(key, value)))
+                            continue;
+
+                        if (!result.contains(key))
+                            result.add(key);
+                    }// for
+
+                    mModified.clear();
+                }
+
+                if (!result.isEmpty())
+                    mDirty = true;
+            }
+
+            return result;
+        }// commitToMemory()
+
+    }// EditorImpl
+
+}
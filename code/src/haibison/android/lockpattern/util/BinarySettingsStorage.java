@@ -0,0 +1,98 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package haibison.android.lockpattern.util;
+
+import java.io.File;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Storage which keeps the settings in a small binary file, see
+ * {@link BinaryPreferences}.
+ * <p/>
+ * The first time it is opened, existing settings are imported from
+ * {@link SharedPreferencesStorage}.
+ * <p/>
+ * Only one process should change the settings. Other processes see the
+ * changes through {@link AlpSettings#getSnapshot(Context)} and
+ * {@link AlpSettings#reload(Context)}, which reload the file if its checksum
+ * has changed.
+ * <p/>
+ * <b>Note:</b> this storage can't be used with
+ * {@link AlpSettings#setupPreferenceManager(Context,
+ * android.preference.PreferenceManager)}.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class BinarySettingsStorage implements ISettingsStorage {
+
+    private volatile BinaryPreferences mPreferences;
+
+    @Override
+    public SharedPreferences open(Context context) {
+        BinaryPreferences result = mPreferences;
+        if (result != null)
+            return result;
+
+        final File file = new File(context.getApplicationContext()
+                .getFilesDir(), AlpSettings.genPreferenceFilename() + ".bin");
+
+        final boolean exists = file.exists();
+        result = BinaryPreferences.getInstance(file);
+        if (!exists)
+            importFrom(new SharedPreferencesStorage().open(context), result);
+
+        mPreferences = result;
+        return result;
+    }// open()
+
+    /**
+     * Imports the settings from another storage, if the destination is empty.
+     *
+     * @param source
+     *            the source.
+     * @param destination
+     *            the destination.
+     */
+    private static void importFrom(SharedPreferences source,
+            BinaryPreferences destination) {
+        synchronized (destination) {
+            if (!destination.getAll().isEmpty())
+                return;
+
+            final SharedPreferences.Editor editor = destination.edit();
+            for (Map.Entry<String, ?> entry : source.getAll().entrySet()) {
+                final Object value = entry.getValue();
+                if (value instanceof String)
+                    editor.putString(entry.getKey(), (String) value);
+                else if (value instanceof Integer)
+                    editor.putInt(entry.getKey(), (Integer) value);
+                else if (value instanceof Long)
+                    editor.putLong(entry.getKey(), (Long) value);
+                else if (value instanceof Float)
+                    editor.putFloat(entry.getKey(), (Float) value);
+                else if (value instanceof Boolean)
+                    editor.putBoolean(entry.getKey(), (Boolean) value);
+            }// for
+
+            editor.commit();
+        }
+    }// importFrom()
+
+}
@@ -0,0 +1,60 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package haibison.android.lockpattern.util;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Token to cancel a background task without interrupting its thread. The task
+ * should check the token between steps.
+ * <p/>
+ * This class is thread-safe.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class CancellationToken {
+
+    private volatile boolean mCancelled = false;
+
+    /**
+     * Cancels the task.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }// cancel()
+
+    /**
+     * Checks if the task has been cancelled.
+     *
+     * @return {@code true} or {@code false}.
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }// isCancelled()
+
+    /**
+     * Throws {@link CancellationException} if the task has been cancelled.
+     *
+     * @throws CancellationException
+     *             if the task has been cancelled.
+     */
+    public void throwIfCancelled() {
+        if (mCancelled)
+            throw new CancellationException();
+    }// throwIfCancelled()
+
+}
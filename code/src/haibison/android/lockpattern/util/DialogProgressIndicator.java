@@ -0,0 +1,87 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package haibison.android.lockpattern.util;
+
+import haibison.android.lockpattern.R;
+import android.app.ProgressDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.util.Log;
+
+/**
+ * Progress indicator which shows a {@link ProgressDialog}.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class DialogProgressIndicator implements IProgressIndicator {
+
+    private static final String CLASSNAME = DialogProgressIndicator.class
+            .getName();
+
+    private final ProgressDialog mDialog;
+
+    /**
+     * Creates new instance.
+     *
+     * @param context
+     *            the context.
+     * @param task
+     *            the task to be cancelled if the user cancels the dialog, can
+     *            be {@code null} if the dialog is not cancelable.
+     */
+    public DialogProgressIndicator(Context context, final LoadingTask<?> task) {
+        mDialog = new ProgressDialog(context);
+        mDialog.setCancelable(task != null);
+        mDialog.setMessage(context.getString(R.string.alp_42447968_loading));
+        mDialog.setIndeterminate(true);
+
+        if (task != null) {
+            mDialog.setCanceledOnTouchOutside(true);
+            mDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+
+                @Override
+                public void onCancel(DialogInterface dialog) {
+                    task.cancel();
+                }// onCancel()
+
+            });
+        }
+    }// DialogProgressIndicator()
+
+    @Override
+    public void show() {
+        try {
+            /*
+             * Sometime the activity has been finished before we show this
+             * dialog, it will raise error.
+             */
+            mDialog.show();
+        } catch (Throwable t) {
+            Log.e(CLASSNAME, "show() - show dialog: " + t);
+        }
+    }// show()
+
+    @Override
+    public void hide() {
+        try {
+            mDialog.dismiss();
+        } catch (Throwable t) {
+            Log.e(CLASSNAME, "hide() - dismiss dialog: " + t);
+        }
+    }// hide()
+
+}
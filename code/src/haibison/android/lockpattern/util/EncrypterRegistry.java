@@ -0,0 +1,217 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.android.lockpattern.util;
+
+import static haibison.android.lockpattern.BuildConfig.DEBUG;
+import static haibison.android.lockpattern.util.AlpSettings.Security.METADATA_ENCRYPTER_CLASS;
+import haibison.android.lockpattern.LockPatternActivity;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import android.app.Application;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.util.Log;
+
+/**
+ * Process-wide registry of {@link IEncrypter} instances.
+ * <p/>
+ * Each encrypter class is loaded and instantiated only once per process, the
+ * instance is then shared. So implementations of {@link IEncrypter} should be
+ * thread-safe.
+ * <p/>
+ * The registry warms up automatically when you call
+ * {@link AlpSettings.Security#setEncrypterClass(Context, char[])}. You can also
+ * call {@link #warmUp(Context)} in {@link Application#onCreate()}, so that
+ * {@link LockPatternActivity} doesn't need to load the encrypter class when it
+ * starts.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class EncrypterRegistry {
+
+    private static final String CLASSNAME = EncrypterRegistry.class.getName();
+
+    /**
+     * Map of class names to tasks which instantiate the encrypters.
+     */
+    private static final ConcurrentMap<String, FutureTask<IEncrypter>> TASKS = new ConcurrentHashMap<String, FutureTask<IEncrypter>>();
+
+    /**
+     * This is singleton class.
+     */
+    private EncrypterRegistry() {
+    }// EncrypterRegistry()
+
+    /**
+     * Gets the encrypter of given class name. If the encrypter has not been
+     * instantiated yet, this method instantiates it in the calling thread; or
+     * waits for the background thread which is doing that.
+     *
+     * @param context
+     *            the context.
+     * @param className
+     *            the full name of encrypter class.
+     * @return the encrypter.
+     * @throws InvalidEncrypterException
+     *             if the class can't be instantiated, or if it doesn't
+     *             implement {@link IEncrypter}.
+     */
+    public static IEncrypter getEncrypter(Context context, String className) {
+        final FutureTask<IEncrypter> task = getTask(context, className);
+
+        /*
+         * This does nothing if the task is running or has run.
+         */
+        task.run();
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    TASKS.remove(className, task);
+                    throw new InvalidEncrypterException();
+                }
+            }// while
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }// getEncrypter()
+
+    /**
+     * Instantiates the encrypter of given class name in background, on
+     * {@link AlpExecutor}.
+     *
+     * @param context
+     *            the context.
+     * @param className
+     *            the full name of encrypter class, can be {@code null}.
+     */
+    public static void warmUp(Context context, String className) {
+        if (className == null)
+            return;
+
+        final FutureTask<IEncrypter> task = getTask(context, className);
+        if (task.isDone())
+            return;
+
+        /*
+         * Wrap the task, so it isn't cancelled if the executor rejects it.
+         * getEncrypter() can still run it later.
+         */
+        AlpExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                task.run();
+            }// run()
+
+        });
+    }// warmUp()
+
+    /**
+     * Instantiates the encrypter which {@link LockPatternActivity} uses, in
+     * background. See {@link #getEncrypterClassName(Context)}.
+     *
+     * @param context
+     *            the context.
+     */
+    public static void warmUp(Context context) {
+        warmUp(context, getEncrypterClassName(context));
+    }// warmUp()
+
+    /**
+     * Gets the name of the encrypter class which {@link LockPatternActivity}
+     * uses. It is taken from the manifest first (see
+     * {@link AlpSettings.Security#METADATA_ENCRYPTER_CLASS}), then from
+     * {@link AlpSettings.Security#getEncrypterClass(Context)}.
+     *
+     * @param context
+     *            the context.
+     * @return the class name, or {@code null} if there is no encrypter.
+     */
+    public static String getEncrypterClassName(Context context) {
+        String className = null;
+        try {
+            Bundle metaData = context.getPackageManager().getActivityInfo(
+                    new ComponentName(context, LockPatternActivity.class),
+                    PackageManager.GET_META_DATA).metaData;
+            if (metaData != null
+                    && metaData.containsKey(METADATA_ENCRYPTER_CLASS))
+                className = metaData.getString(METADATA_ENCRYPTER_CLASS);
+        } catch (PackageManager.NameNotFoundException e) {
+            /*
+             * The activity might not be declared yet. Just ignore it.
+             */
+            if (DEBUG)
+                Log.d(CLASSNAME, e.getMessage(), e);
+        }
+
+        if (className == null) {
+            final char[] clazz = AlpSettings.Security.getEncrypterClass(context);
+            if (clazz != null)
+                className = new String(clazz);
+        }
+
+        return className;
+    }// getEncrypterClassName()
+
+    /**
+     * Gets or creates the task which instantiates the encrypter of given
+     * class name.
+     *
+     * @param context
+     *            the context.
+     * @param className
+     *            the full name of encrypter class.
+     * @return the task.
+     */
+    private static FutureTask<IEncrypter> getTask(Context context,
+            final String className) {
+        FutureTask<IEncrypter> result = TASKS.get(className);
+        if (result != null)
+            return result;
+
+        final ClassLoader classLoader = context.getClassLoader();
+        result = new FutureTask<IEncrypter>(new Callable<IEncrypter>() {
+
+            @Override
+            public IEncrypter call() throws Exception {
+                return (IEncrypter) Class.forName(className, false,
+                        classLoader).newInstance();
+            }// call()
+
+        });
+
+        final FutureTask<IEncrypter> existing = TASKS.putIfAbsent(className,
+                result);
+        return existing != null ? existing : result;
+    }// getTask()
+
+}
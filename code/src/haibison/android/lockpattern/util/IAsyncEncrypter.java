@@ -0,0 +1,107 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.android.lockpattern.util;
+
+import haibison.android.lockpattern.widget.LockPatternUtils;
+import haibison.android.lockpattern.widget.LockPatternView.Cell;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+import android.content.Context;
+
+/**
+ * Interface for asynchronous encrypter.
+ * <p/>
+ * If your {@link IEncrypter} also implements this interface, the library will
+ * prefer it. Otherwise the library wraps your encrypter with an
+ * {@link AsyncEncrypterAdapter}.
+ * <p/>
+ * To verify patterns, the library still prefers {@link IPackedEncrypter} and
+ * {@link IPatternVerifier} if your encrypter implements them: they run on
+ * {@link AlpExecutor}, and
+ * {@link #verify(Context, long, char[], Callback)} is not called.
+ * <p/>
+ * <h1>Notes</h1>
+ * <ul>
+ * <li>Callbacks must be called on the UI thread.</li>
+ * <li>Callbacks must <b><i>not</i></b> be called after the returned
+ * {@link Future} has been cancelled.</li>
+ * </ul>
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public interface IAsyncEncrypter {
+
+    /**
+     * Callback for asynchronous operations. See {@link AlpExecutor.Callback}.
+     *
+     * @param <T>
+     *            the result type.
+     */
+    public static interface Callback<T> extends AlpExecutor.Callback<T> {
+    }// Callback
+
+    /**
+     * Encrypts {@code pattern}.
+     *
+     * @param context
+     *            the context.
+     * @param pattern
+     *            the pattern in the form of a list of {@link Cell}.
+     * @param callback
+     *            the callback, can be {@code null}.
+     * @return the task, which can be used to cancel the operation.
+     */
+    Future<char[]> encrypt(Context context, List<Cell> pattern,
+            Callback<char[]> callback);
+
+    /**
+     * Decrypts an encrypted pattern.
+     *
+     * @param context
+     *            the context.
+     * @param encryptedPattern
+     *            the encrypted pattern.
+     * @param callback
+     *            the callback, can be {@code null}.
+     * @return the task, which can be used to cancel the operation.
+     */
+    Future<List<Cell>> decrypt(Context context, char[] encryptedPattern,
+            Callback<List<Cell>> callback);
+
+    /**
+     * Verifies a pattern against an encrypted pattern.
+     *
+     * @param context
+     *            the context.
+     * @param pattern
+     *            the packed pattern, see
+     *            {@link LockPatternUtils#patternToLong(List)}.
+     * @param encryptedPattern
+     *            the encrypted pattern.
+     * @param callback
+     *            the callback, can be {@code null}. It receives {@code true}
+     *            if {@code encryptedPattern} is the encrypted form of
+     *            {@code pattern}.
+     * @return the task, which can be used to cancel the operation.
+     */
+    Future<Boolean> verify(Context context, long pattern,
+            char[] encryptedPattern, Callback<Boolean> callback);
+
+}
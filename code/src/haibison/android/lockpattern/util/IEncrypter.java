@@ -24,6 +24,10 @@ import android.content.Context;
 
 /**
  * Interface for encrypter.
+ * <p/>
+ * The library instantiates each encrypter class only once per process, and
+ * shares the instance (see {@link EncrypterRegistry}). So implementations
+ * should be thread-safe.
  * 
  * @author Hai Bison
  * @since v2 beta
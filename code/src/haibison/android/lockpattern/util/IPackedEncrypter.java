@@ -0,0 +1,64 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.android.lockpattern.util;
+
+import haibison.android.lockpattern.widget.LockPatternUtils;
+import haibison.android.lockpattern.widget.LockPatternView.Cell;
+
+import android.content.Context;
+
+/**
+ * Encrypter which works on packed patterns. See
+ * {@link LockPatternUtils#patternToLong(java.util.List)} for details of the
+ * packed form.
+ * <p/>
+ * If your encrypter implements this interface, the library uses
+ * {@link #verify(Context, long, char[])} to compare patterns, so it doesn't
+ * need to allocate any {@link Cell} list.
+ * 
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public interface IPackedEncrypter extends IEncrypter {
+
+    /**
+     * Encrypts {@code pattern}.
+     * 
+     * @param context
+     *            the context.
+     * @param pattern
+     *            the packed pattern.
+     * @return the encrypted char array of the pattern.
+     */
+    char[] encrypt(Context context, long pattern);
+
+    /**
+     * Verifies {@code pattern} against an encrypted pattern. See
+     * {@link IPatternVerifier} for notes on implementing this method.
+     * 
+     * @param context
+     *            the context.
+     * @param pattern
+     *            the packed pattern.
+     * @param encryptedPattern
+     *            the encrypted pattern.
+     * @return {@code true} if {@code encryptedPattern} is the encrypted form
+     *         of {@code pattern}.
+     */
+    boolean verify(Context context, long pattern, char[] encryptedPattern);
+
+}
@@ -0,0 +1,70 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.android.lockpattern.util;
+
+import haibison.android.lockpattern.widget.LockPatternUtils;
+import haibison.android.lockpattern.widget.LockPatternView.Cell;
+
+import java.util.List;
+
+import android.content.Context;
+
+/**
+ * Optional interface for an {@link IEncrypter}, to verify patterns without
+ * decrypting the encrypted ones.
+ * <p/>
+ * If your encrypter implements this interface, the library calls
+ * {@link #verify(Context, List, char[])} instead of
+ * {@link IEncrypter#decrypt(Context, char[])} when it compares patterns. This
+ * also applies to encrypters which implement {@link IAsyncEncrypter}: the
+ * library calls this method on {@link AlpExecutor}, instead of
+ * {@link IAsyncEncrypter#verify(Context, long, char[], IAsyncEncrypter.Callback)}.
+ * <p/>
+ * For example, a deterministic encrypter can encrypt the given pattern and
+ * compare the result with the encrypted one by
+ * {@link LockPatternUtils#constantTimeEquals(char[], char[])}. An encrypter
+ * can also store a MAC along with the encrypted pattern and only check that
+ * MAC.
+ * <p/>
+ * <h1>Notes</h1>
+ * <ul>
+ * <li>Implementations should run in constant time, regardless of where the
+ * given pattern differs from the encrypted one.</li>
+ * <li>Implementations should never decrypt the encrypted pattern.</li>
+ * </ul>
+ * 
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public interface IPatternVerifier {
+
+    /**
+     * Verifies {@code pattern} against an encrypted pattern.
+     * 
+     * @param context
+     *            the context.
+     * @param pattern
+     *            the pattern in the form of a list of {@link Cell}.
+     * @param encryptedPattern
+     *            the encrypted pattern.
+     * @return {@code true} if {@code encryptedPattern} is the encrypted form
+     *         of {@code pattern}.
+     */
+    boolean verify(Context context, List<Cell> pattern,
+            char[] encryptedPattern);
+
+}
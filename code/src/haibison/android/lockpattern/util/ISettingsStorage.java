@@ -0,0 +1,42 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package haibison.android.lockpattern.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Storage of the library settings, see
+ * {@link AlpSettings#setStorage(ISettingsStorage)}.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public interface ISettingsStorage {
+
+    /**
+     * Opens the settings.
+     * <p/>
+     * This method is called frequently, implementations should cache the
+     * result.
+     *
+     * @param context
+     *            the context.
+     * @return the settings.
+     */
+    SharedPreferences open(Context context);
+
+}
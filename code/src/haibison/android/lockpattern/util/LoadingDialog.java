@@ -22,7 +22,6 @@ import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.os.AsyncTask;
-import android.os.Handler;
 import android.util.Log;
 
 /**
@@ -30,7 +29,11 @@ import android.util.Log;
  * while doing some background tasks.
  * 
  * @author Hai Bison
+ * @deprecated Use {@link LoadingTask} with {@link DialogProgressIndicator} instead. It
+ *             runs on {@link AlpExecutor}, rather than the shared executor of
+ *             {@link AsyncTask}.
  */
+@Deprecated
 public abstract class LoadingDialog<Params, Progress, Result> extends
         AsyncTask<Params, Progress, Result> {
 
@@ -114,7 +117,7 @@ public abstract class LoadingDialog<Params, Progress, Result> extends
      */
     @Override
     protected void onPreExecute() {
-        new Handler().postDelayed(new Runnable() {
+        AlpExecutor.HANDLER.postDelayed(new Runnable() {
 
             @Override
             public void run() {
@@ -0,0 +1,233 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package haibison.android.lockpattern.util;
+
+import static android.text.format.DateUtils.SECOND_IN_MILLIS;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import android.util.Log;
+
+/**
+ * Background task which runs on {@link AlpExecutor}, and shows a progress
+ * indicator if it takes longer than a delay time.
+ * <p/>
+ * Methods of this class must be called on the UI thread. Callbacks are called
+ * on the UI thread, and none of {@link #onPostExecute(Object)} and
+ * {@link #onFailed(Throwable)} is called after the task is cancelled.
+ *
+ * @param <Result>
+ *            the result type.
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public abstract class LoadingTask<Result> {
+
+    private static final String CLASSNAME = LoadingTask.class.getName();
+
+    private final CancellationToken mToken = new CancellationToken();
+    private IProgressIndicator mIndicator;
+    private Future<Result> mFuture;
+    private boolean mFinished = false;
+
+    /**
+     * Delay time in milliseconds. Default delay is half a second.
+     */
+    private long mDelayTime = SECOND_IN_MILLIS / 2;
+
+    /**
+     * Creates new instance.
+     *
+     * @param indicator
+     *            the progress indicator, can be {@code null}.
+     */
+    public LoadingTask(IProgressIndicator indicator) {
+        mIndicator = indicator;
+    }// LoadingTask()
+
+    /**
+     * Sets the progress indicator. This must be called before
+     * {@link #execute()}.
+     *
+     * @param indicator
+     *            the progress indicator, can be {@code null}.
+     * @return the instance of this object, for chaining multiple calls into a
+     *         single statement.
+     */
+    public LoadingTask<Result> setProgressIndicator(IProgressIndicator indicator) {
+        mIndicator = indicator;
+        return this;
+    }// setProgressIndicator()
+
+    /**
+     * Gets the delay time before showing the progress indicator.
+     *
+     * @return the delay time, in milliseconds.
+     */
+    public long getDelayTime() {
+        return mDelayTime;
+    }// getDelayTime()
+
+    /**
+     * Sets the delay time before showing the progress indicator.
+     *
+     * @param delayTime
+     *            the delay time to set, in milliseconds.
+     * @return the instance of this object, for chaining multiple calls into a
+     *         single statement.
+     */
+    public LoadingTask<Result> setDelayTime(int delayTime) {
+        mDelayTime = delayTime >= 0 ? delayTime : 0;
+        return this;
+    }// setDelayTime()
+
+    /**
+     * Executes this task. A task can be executed only once.
+     * <p/>
+     * If the executor's queue is full, {@link #onFailed(Throwable)} will be
+     * called with {@link java.util.concurrent.RejectedExecutionException}.
+     *
+     * @return the instance of this object, for chaining multiple calls into a
+     *         single statement.
+     * @throws IllegalStateException
+     *             if the task has been executed.
+     */
+    public LoadingTask<Result> execute() {
+        if (mFuture != null)
+            throw new IllegalStateException("Task has been executed");
+
+        if (mIndicator != null)
+            AlpExecutor.HANDLER.postDelayed(mIndicatorShower, mDelayTime);
+
+        mFuture = AlpExecutor.submit(new Callable<Result>() {
+
+            @Override
+            public Result call() throws Exception {
+                mToken.throwIfCancelled();
+                return doInBackground(mToken);
+            }// call()
+
+        }, new AlpExecutor.Callback<Result>() {
+
+            @Override
+            public void onCompleted(Result result) {
+                doFinish();
+                onPostExecute(result);
+            }// onCompleted()
+
+            @Override
+            public void onFailed(Throwable t) {
+                doFinish();
+                LoadingTask.this.onFailed(t);
+            }// onFailed()
+
+        });
+
+        /*
+         * If the executor rejected the task, the callback gets
+         * RejectedExecutionException, and onFailed() will be called.
+         */
+        return this;
+    }// execute()
+
+    /**
+     * Cancels this task. The thread running the task is not interrupted, the
+     * task should check the {@link CancellationToken} instead.
+     */
+    public void cancel() {
+        if (mToken.isCancelled())
+            return;
+
+        mToken.cancel();
+        if (mFuture != null)
+            mFuture.cancel(false);
+        doFinish();
+        onCancelled();
+    }// cancel()
+
+    /**
+     * Checks if this task has been cancelled.
+     *
+     * @return {@code true} or {@code false}.
+     */
+    public boolean isCancelled() {
+        return mToken.isCancelled();
+    }// isCancelled()
+
+    /**
+     * Does the work in background.
+     *
+     * @param token
+     *            the cancellation token.
+     * @return the result.
+     * @throws Exception
+     *             if any.
+     */
+    protected abstract Result doInBackground(CancellationToken token)
+            throws Exception;
+
+    /**
+     * Will be called when the task completed successfully.
+     *
+     * @param result
+     *            the result.
+     */
+    protected void onPostExecute(Result result) {
+    }// onPostExecute()
+
+    /**
+     * Will be called when the task failed. Default implementation logs the
+     * error.
+     *
+     * @param t
+     *            the error.
+     */
+    protected void onFailed(Throwable t) {
+        Log.e(CLASSNAME, "onFailed()", t);
+    }// onFailed()
+
+    /**
+     * Will be called when the task is cancelled.
+     */
+    protected void onCancelled() {
+    }// onCancelled()
+
+    private void doFinish() {
+        if (mFinished)
+            return;
+
+        mFinished = true;
+        if (mIndicator != null) {
+            AlpExecutor.HANDLER.removeCallbacks(mIndicatorShower);
+            mIndicator.hide();
+        }
+    }// doFinish()
+
+    /**
+     * This shows the progress indicator.
+     */
+    private final Runnable mIndicatorShower = new Runnable() {
+
+        @Override
+        public void run() {
+            if (!mFinished)
+                mIndicator.show();
+        }// run()
+
+    };// mIndicatorShower
+
+}
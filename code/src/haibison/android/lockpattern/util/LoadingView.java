@@ -19,7 +19,6 @@ package haibison.android.lockpattern.util;
 import static android.text.format.DateUtils.SECOND_IN_MILLIS;
 import android.content.Context;
 import android.os.AsyncTask;
-import android.os.Handler;
 import android.view.View;
 
 /**
@@ -27,7 +26,11 @@ import android.view.View;
  * background tasks, then hide it when done.
  * 
  * @author Hai Bison
+ * @deprecated Use {@link LoadingTask} with {@link ViewProgressIndicator} instead. It
+ *             runs on {@link AlpExecutor}, rather than the shared executor of
+ *             {@link AsyncTask}.
  */
+@Deprecated
 public abstract class LoadingView<Params, Progress, Result> extends
         AsyncTask<Params, Progress, Result> {
 
@@ -66,7 +69,7 @@ public abstract class LoadingView<Params, Progress, Result> extends
      */
     @Override
     protected void onPreExecute() {
-        new Handler().postDelayed(new Runnable() {
+        AlpExecutor.HANDLER.postDelayed(new Runnable() {
 
             @Override
             public void run() {
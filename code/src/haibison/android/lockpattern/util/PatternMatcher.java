@@ -0,0 +1,113 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.android.lockpattern.util;
+
+import haibison.android.lockpattern.widget.LockPatternUtils;
+import haibison.android.lockpattern.widget.LockPatternView;
+import haibison.android.lockpattern.widget.LockPatternView.Cell;
+import haibison.android.lockpattern.widget.Pattern;
+
+import java.util.List;
+
+/**
+ * Matches a pattern against an expected one, cell by cell, while the user is
+ * drawing it.
+ * <p/>
+ * Call {@link #update(List)} from
+ * {@link LockPatternView.OnPatternListener#onPatternCellAdded(List)}, then
+ * {@link #matches(List)} from
+ * {@link LockPatternView.OnPatternListener#onPatternDetected(List)}. Call
+ * {@link #reset()} before the user draws a new pattern.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class PatternMatcher {
+
+    private final long mPattern;
+    private final int mPatternSize;
+
+    /**
+     * Number of cells which have been checked.
+     */
+    private int mPosition = 0;
+    private boolean mMatching = true;
+
+    /**
+     * Creates new instance.
+     *
+     * @param pattern
+     *            the expected pattern, packed by
+     *            {@link LockPatternUtils#patternToLong(List)}.
+     */
+    public PatternMatcher(long pattern) {
+        mPattern = pattern;
+        mPatternSize = LockPatternUtils.getPackedPatternSize(pattern);
+    }// PatternMatcher()
+
+    /**
+     * Creates new instance.
+     *
+     * @param pattern
+     *            the expected pattern.
+     */
+    public PatternMatcher(Pattern pattern) {
+        this(pattern.toLong());
+    }// PatternMatcher()
+
+    /**
+     * Checks new cells of {@code pattern}, which have been added since last
+     * call.
+     *
+     * @param pattern
+     *            the pattern being drawn.
+     * @return {@code true} if {@code pattern} is still a prefix of the
+     *         expected pattern.
+     */
+    public boolean update(List<Cell> pattern) {
+        final int size = pattern.size();
+        for (; mPosition < size; mPosition++) {
+            if (mMatching
+                    && (mPosition >= mPatternSize || LockPatternUtils
+                            .getPackedCellId(mPattern, mPosition) != pattern
+                            .get(mPosition).getId()))
+                mMatching = false;
+        }
+
+        return mMatching;
+    }// update()
+
+    /**
+     * Checks if {@code pattern} matches the expected pattern.
+     *
+     * @param pattern
+     *            the pattern.
+     * @return {@code true} or {@code false}.
+     */
+    public boolean matches(List<Cell> pattern) {
+        return update(pattern) && pattern.size() == mPatternSize;
+    }// matches()
+
+    /**
+     * Resets this matcher, to check a new pattern.
+     */
+    public void reset() {
+        mPosition = 0;
+        mMatching = true;
+    }// reset()
+
+}
@@ -0,0 +1,193 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.android.lockpattern.util;
+
+import haibison.android.lockpattern.widget.LockPatternUtils;
+import haibison.android.lockpattern.widget.LockPatternView.Cell;
+import haibison.android.lockpattern.widget.Pattern;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-memory slot which holds a stored pattern, prepared for fast verification.
+ * It holds either the packed pattern (see
+ * {@link LockPatternUtils#patternToLong(List)}), or the SHA-1 of the pattern
+ * (see {@link LockPatternUtils#patternToSha1(List)}).
+ * <p/>
+ * Call {@link #clear()} to wipe the data when you no longer need it.
+ * <p/>
+ * This class is thread-safe.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class PatternSlot {
+
+    /**
+     * The slot is not ready.
+     */
+    private static final int STATE_EMPTY = 0;
+
+    /**
+     * There is no stored pattern. Verification always fails.
+     */
+    private static final int STATE_NO_PATTERN = 1;
+
+    /**
+     * The slot holds a packed pattern.
+     */
+    private static final int STATE_PACKED_PATTERN = 2;
+
+    /**
+     * The slot holds SHA-1 of the pattern.
+     */
+    private static final int STATE_SHA1 = 3;
+
+    private int mState = STATE_EMPTY;
+    private long mPackedPattern;
+    private char[] mSha1;
+
+    /**
+     * Marks that there is no stored pattern. Then verification always fails.
+     */
+    public synchronized void setNoPattern() {
+        clear();
+        mState = STATE_NO_PATTERN;
+    }// setNoPattern()
+
+    /**
+     * Sets the packed pattern.
+     *
+     * @param pattern
+     *            the packed pattern.
+     */
+    public synchronized void setPackedPattern(long pattern) {
+        clear();
+        mPackedPattern = pattern;
+        mState = STATE_PACKED_PATTERN;
+    }// setPackedPattern()
+
+    /**
+     * Sets SHA-1 of the pattern. The slot takes ownership of the array, and
+     * wipes it in {@link #clear()}.
+     *
+     * @param sha1
+     *            SHA-1 of the pattern.
+     */
+    public synchronized void setSha1(char[] sha1) {
+        clear();
+        mSha1 = sha1;
+        mState = STATE_SHA1;
+    }// setSha1()
+
+    /**
+     * Copies the data of another slot into this one.
+     *
+     * @param slot
+     *            the source slot.
+     */
+    public void copyFrom(PatternSlot slot) {
+        final int state;
+        final long packedPattern;
+        final char[] sha1;
+        synchronized (slot) {
+            state = slot.mState;
+            packedPattern = slot.mPackedPattern;
+            sha1 = slot.mSha1 != null ? slot.mSha1.clone() : null;
+        }
+
+        synchronized (this) {
+            clear();
+            mState = state;
+            mPackedPattern = packedPattern;
+            mSha1 = sha1;
+        }
+    }// copyFrom()
+
+    /**
+     * Checks if this slot is ready to verify patterns.
+     *
+     * @return {@code true} or {@code false}.
+     */
+    public synchronized boolean isReady() {
+        return mState != STATE_EMPTY;
+    }// isReady()
+
+    /**
+     * Verifies a pattern.
+     *
+     * @param pattern
+     *            the pattern.
+     * @return {@code null} if this slot is not ready. Otherwise {@code true}
+     *         if the given pattern matches the stored one, {@code false} if
+     *         not.
+     */
+    public synchronized Boolean verify(List<Cell> pattern) {
+        switch (mState) {
+        case STATE_NO_PATTERN:
+            return false;
+        case STATE_PACKED_PATTERN:
+            return mPackedPattern == LockPatternUtils.patternToLong(pattern);
+        case STATE_SHA1:
+            return LockPatternUtils.constantTimeEquals(mSha1, LockPatternUtils
+                    .patternToSha1(pattern).toCharArray());
+        default:
+            return null;
+        }
+    }// verify()
+
+    /**
+     * Verifies a pattern.
+     *
+     * @param pattern
+     *            the pattern.
+     * @return see {@link #verify(List)}.
+     */
+    public synchronized Boolean verify(Pattern pattern) {
+        switch (mState) {
+        case STATE_PACKED_PATTERN:
+            return mPackedPattern == pattern.toLong();
+        default:
+            return verify(pattern.asList());
+        }
+    }// verify()
+
+    /**
+     * Creates new {@link PatternMatcher} for the stored pattern.
+     *
+     * @return the matcher, or {@code null} if this slot doesn't hold a packed
+     *         pattern.
+     */
+    public synchronized PatternMatcher newMatcher() {
+        return mState == STATE_PACKED_PATTERN ? new PatternMatcher(
+                mPackedPattern) : null;
+    }// newMatcher()
+
+    /**
+     * Wipes the data and marks this slot as not ready.
+     */
+    public synchronized void clear() {
+        mPackedPattern = 0;
+        if (mSha1 != null) {
+            Arrays.fill(mSha1, '\0');
+            mSha1 = null;
+        }
+        mState = STATE_EMPTY;
+    }// clear()
+
+}
@@ -0,0 +1,703 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package haibison.android.lockpattern.util;
+
+import haibison.android.lockpattern.LockPatternActivity;
+import haibison.android.lockpattern.PatternVerificationService;
+import haibison.android.lockpattern.widget.LockPatternUtils;
+import haibison.android.lockpattern.widget.LockPatternView.Cell;
+import haibison.android.lockpattern.widget.Pattern;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Store of patterns of multiple profiles, for shared devices. Each profile ID
+ * maps to a versioned record holding the stored pattern (SHA-1 of the pattern,
+ * or the encrypted pattern, just like
+ * {@link AlpSettings.Security#getPattern(Context)}).
+ * <p/>
+ * Records are spread into {@link #SHARD_COUNT} small files by hash of profile
+ * IDs. A shard is loaded only when one of its profiles is used. The number of
+ * shards is fixed, so a shard holds about {@code N / SHARD_COUNT} of {@code N}
+ * profiles, and loading or writing it takes time linear in that number. The
+ * store is meant for up to a few thousand profiles; beyond that, use a
+ * database.
+ * <p/>
+ * The store also keeps an LRU cache of prepared verifiers (see
+ * {@link PatternSlot}), so {@link LockPatternActivity} doesn't have to prepare
+ * the same stored pattern again.
+ * <p/>
+ * <h1>Identification</h1>
+ * <p/>
+ * Profiles which are saved with their plain patterns (see
+ * {@link #setPattern(String, char[], List)}) can be identified by pattern (see
+ * {@link #identify(Context, IEncrypter, List)}). The store keeps an index of
+ * them, keyed by a short keyed digest of the pattern, so only the profiles in
+ * one bucket need a full verification. Indexing is opt-in: profiles saved
+ * without plain patterns are not indexed.
+ * <p/>
+ * <b>Security:</b> the digest key is random per installation, but it is
+ * stored in plain text next to the index. Anyone who can read the app's files
+ * can recompute buckets, and each bucket leaves only about 100 of the 389,112
+ * possible patterns. That is far weaker than the stored pattern alone, so
+ * index profiles only if the app's files are protected otherwise, e.g. by
+ * full disk encryption.
+ * <p/>
+ * This class is thread-safe. It can be used by several processes (e.g.
+ * {@link PatternVerificationService} in its own process), as long as only one
+ * of them writes: the others reload changed files on access.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class PatternStore {
+
+    private static final String CLASSNAME = PatternStore.class.getName();
+
+    /**
+     * Number of shard files. It is part of the file format (profiles are
+     * assigned to shards by it), so it can't be changed without migrating
+     * existing stores.
+     */
+    public static final int SHARD_COUNT = 64;
+
+    /**
+     * Maximum number of verifiers kept in memory.
+     */
+    public static final int VERIFIER_CACHE_SIZE = 32;
+
+    /**
+     * Number of bits of the bucket digests.
+     */
+    public static final int BUCKET_BITS = 12;
+
+    private static final String DIGEST_ALGORITHM = "HmacSHA1";
+
+    /**
+     * Length of the digest key, in bytes.
+     */
+    private static final int DIGEST_KEY_LENGTH = 20;
+
+    /**
+     * Name of the preference holding the digest key.
+     */
+    private static final String PKEY_DIGEST_KEY = "digest_key";
+
+    /**
+     * Separates the version and the pattern in a record.
+     */
+    private static final char RECORD_SEPARATOR = ':';
+
+    private static PatternStore sInstance;
+
+    /**
+     * Gets the store of the application.
+     *
+     * @param context
+     *            the context.
+     * @return the store.
+     */
+    public static synchronized PatternStore getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new PatternStore(new File(context
+                    .getApplicationContext().getFilesDir(),
+                    AlpSettings.genDatabaseFilename("profiles")));
+        return sInstance;
+    }// getInstance()
+
+    /**
+     * A record of a profile.
+     *
+     * @author Hai Bison
+     * @since v3.2.1 beta
+     */
+    public static class Record {
+
+        /**
+         * The version, it increases every time the pattern changes.
+         */
+        public final int version;
+
+        /**
+         * The stored pattern.
+         */
+        public final char[] pattern;
+
+        /**
+         * Creates new instance.
+         *
+         * @param version
+         *            the version.
+         * @param pattern
+         *            the stored pattern.
+         */
+        Record(int version, char[] pattern) {
+            this.version = version;
+            this.pattern = pattern;
+        }// Record()
+
+    }// Record
+
+    /**
+     * A verifier cached in memory.
+     */
+    private static class CachedVerifier {
+
+        final int version;
+        final PatternSlot slot;
+
+        CachedVerifier(int version, PatternSlot slot) {
+            this.version = version;
+            this.slot = slot;
+        }// CachedVerifier()
+
+    }// CachedVerifier
+
+    private final File mDirectory;
+
+    /**
+     * The index, profile ID to bucket. Loaded lazily. Guarded by {@code this}.
+     */
+    private BinaryPreferences mIndex;
+
+    /**
+     * Buckets to profile IDs, built from {@link #mIndex} lazily. Guarded by
+     * {@code this}.
+     */
+    private Map<Integer, Set<String>> mBuckets;
+
+    /**
+     * The digest key, loaded lazily. Guarded by {@code this}.
+     */
+    private SecretKeySpec mDigestKey;
+
+    /**
+     * The shards, loaded lazily. Guarded by {@code this}.
+     */
+    private final BinaryPreferences[] mShards = new BinaryPreferences[SHARD_COUNT];
+
+    /**
+     * LRU cache of verifiers. Guarded by itself.
+     */
+    private final LinkedHashMap<String, CachedVerifier> mVerifiers = new LinkedHashMap<String, CachedVerifier>(
+            VERIFIER_CACHE_SIZE, 0.75f, true) {
+
+        private static final long serialVersionUID = -3521740532434290187L;
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<String, CachedVerifier> eldest) {
+            if (size() <= VERIFIER_CACHE_SIZE)
+                return false;
+
+            eldest.getValue().slot.clear();
+            return true;
+        }// removeEldestEntry()
+
+    };
+
+    /**
+     * Creates new instance.
+     *
+     * @param directory
+     *            the directory of shard files.
+     */
+    private PatternStore(File directory) {
+        mDirectory = directory;
+    }// PatternStore()
+
+    /**
+     * Gets the record of a profile.
+     *
+     * @param profileId
+     *            the profile ID.
+     * @return the record, or {@code null} if there is none.
+     */
+    public Record getRecord(String profileId) {
+        final String value = getShard(profileId).getString(profileId, null);
+        if (value == null)
+            return null;
+
+        final int index = value.indexOf(RECORD_SEPARATOR);
+        return new Record(Integer.parseInt(value.substring(0, index)), value
+                .substring(index + 1).toCharArray());
+    }// getRecord()
+
+    /**
+     * Gets the stored pattern of a profile.
+     *
+     * @param profileId
+     *            the profile ID.
+     * @return the stored pattern, or {@code null} if there is none.
+     */
+    public char[] getPattern(String profileId) {
+        final Record record = getRecord(profileId);
+        return record != null ? record.pattern : null;
+    }// getPattern()
+
+    /**
+     * Sets the stored pattern of a profile. The change is written to disk
+     * before this method returns.
+     * <p/>
+     * The profile can't be identified by pattern, see
+     * {@link #setPattern(String, char[], List)}.
+     *
+     * @param profileId
+     *            the profile ID.
+     * @param pattern
+     *            the stored pattern, can be {@code null} to remove the
+     *            profile.
+     */
+    public void setPattern(String profileId, char[] pattern) {
+        setPattern(profileId, pattern, (List<Cell>) null);
+    }// setPattern()
+
+    /**
+     * Sets the stored pattern of a profile. The change is written to disk
+     * before this method returns.
+     *
+     * @param profileId
+     *            the profile ID.
+     * @param pattern
+     *            the stored pattern, can be {@code null} to remove the
+     *            profile.
+     * @param plainPattern
+     *            the plain pattern, used to index the profile for
+     *            {@link #identify(Context, IEncrypter, List)}. Can be
+     *            {@code null} to not index the profile. See the security note
+     *            of this class.
+     */
+    public void setPattern(String profileId, char[] pattern,
+            List<Cell> plainPattern) {
+        final BinaryPreferences shard = getShard(profileId);
+        synchronized (shard) {
+            if (pattern == null)
+                shard.edit().remove(profileId).commit();
+            else {
+                final Record record = getRecord(profileId);
+                final int version = record != null ? record.version + 1 : 1;
+                shard.edit()
+                        .putString(
+                                profileId,
+                                Integer.toString(version) + RECORD_SEPARATOR
+                                        + new String(pattern)).commit();
+            }
+        }
+
+        synchronized (mVerifiers) {
+            final CachedVerifier verifier = mVerifiers.remove(profileId);
+            if (verifier != null)
+                verifier.slot.clear();
+        }
+
+        updateIndex(profileId, pattern != null && plainPattern != null ? Integer
+                .valueOf(getBucket(LockPatternUtils.patternToLong(plainPattern)))
+                : null);
+    }// setPattern()
+
+    /**
+     * Sets the stored pattern of a profile, see
+     * {@link #setPattern(String, char[], List)}.
+     *
+     * @param profileId
+     *            the profile ID.
+     * @param pattern
+     *            the stored pattern, can be {@code null} to remove the
+     *            profile.
+     * @param plainPattern
+     *            the plain pattern, can be {@code null}.
+     */
+    public void setPattern(String profileId, char[] pattern,
+            Pattern plainPattern) {
+        setPattern(profileId, pattern,
+                plainPattern != null ? plainPattern.asList() : null);
+    }// setPattern()
+
+    /**
+     * Finds the profile of a pattern, see
+     * {@link #identify(Context, IEncrypter, List)}.
+     *
+     * @param context
+     *            the context.
+     * @param encrypter
+     *            the encrypter, can be {@code null}.
+     * @param pattern
+     *            the pattern.
+     * @return the profile ID, or {@code null} if there is none.
+     */
+    public String identify(Context context, IEncrypter encrypter,
+            Pattern pattern) {
+        return identify(context, encrypter, pattern.asList());
+    }// identify()
+
+    /**
+     * Finds the profile of a pattern. This method might take time, don't call
+     * it in the UI thread.
+     *
+     * @param context
+     *            the context.
+     * @param encrypter
+     *            the encrypter which encrypted stored patterns, can be
+     *            {@code null} if stored patterns are SHA-1 of the patterns.
+     * @param pattern
+     *            the pattern.
+     * @return the profile ID, or {@code null} if there is none.
+     */
+    public String identify(Context context, IEncrypter encrypter,
+            List<Cell> pattern) {
+        final long packedPattern = LockPatternUtils.patternToLong(pattern);
+        final int bucketId = getBucket(packedPattern);
+        final List<String> candidates;
+        synchronized (this) {
+            final Set<String> bucket = getBuckets().get(bucketId);
+            if (bucket == null)
+                return null;
+            candidates = new ArrayList<String>(bucket);
+        }
+
+        final char[] sha1 = encrypter == null ? LockPatternUtils
+                .patternToSha1(pattern).toCharArray() : null;
+        for (String profileId : candidates) {
+            final char[] storedPattern = getPattern(profileId);
+            if (storedPattern == null)
+                continue;
+
+            final boolean matched = encrypter == null ? LockPatternUtils
+                    .constantTimeEquals(sha1, storedPattern)
+                    : AsyncEncrypterAdapter.verify(context, encrypter,
+                            packedPattern, storedPattern);
+            if (matched)
+                return profileId;
+        }// for
+
+        return null;
+    }// identify()
+
+    /**
+     * Gets all profile IDs. This loads all shards.
+     *
+     * @return the profile IDs.
+     */
+    public Set<String> getProfileIds() {
+        final Set<String> result = new HashSet<String>();
+        for (int i = 0; i < SHARD_COUNT; i++)
+            result.addAll(getShard(i).getAll().keySet());
+        return result;
+    }// getProfileIds()
+
+    /**
+     * Gets the cached verifier of a profile.
+     *
+     * @param profileId
+     *            the profile ID.
+     * @param version
+     *            the version of the record.
+     * @param slot
+     *            the slot to receive the verifier.
+     * @return {@code true} if the verifier of given version has been copied
+     *         into {@code slot}.
+     */
+    public boolean getVerifier(String profileId, int version, PatternSlot slot) {
+        synchronized (mVerifiers) {
+            final CachedVerifier verifier = mVerifiers.get(profileId);
+            if (verifier == null || verifier.version != version)
+                return false;
+
+            slot.copyFrom(verifier.slot);
+            return true;
+        }
+    }// getVerifier()
+
+    /**
+     * Caches the verifier of a profile.
+     *
+     * @param profileId
+     *            the profile ID.
+     * @param version
+     *            the version of the record.
+     * @param slot
+     *            the verifier, it is copied.
+     */
+    public void putVerifier(String profileId, int version, PatternSlot slot) {
+        final PatternSlot copy = new PatternSlot();
+        copy.copyFrom(slot);
+        if (!copy.isReady())
+            return;
+
+        synchronized (mVerifiers) {
+            final CachedVerifier old = mVerifiers.put(profileId,
+                    new CachedVerifier(version, copy));
+            if (old != null)
+                old.slot.clear();
+        }
+    }// putVerifier()
+
+    /**
+     * Updates the index of a profile.
+     *
+     * @param profileId
+     *            the profile ID.
+     * @param bucket
+     *            the bucket, or {@code null} to remove the profile from the
+     *            index.
+     */
+    private synchronized void updateIndex(String profileId, Integer bucket) {
+        final Map<Integer, Set<String>> buckets = getBuckets();
+        final BinaryPreferences index = getIndex();
+        if (index.contains(profileId)) {
+            final Set<String> oldBucket = buckets.get(index.getInt(profileId,
+                    0));
+            if (oldBucket != null)
+                oldBucket.remove(profileId);
+        }
+
+        if (bucket == null) {
+            if (index.contains(profileId))
+                index.edit().remove(profileId).commit();
+            return;
+        }
+
+        Set<String> newBucket = buckets.get(bucket);
+        if (newBucket == null)
+            buckets.put(bucket, newBucket = new HashSet<String>());
+        newBucket.add(profileId);
+        index.edit().putInt(profileId, bucket).commit();
+    }// updateIndex()
+
+    /**
+     * Gets the index, loads it if needed.
+     *
+     * @return the index.
+     */
+    private synchronized BinaryPreferences getIndex() {
+        if (mIndex == null)
+            mIndex = BinaryPreferences.getInstance(new File(mDirectory,
+                    "index.bin"));
+        return mIndex;
+    }// getIndex()
+
+    /**
+     * Gets the buckets, builds them from the index if needed.
+     *
+     * @return the buckets.
+     */
+    private synchronized Map<Integer, Set<String>> getBuckets() {
+        if (getIndex().reloadIfModified())
+            mBuckets = null;
+        if (mBuckets == null) {
+            mBuckets = new HashMap<Integer, Set<String>>();
+            for (Map.Entry<String, ?> entry : getIndex().getAll().entrySet()) {
+                final Integer bucket = (Integer) entry.getValue();
+                Set<String> profileIds = mBuckets.get(bucket);
+                if (profileIds == null)
+                    mBuckets.put(bucket,
+                            profileIds = new HashSet<String>());
+                profileIds.add(entry.getKey());
+            }// for
+        }
+
+        return mBuckets;
+    }// getBuckets()
+
+    /**
+     * Calculates the bucket of a pattern.
+     *
+     * @param pattern
+     *            the packed pattern.
+     * @return the bucket.
+     */
+    private int getBucket(long pattern) {
+        final byte[] digest;
+        try {
+            final Mac mac = Mac.getInstance(DIGEST_ALGORITHM);
+            mac.init(getDigestKey());
+            for (int i = 0; i < Long.SIZE / 8; i++)
+                mac.update((byte) (pattern >>> (i * 8)));
+            digest = mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            /*
+             * HMAC-SHA1 is always available.
+             */
+            throw new RuntimeException(e);
+        }
+
+        return (((digest[0] & 0xff) << 8) | (digest[1] & 0xff))
+                & ((1 << BUCKET_BITS) - 1);
+    }// getBucket()
+
+    /**
+     * Gets the digest key, generates it if needed.
+     *
+     * @return the digest key.
+     */
+    private synchronized SecretKeySpec getDigestKey() {
+        if (mDigestKey == null) {
+            final BinaryPreferences preferences = BinaryPreferences
+                    .getInstance(new File(mDirectory, "digest.bin"));
+            preferences.reloadIfModified();
+            byte[] bytes = parseDigestKey(preferences.getString(
+                    PKEY_DIGEST_KEY, null));
+            if (bytes == null)
+                bytes = generateDigestKey(preferences);
+
+            mDigestKey = new SecretKeySpec(bytes, DIGEST_ALGORITHM);
+        }
+
+        return mDigestKey;
+    }// getDigestKey()
+
+    /**
+     * Generates the digest key, unless another process has just stored one.
+     * Processes are serialized by a lock on {@code digest.lock}, so only one of
+     * them generates the key and clears the index. This instance's own
+     * threads are serialized by the lock of {@code this}.
+     *
+     * @param preferences
+     *            the preferences holding the digest key.
+     * @return the digest key.
+     */
+    private synchronized byte[] generateDigestKey(BinaryPreferences preferences) {
+        mDirectory.mkdirs();
+
+        RandomAccessFile file = null;
+        FileLock lock = null;
+        try {
+            file = new RandomAccessFile(new File(mDirectory, "digest.lock"),
+                    "rw");
+            lock = file.getChannel().lock();
+        } catch (IOException e) {
+            /*
+             * Go on without the lock, like a single process would.
+             */
+            Log.e(CLASSNAME, "Error locking " + mDirectory, e);
+        }
+
+        try {
+            /*
+             * Another process might have stored the key before we got the
+             * lock.
+             */
+            preferences.reloadIfModified();
+            byte[] bytes = parseDigestKey(preferences.getString(
+                    PKEY_DIGEST_KEY, null));
+            if (bytes != null)
+                return bytes;
+
+            /*
+             * Buckets made with a lost key are useless. No process owns a key
+             * now, so nobody else can be filling the index.
+             */
+            final BinaryPreferences index = getIndex();
+            index.reloadIfModified();
+            index.edit().clear().commit();
+            mBuckets = null;
+
+            bytes = new byte[DIGEST_KEY_LENGTH];
+            new SecureRandom().nextBytes(bytes);
+            final StringBuilder hex = new StringBuilder();
+            for (byte b : bytes)
+                hex.append(String.format("%02x", b));
+            preferences.edit().putString(PKEY_DIGEST_KEY, hex.toString())
+                    .commit();
+
+            return bytes;
+        } finally {
+            try {
+                if (lock != null)
+                    lock.release();
+                if (file != null)
+                    file.close();
+            } catch (IOException e) {
+                Log.e(CLASSNAME, "Error unlocking " + mDirectory, e);
+            }
+        }
+    }// generateDigestKey()
+
+    /**
+     * Parses a digest key.
+     *
+     * @param key
+     *            the key, in hex. Can be {@code null}.
+     * @return the key, or {@code null} if {@code key} is not a valid key.
+     */
+    private static byte[] parseDigestKey(String key) {
+        if (key == null || key.length() != DIGEST_KEY_LENGTH * 2)
+            return null;
+
+        /*
+         * The key is stored in hex. android.util.Base64 is only available in
+         * API 8+.
+         */
+        final byte[] result = new byte[DIGEST_KEY_LENGTH];
+        try {
+            for (int i = 0; i < result.length; i++)
+                result[i] = (byte) Integer.parseInt(
+                        key.substring(i * 2, i * 2 + 2), 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        return result;
+    }// parseDigestKey()
+
+    /**
+     * Gets the shard of a profile.
+     *
+     * @param profileId
+     *            the profile ID.
+     * @return the shard.
+     */
+    private BinaryPreferences getShard(String profileId) {
+        return getShard((profileId.hashCode() & Integer.MAX_VALUE)
+                % SHARD_COUNT);
+    }// getShard()
+
+    /**
+     * Gets a shard, loads it if needed. A loaded shard is reloaded if another
+     * process has changed it.
+     *
+     * @param index
+     *            the index of the shard.
+     * @return the shard.
+     */
+    private synchronized BinaryPreferences getShard(int index) {
+        if (mShards[index] == null)
+            mShards[index] = BinaryPreferences.getInstance(new File(
+                    mDirectory, index + ".bin"));
+        else
+            mShards[index].reloadIfModified();
+        return mShards[index];
+    }// getShard()
+
+}
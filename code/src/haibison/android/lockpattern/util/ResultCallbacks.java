@@ -0,0 +1,171 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package haibison.android.lockpattern.util;
+
+import haibison.android.lockpattern.LockPatternActivity;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.Intent;
+
+/**
+ * In-process registry of result callbacks for {@link LockPatternActivity}.
+ * <p/>
+ * Register a callback with {@link #register(Callback)}, and put the returned
+ * token into the intent with {@link LockPatternActivity#EXTRA_RESULT_CALLBACK}
+ * (or simply use
+ * {@link LockPatternActivity#setResultCallback(Intent, Callback)}). If the
+ * activity runs in the same process, it delivers the result directly to the
+ * callback, instead of sending it through
+ * {@link LockPatternActivity#EXTRA_RESULT_RECEIVER} or the pending intents.
+ * Otherwise the token is unknown to the activity, and those extras are used as
+ * usual.
+ * <p/>
+ * A token is used only once.
+ * <p/>
+ * Callbacks are held by weak references, because they usually capture an
+ * activity or a fragment. So the caller must keep a strong reference to its
+ * callback (for example in a field) while it waits for the result. Once the
+ * caller is destroyed and its callback is garbage collected, the result is
+ * dropped, and its entry is purged on the next registration. Call
+ * {@link #unregister(long)} in {@code onDestroy()} to release it earlier.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class ResultCallbacks {
+
+    /**
+     * Callback to receive the result of {@link LockPatternActivity}.
+     */
+    public static interface Callback {
+
+        /**
+         * Will be called on the UI thread, when the activity is finishing.
+         *
+         * @param resultCode
+         *            the result code, the same as the one given to
+         *            {@link android.app.Activity#setResult(int, Intent)}.
+         * @param data
+         *            the result data, the same as the one given to
+         *            {@link android.app.Activity#setResult(int, Intent)}.
+         */
+        void onResult(int resultCode, Intent data);
+
+    }// Callback
+
+    /**
+     * The next token. It starts at a random value, so a token from another
+     * process is unlikely to match one of ours.
+     */
+    private static final AtomicLong NEXT_TOKEN = new AtomicLong(
+            new Random().nextLong());
+
+    /**
+     * Weak reference to a callback, which remembers its token.
+     */
+    private static class CallbackReference extends WeakReference<Callback> {
+
+        final long token;
+
+        CallbackReference(Callback callback, long token) {
+            super(callback, QUEUE);
+            this.token = token;
+        }// CallbackReference()
+
+    }// CallbackReference
+
+    /**
+     * Receives references of garbage collected callbacks.
+     */
+    private static final ReferenceQueue<Callback> QUEUE = new ReferenceQueue<Callback>();
+
+    private static final ConcurrentMap<Long, CallbackReference> CALLBACKS = new ConcurrentHashMap<Long, CallbackReference>();
+
+    /**
+     * This is singleton class.
+     */
+    private ResultCallbacks() {
+    }// ResultCallbacks()
+
+    /**
+     * Registers a callback. It is held by a weak reference, see
+     * {@link ResultCallbacks}.
+     *
+     * @param callback
+     *            the callback.
+     * @return the token, which is never {@code 0}.
+     * @throws NullPointerException
+     *             if {@code callback} is {@code null}.
+     */
+    public static long register(Callback callback) {
+        if (callback == null)
+            throw new NullPointerException();
+
+        purge();
+
+        long token;
+        do {
+            token = NEXT_TOKEN.getAndIncrement();
+        } while (token == 0
+                || CALLBACKS.putIfAbsent(token, new CallbackReference(
+                        callback, token)) != null);
+        return token;
+    }// register()
+
+    /**
+     * Unregisters a callback.
+     *
+     * @param token
+     *            the token.
+     * @return {@code true} if the token was registered.
+     */
+    public static boolean unregister(long token) {
+        return CALLBACKS.remove(token) != null;
+    }// unregister()
+
+    /**
+     * Removes and returns the callback of a token.
+     *
+     * @param token
+     *            the token.
+     * @return the callback, or {@code null} if the token is unknown (in which
+     *         case the caller is probably in another process), or if the
+     *         callback has been garbage collected.
+     */
+    public static Callback take(long token) {
+        final CallbackReference reference = token != 0 ? CALLBACKS
+                .remove(token) : null;
+        return reference != null ? reference.get() : null;
+    }// take()
+
+    /**
+     * Removes entries of garbage collected callbacks.
+     */
+    private static void purge() {
+        CallbackReference reference;
+        while ((reference = (CallbackReference) QUEUE.poll()) != null)
+            CALLBACKS.remove(reference.token, reference);
+    }// purge()
+
+}
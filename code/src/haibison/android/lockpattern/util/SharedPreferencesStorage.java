@@ -0,0 +1,60 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package haibison.android.lockpattern.util;
+
+import java.io.File;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+/**
+ * The default storage, which stores the settings in a {@link SharedPreferences}
+ * XML file named by {@link AlpSettings#genPreferenceFilename()}.
+ * <p/>
+ * The file is opened with {@link Context#MODE_MULTI_PROCESS}, so
+ * {@link AlpSettings#getSnapshot(Context)} checks it for changes made by other
+ * processes.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class SharedPreferencesStorage implements ISettingsStorage {
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    @Override
+    public SharedPreferences open(Context context) {
+        /*
+         * Always use application context.
+         */
+        return context.getApplicationContext().getSharedPreferences(
+                AlpSettings.genPreferenceFilename(), Context.MODE_MULTI_PROCESS);
+    }// open()
+
+    /**
+     * Gets the file of the preferences.
+     *
+     * @param context
+     *            the context.
+     * @return the file.
+     */
+    static File getFile(Context context) {
+        return new File(new File(context.getApplicationInfo().dataDir,
+                "shared_prefs"), AlpSettings.genPreferenceFilename() + ".xml");
+    }// getFile()
+
+}
@@ -0,0 +1,50 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package haibison.android.lockpattern.util;
+
+import android.view.View;
+
+/**
+ * Progress indicator which changes visibility of a view.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class ViewProgressIndicator implements IProgressIndicator {
+
+    private final View mView;
+
+    /**
+     * Creates new instance.
+     *
+     * @param view
+     *            the view.
+     */
+    public ViewProgressIndicator(View view) {
+        mView = view;
+    }// ViewProgressIndicator()
+
+    @Override
+    public void show() {
+        mView.setVisibility(View.VISIBLE);
+    }// show()
+
+    @Override
+    public void hide() {
+        mView.setVisibility(View.GONE);
+    }// hide()
+
+}
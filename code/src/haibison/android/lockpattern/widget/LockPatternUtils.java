@@ -16,39 +16,25 @@
 
 package haibison.android.lockpattern.widget;
 
-import static haibison.android.lockpattern.BuildConfig.DEBUG;
-import haibison.android.lockpattern.collect.Lists;
-import haibison.android.lockpattern.util.Randoms;
+import haibison.android.lockpattern.core.Patterns;
 
-import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
-
-import android.util.Log;
 
 /**
  * Utilities for the lock pattern and its settings.
  */
 public class LockPatternUtils {
 
-    /**
-     * Used for debugging...
-     */
-    private static final String CLASSNAME = LockPatternUtils.class.getName();
-
     /**
      * "UTF-8"
      */
-    public static final String UTF8 = "UTF-8";
+    public static final String UTF8 = Patterns.UTF8;
 
     /**
      * "SHA-1"
      */
-    public static final String SHA1 = "SHA-1";
+    public static final String SHA1 = Patterns.SHA1;
 
     /**
      * This is singleton class.
@@ -64,19 +50,7 @@ public class LockPatternUtils {
      * @return The pattern.
      */
     public static List<LockPatternView.Cell> stringToPattern(String string) {
-        List<LockPatternView.Cell> result = Lists.newArrayList();
-
-        try {
-            final byte[] bytes = string.getBytes(UTF8);
-            for (int i = 0; i < bytes.length; i++) {
-                byte b = bytes[i];
-                result.add(LockPatternView.Cell.of(b / 3, b % 3));
-            }
-        } catch (UnsupportedEncodingException e) {
-            // never catch this
-        }
-
-        return result;
+        return longToPattern(Patterns.fromString(string));
     }// stringToPattern()
 
     /**
@@ -87,23 +61,90 @@ public class LockPatternUtils {
      * @return The pattern in string form.
      */
     public static String patternToString(List<LockPatternView.Cell> pattern) {
-        if (pattern == null) {
-            return "";
-        }
+        return Patterns.toString(patternToLong(pattern));
+    }// patternToString()
+
+    /**
+     * Packs a pattern into a {@code long}.
+     * <p/>
+     * Each cell takes 4 bits, holding its ID plus one. The first cell takes
+     * the lowest bits, unused bits are zero. So an empty pattern is {@code 0},
+     * and two packed patterns are equal if and only if the patterns are equal.
+     * <p/>
+     * This form works for matrices up to 15 cells (the default matrix has
+     * {@code 3x3} cells).
+     * 
+     * @param pattern
+     *            the pattern, can be {@code null}.
+     * @return the packed pattern. {@code 0} if {@code pattern} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the pattern can't be packed.
+     * @since v3.2.1 beta
+     */
+    public static long patternToLong(List<LockPatternView.Cell> pattern) {
+        if (pattern == null)
+            return 0;
+
         final int patternSize = pattern.size();
+        if (patternSize > Patterns.MAX_SIZE)
+            throw new IllegalArgumentException("Pattern is too long: "
+                    + patternSize);
 
-        byte[] res = new byte[patternSize];
+        long result = 0;
         for (int i = 0; i < patternSize; i++) {
-            LockPatternView.Cell cell = pattern.get(i);
-            res[i] = (byte) (cell.row * 3 + cell.column);
+            final int id = pattern.get(i).getId();
+            if (id >= Patterns.MAX_SIZE)
+                throw new IllegalArgumentException("Cell ID is too large: "
+                        + id);
+            result |= (long) (id + 1) << (i * Patterns.CELL_BITS);
         }
-        try {
-            return new String(res, UTF8);
-        } catch (UnsupportedEncodingException e) {
-            // never catch this
-            return "";
-        }
-    }// patternToString()
+
+        return result;
+    }// patternToLong()
+
+    /**
+     * Unpacks a pattern packed by {@link #patternToLong(List)}.
+     * 
+     * @param pattern
+     *            the packed pattern.
+     * @return the pattern.
+     * @since v3.2.1 beta
+     */
+    public static ArrayList<LockPatternView.Cell> longToPattern(long pattern) {
+        final ArrayList<LockPatternView.Cell> result = new ArrayList<LockPatternView.Cell>(
+                getPackedPatternSize(pattern));
+        for (; pattern != 0; pattern >>>= Patterns.CELL_BITS)
+            result.add(LockPatternView.Cell
+                    .of((int) (pattern & Patterns.CELL_MASK) - 1));
+        return result;
+    }// longToPattern()
+
+    /**
+     * Gets the number of cells of a pattern packed by
+     * {@link #patternToLong(List)}.
+     * 
+     * @param pattern
+     *            the packed pattern.
+     * @return the number of cells.
+     * @since v3.2.1 beta
+     */
+    public static int getPackedPatternSize(long pattern) {
+        return Patterns.size(pattern);
+    }// getPackedPatternSize()
+
+    /**
+     * Gets a cell ID of a pattern packed by {@link #patternToLong(List)}.
+     * 
+     * @param pattern
+     *            the packed pattern.
+     * @param index
+     *            the index of the cell in the pattern.
+     * @return the cell ID, or {@code -1} if {@code index} is out of range.
+     * @since v3.2.1 beta
+     */
+    public static int getPackedCellId(long pattern, int index) {
+        return Patterns.getCellId(pattern, index);
+    }// getPackedCellId()
 
     /**
      * Serializes a pattern
@@ -114,23 +155,38 @@ public class LockPatternUtils {
      *         {@link #patternToString(List)}
      */
     public static String patternToSha1(List<LockPatternView.Cell> pattern) {
-        try {
-            MessageDigest md = MessageDigest.getInstance(SHA1);
-            md.update(patternToString(pattern).getBytes(UTF8));
+        return Patterns.toSha1(patternToLong(pattern));
+    }// patternToSha1()
 
-            byte[] digest = md.digest();
-            BigInteger bi = new BigInteger(1, digest);
-            return String.format((Locale) null,
-                    "%0" + (digest.length * 2) + "x", bi).toLowerCase();
-        } catch (NoSuchAlgorithmException e) {
-            // never catch this
-            return "";
-        } catch (UnsupportedEncodingException e) {
-            // never catch this
-            return "";
-        }
+    /**
+     * Serializes a pattern
+     * 
+     * @param pattern
+     *            The pattern
+     * @return The SHA-1 string of the pattern.
+     * @see #patternToSha1(List)
+     * @since v3.2.1 beta
+     */
+    public static String patternToSha1(Pattern pattern) {
+        return Patterns.toSha1(pattern.toLong());
     }// patternToSha1()
 
+    /**
+     * Compares two char arrays in constant time. The time taken depends only
+     * on the lengths of the arrays, not on their contents.
+     * 
+     * @param a
+     *            the first array, can be {@code null}.
+     * @param b
+     *            the second array, can be {@code null}.
+     * @return {@code true} if both arrays are {@code null}, or they have the
+     *         same contents.
+     * @since v3.2.1 beta
+     */
+    public static boolean constantTimeEquals(char[] a, char[] b) {
+        return Patterns.constantTimeEquals(a, b);
+    }// constantTimeEquals()
+
     /**
      * Generates a random "CAPTCHA" pattern. By saying "CAPTCHA", this method
      * ensures that the generated pattern is easy for the user to re-draw.
@@ -152,142 +208,7 @@ public class LockPatternUtils {
      */
     public static ArrayList<LockPatternView.Cell> genCaptchaPattern(int size)
             throws IndexOutOfBoundsException {
-        if (size <= 0 || size > LockPatternView.MATRIX_SIZE)
-            throw new IndexOutOfBoundsException(
-                    "`size` must be in range [1, `LockPatternView.MATRIX_SIZE`]");
-
-        final List<Integer> usedIds = Lists.newArrayList();
-        int lastId = Randoms.randInt(LockPatternView.MATRIX_SIZE);
-        usedIds.add(lastId);
-
-        while (usedIds.size() < size) {
-            /*
-             * We start from an empty matrix, so there's always a break point to
-             * exit this loop.
-             */
-
-            if (DEBUG)
-                Log.d(CLASSNAME, " >> lastId = " + lastId);
-
-            final int lastRow = lastId / LockPatternView.MATRIX_WIDTH;
-            final int lastCol = lastId % LockPatternView.MATRIX_WIDTH;
-
-            /*
-             * This is the max available rows/ columns that we can reach from
-             * the cell of `lastId` to the border of the matrix.
-             */
-            final int maxDistance = Math.max(
-                    Math.max(lastRow, LockPatternView.MATRIX_WIDTH - lastRow),
-                    Math.max(lastCol, LockPatternView.MATRIX_WIDTH - lastCol));
-
-            lastId = -1;
-
-            /*
-             * Starting from `distance` = 1, find the closest-available
-             * neighbour value of the cell [lastRow, lastCol].
-             */
-            for (int distance = 1; distance <= maxDistance; distance++) {
-                /*
-                 * Now we have a square surrounding the current cell. We call it
-                 * ABCD, in which A is top-left, and C is bottom-right.
-                 */
-
-                final int rowA = lastRow - distance;
-                final int colA = lastCol - distance;
-                final int rowC = lastRow + distance;
-                final int colC = lastCol + distance;
-
-                int[] randomValues;
-
-                /*
-                 * Process randomly AB, BC, CD, and DA. Break the loop as soon
-                 * as we find one value.
-                 */
-                final int[] lines = Randoms.randIntArray(4);
-                for (int line : lines) {
-                    switch (line) {
-                    case 0: {
-                        if (rowA >= 0) {
-                            randomValues = Randoms.randIntArray(Math.max(0,
-                                    colA), Math.min(
-                                    LockPatternView.MATRIX_WIDTH, colC + 1));
-                            for (int c : randomValues) {
-                                lastId = rowA * LockPatternView.MATRIX_WIDTH
-                                        + c;
-                                if (usedIds.contains(lastId))
-                                    lastId = -1;
-                                else
-                                    break;
-                            }
-                        }
-                        break;
-                    }// AB
-                    case 1: {
-                        if (colC < LockPatternView.MATRIX_WIDTH) {
-                            randomValues = Randoms.randIntArray(Math.max(0,
-                                    rowA + 1), Math.min(
-                                    LockPatternView.MATRIX_WIDTH, rowC + 1));
-                            for (int r : randomValues) {
-                                lastId = r * LockPatternView.MATRIX_WIDTH
-                                        + colC;
-                                if (usedIds.contains(lastId))
-                                    lastId = -1;
-                                else
-                                    break;
-                            }
-                        }
-                        break;
-                    }// BC
-                    case 2: {
-                        if (rowC < LockPatternView.MATRIX_WIDTH) {
-                            randomValues = Randoms.randIntArray(Math.max(0,
-                                    colA), Math.min(
-                                    LockPatternView.MATRIX_WIDTH, colC));
-                            for (int c : randomValues) {
-                                lastId = rowC * LockPatternView.MATRIX_WIDTH
-                                        + c;
-                                if (usedIds.contains(lastId))
-                                    lastId = -1;
-                                else
-                                    break;
-                            }
-                        }
-                        break;
-                    }// DC
-                    case 3: {
-                        if (colA >= 0) {
-                            randomValues = Randoms.randIntArray(Math.max(0,
-                                    rowA + 1), Math.min(
-                                    LockPatternView.MATRIX_WIDTH, rowC));
-                            for (int r : randomValues) {
-                                lastId = r * LockPatternView.MATRIX_WIDTH
-                                        + colA;
-                                if (usedIds.contains(lastId))
-                                    lastId = -1;
-                                else
-                                    break;
-                            }
-                        }
-                        break;
-                    }// AD
-                    }
-
-                    if (lastId >= 0)
-                        break;
-                }// for line
-
-                if (lastId >= 0)
-                    break;
-            }// for distance
-
-            usedIds.add(lastId);
-        }// while
-
-        final ArrayList<LockPatternView.Cell> result = Lists.newArrayList();
-        for (int id : usedIds)
-            result.add(LockPatternView.Cell.of(id));
-
-        return result;
+        return longToPattern(Patterns.genCaptchaPattern(size));
     }// genCaptchaPattern()
 
 }
@@ -17,6 +17,7 @@
 package haibison.android.lockpattern.widget;
 
 import haibison.android.lockpattern.R;
+import haibison.android.lockpattern.core.Patterns;
 import haibison.android.lockpattern.util.FloatAnimator;
 import haibison.android.lockpattern.util.ResourceUtils;
 
@@ -42,6 +43,7 @@ import android.util.AttributeSet;
 import android.view.HapticFeedbackConstants;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityManager;
 import android.view.animation.AnimationUtils;
@@ -73,13 +75,15 @@ public class LockPatternView extends View {
         public final int column;
 
         /*
-         * keep # objects limited to MATRIX_SIZE
+         * keep # objects limited to MATRIX_SIZE. The table is indexed by cell
+         * ID, and never changes after the class is initialized, so it can be
+         * read without locking.
          */
-        static Cell[][] sCells = new Cell[MATRIX_WIDTH][MATRIX_WIDTH];
+        private static final Cell[] CELLS = new Cell[MATRIX_SIZE];
         static {
             for (int i = 0; i < MATRIX_WIDTH; i++) {
                 for (int j = 0; j < MATRIX_WIDTH; j++) {
-                    sCells[i][j] = new Cell(i, j);
+                    CELLS[i * MATRIX_WIDTH + j] = new Cell(i, j);
                 }
             }
         }
@@ -112,9 +116,9 @@ public class LockPatternView extends View {
          * @param column
          *            The column of the cell.
          */
-        public static synchronized Cell of(int row, int column) {
+        public static Cell of(int row, int column) {
             checkRange(row, column);
-            return sCells[row][column];
+            return CELLS[row * MATRIX_WIDTH + column];
         }
 
         /**
@@ -126,8 +130,11 @@ public class LockPatternView extends View {
          * @since v2.7 beta
          * @author Hai Bison
          */
-        public static synchronized Cell of(int id) {
-            return of(id / MATRIX_WIDTH, id % MATRIX_WIDTH);
+        public static Cell of(int id) {
+            if (id < 0 || id >= MATRIX_SIZE)
+                throw new IllegalArgumentException("id must be in range 0-"
+                        + (MATRIX_SIZE - 1));
+            return CELLS[id];
         }// of()
 
         private static void checkRange(int row, int column) {
@@ -146,14 +153,27 @@ public class LockPatternView extends View {
             return "(ROW=" + row + ",COL=" + column + ")";
         }// toString()
 
+        /**
+         * {@inheritDoc}
+         * <p/>
+         * Cells are interned, see {@link #of(int, int)}, so two equal cells
+         * are normally the same object.
+         */
         @Override
         public boolean equals(Object object) {
+            if (object == this)
+                return true;
             if (object instanceof Cell)
                 return column == ((Cell) object).column
                         && row == ((Cell) object).row;
-            return super.equals(object);
+            return false;
         }// equals()
 
+        @Override
+        public int hashCode() {
+            return getId();
+        }// hashCode()
+
         /*
          * PARCELABLE
          */
@@ -171,8 +191,12 @@ public class LockPatternView extends View {
 
         public static final Parcelable.Creator<Cell> CREATOR = new Parcelable.Creator<Cell>() {
 
+            /**
+             * Returns the interned cell, see {@link Cell#of(int, int)}.
+             */
             public Cell createFromParcel(Parcel in) {
-                return new Cell(in);
+                final int column = in.readInt();
+                return of(in.readInt(), column);
             }// createFromParcel()
 
             public Cell[] newArray(int size) {
@@ -180,11 +204,6 @@ public class LockPatternView extends View {
             }// newArray()
         };// CREATOR
 
-        private Cell(Parcel in) {
-            column = in.readInt();
-            row = in.readInt();
-        }// Cell()
-
     }// Cell
 
     /**
@@ -250,12 +269,13 @@ public class LockPatternView extends View {
 
     /**
      * This is the width of the matrix (the number of dots per row and column).
-     * Change this value to change the dimension of the pattern's matrix.
+     * Change {@link Patterns#MATRIX_WIDTH} to change the dimension of the
+     * pattern's matrix.
      * 
      * @since v2.7 beta
      * @author Thomas Breitbach
      */
-    public static final int MATRIX_WIDTH = 3;
+    public static final int MATRIX_WIDTH = Patterns.MATRIX_WIDTH;
 
     /**
      * The size of the pattern's matrix.
@@ -314,6 +334,11 @@ public class LockPatternView extends View {
     private boolean mEnableHapticFeedback = true;
     private boolean mPatternInProgress = false;
 
+    /**
+     * {@code true} while this view is being moved by {@link #moveTo(View)}.
+     */
+    private boolean mMoving = false;
+
     private float mHitFactor = 0.6f;
 
     private float mSquareWidth;
@@ -510,6 +535,30 @@ public class LockPatternView extends View {
         setDisplayMode(displayMode);
     }
 
+    /**
+     * Set the pattern explicitly (rather than waiting for the user to input a
+     * pattern).
+     * 
+     * @param displayMode
+     *            How to display the pattern.
+     * @param pattern
+     *            The pattern.
+     * @since v3.2.1 beta
+     */
+    public void setPattern(DisplayMode displayMode, Pattern pattern) {
+        setPattern(displayMode, pattern.asList());
+    }// setPattern()
+
+    /**
+     * Gets the pattern as an immutable {@link Pattern}.
+     * 
+     * @return the pattern.
+     * @since v3.2.1 beta
+     */
+    public Pattern getPatternValue() {
+        return Pattern.of(mPattern);
+    }// getPatternValue()
+
     /**
      * Gets display mode.
      * 
@@ -579,6 +628,57 @@ public class LockPatternView extends View {
         resetPattern();
     }
 
+    /**
+     * Checks if the user is drawing a pattern.
+     * 
+     * @return {@code true} or {@code false}.
+     * @since v3.2.1 beta
+     */
+    public boolean isPatternInProgress() {
+        return mPatternInProgress;
+    }// isPatternInProgress()
+
+    /**
+     * Moves this view into the place of {@code placeholder}, which is in
+     * another view tree, and puts {@code placeholder} into the old place of
+     * this view. Each view takes the layout params of the other one's place.
+     * <p/>
+     * The pattern, the animations and the pattern in progress are kept.
+     * However the parent of this view won't dispatch the rest of the current
+     * gesture to this view. If this method returns {@code true}, the caller
+     * should do that.
+     * 
+     * @param placeholder
+     *            the placeholder view, it must have a parent.
+     * @return {@code true} if the user is drawing a pattern.
+     * @since v3.2.1 beta
+     */
+    public boolean moveTo(View placeholder) {
+        final ViewGroup parent = (ViewGroup) getParent();
+        final ViewGroup newParent = (ViewGroup) placeholder.getParent();
+        final int index = parent.indexOfChild(this);
+        final int newIndex = newParent.indexOfChild(placeholder);
+        final ViewGroup.LayoutParams lp = getLayoutParams();
+        final ViewGroup.LayoutParams newLp = placeholder.getLayoutParams();
+
+        /*
+         * The parent cancels the gesture of this view when removing it. Don't
+         * let that clear the pattern in progress.
+         */
+        mMoving = true;
+        try {
+            parent.removeViewAt(index);
+        } finally {
+            mMoving = false;
+        }
+        newParent.removeViewAt(newIndex);
+
+        newParent.addView(this, newIndex, newLp);
+        parent.addView(placeholder, index, lp);
+
+        return mPatternInProgress;
+    }// moveTo()
+
     /**
      * Reset all pattern state.
      */
@@ -683,22 +783,10 @@ public class LockPatternView extends View {
             Cell fillInGapCell = null;
             final ArrayList<Cell> pattern = mPattern;
             if (!pattern.isEmpty()) {
-                final Cell lastCell = pattern.get(pattern.size() - 1);
-                int dRow = cell.row - lastCell.row;
-                int dColumn = cell.column - lastCell.column;
-
-                int fillInRow = lastCell.row;
-                int fillInColumn = lastCell.column;
-
-                if (Math.abs(dRow) == 2 && Math.abs(dColumn) != 1) {
-                    fillInRow = lastCell.row + ((dRow > 0) ? 1 : -1);
-                }
-
-                if (Math.abs(dColumn) == 2 && Math.abs(dRow) != 1) {
-                    fillInColumn = lastCell.column + ((dColumn > 0) ? 1 : -1);
-                }
-
-                fillInGapCell = Cell.of(fillInRow, fillInColumn);
+                final int fillInId = Patterns.getGapCellId(
+                        pattern.get(pattern.size() - 1).getId(), cell.getId());
+                if (fillInId >= 0)
+                    fillInGapCell = Cell.of(fillInId);
             }
 
             if (fillInGapCell != null
@@ -931,6 +1019,9 @@ public class LockPatternView extends View {
             handleActionMove(event);
             return true;
         case MotionEvent.ACTION_CANCEL:
+            if (mMoving)
+                return true;
+
             /*
              * Original source check for mPatternInProgress == true first before
              * calling next three lines. But if we do that, there will be
@@ -1268,8 +1359,7 @@ public class LockPatternView extends View {
     @Override
     protected Parcelable onSaveInstanceState() {
         Parcelable superState = super.onSaveInstanceState();
-        return new SavedState(superState,
-                LockPatternUtils.patternToString(mPattern),
+        return new SavedState(superState, Pattern.of(mPattern),
                 mPatternDisplayMode.ordinal(), mInputEnabled, mInStealthMode,
                 mEnableHapticFeedback);
     }
@@ -1279,7 +1369,7 @@ public class LockPatternView extends View {
         final SavedState ss = (SavedState) state;
         super.onRestoreInstanceState(ss.getSuperState());
         setPattern(DisplayMode.Correct,
-                LockPatternUtils.stringToPattern(ss.getSerializedPattern()));
+                ss.getPattern() != null ? ss.getPattern() : Pattern.EMPTY);
         mPatternDisplayMode = DisplayMode.values()[ss.getDisplayMode()];
         mInputEnabled = ss.isInputEnabled();
         mInStealthMode = ss.isInStealthMode();
@@ -1291,7 +1381,7 @@ public class LockPatternView extends View {
      */
     private static class SavedState extends BaseSavedState {
 
-        private final String mSerializedPattern;
+        private final Pattern mPattern;
         private final int mDisplayMode;
         private final boolean mInputEnabled;
         private final boolean mInStealthMode;
@@ -1300,11 +1390,11 @@ public class LockPatternView extends View {
         /**
          * Constructor called from {@link LockPatternView#onSaveInstanceState()}
          */
-        private SavedState(Parcelable superState, String serializedPattern,
+        private SavedState(Parcelable superState, Pattern pattern,
                 int displayMode, boolean inputEnabled, boolean inStealthMode,
                 boolean tactileFeedbackEnabled) {
             super(superState);
-            mSerializedPattern = serializedPattern;
+            mPattern = pattern;
             mDisplayMode = displayMode;
             mInputEnabled = inputEnabled;
             mInStealthMode = inStealthMode;
@@ -1316,15 +1406,15 @@ public class LockPatternView extends View {
          */
         private SavedState(Parcel in) {
             super(in);
-            mSerializedPattern = in.readString();
+            mPattern = Pattern.read(in);
             mDisplayMode = in.readInt();
             mInputEnabled = (Boolean) in.readValue(null);
             mInStealthMode = (Boolean) in.readValue(null);
             mTactileFeedbackEnabled = (Boolean) in.readValue(null);
         }
 
-        public String getSerializedPattern() {
-            return mSerializedPattern;
+        public Pattern getPattern() {
+            return mPattern;
         }
 
         public int getDisplayMode() {
@@ -1346,7 +1436,7 @@ public class LockPatternView extends View {
         @Override
         public void writeToParcel(Parcel dest, int flags) {
             super.writeToParcel(dest, flags);
-            dest.writeString(mSerializedPattern);
+            Pattern.write(dest, mPattern != null ? mPattern.asList() : null);
             dest.writeInt(mDisplayMode);
             dest.writeValue(mInputEnabled);
             dest.writeValue(mInStealthMode);
@@ -0,0 +1,335 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package haibison.android.lockpattern.widget;
+
+import haibison.android.lockpattern.core.Patterns;
+import haibison.android.lockpattern.widget.LockPatternView.Cell;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Immutable pattern, backed by its packed form (see
+ * {@link LockPatternUtils#patternToLong(List)}).
+ * <p/>
+ * Comparing two patterns is a comparison of two {@code long}s, and the hash
+ * code is cached. Use {@link #asList()} where a {@link List} of {@link Cell}
+ * is needed.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public final class Pattern implements Parcelable {
+
+    /**
+     * The empty pattern.
+     */
+    public static final Pattern EMPTY = new Pattern(0);
+
+    /**
+     * Tag written before a packed pattern by {@link #write(Parcel, List)}. It
+     * can't be the length of a string written by the old format, which is
+     * much smaller.
+     */
+    private static final int PARCEL_TAG = 0x41505431;
+
+    private final long mPacked;
+    private final int mSize;
+    private final int mHashCode;
+
+    /**
+     * The list view, created lazily.
+     */
+    private List<Cell> mList;
+
+    /**
+     * Creates new instance.
+     *
+     * @param packed
+     *            the packed pattern.
+     */
+    private Pattern(long packed) {
+        mPacked = packed;
+        mSize = LockPatternUtils.getPackedPatternSize(packed);
+        mHashCode = (int) (packed ^ (packed >>> 32));
+    }// Pattern()
+
+    /**
+     * Creates a pattern from a list of cells.
+     *
+     * @param cells
+     *            the cells, can be {@code null}.
+     * @return the pattern. {@link #EMPTY} if {@code cells} is {@code null} or
+     *         empty.
+     * @throws IllegalArgumentException
+     *             if the pattern can't be packed.
+     */
+    public static Pattern of(List<Cell> cells) {
+        return fromLong(LockPatternUtils.patternToLong(cells));
+    }// of()
+
+    /**
+     * Creates a pattern from its packed form.
+     *
+     * @param packed
+     *            the packed pattern, see
+     *            {@link LockPatternUtils#patternToLong(List)}.
+     * @return the pattern.
+     * @throws IllegalArgumentException
+     *             if {@code packed} is not a valid packed pattern (see
+     *             {@link Patterns#isValid(long)}).
+     */
+    public static Pattern fromLong(long packed) {
+        final Pattern result = parse(packed);
+        if (result == null)
+            throw new IllegalArgumentException("Invalid packed pattern: "
+                    + Long.toHexString(packed));
+        return result;
+    }// fromLong()
+
+    /**
+     * Creates a pattern from its packed form, which comes from outside, such
+     * as a parcel or an intent.
+     *
+     * @param packed
+     *            the packed pattern.
+     * @return the pattern, or {@code null} if {@code packed} is not valid.
+     */
+    private static Pattern parse(long packed) {
+        if (packed == 0)
+            return EMPTY;
+        return Patterns.isValid(packed) ? new Pattern(packed) : null;
+    }// parse()
+
+    /**
+     * Gets the packed form of this pattern.
+     *
+     * @return the packed pattern, see
+     *         {@link LockPatternUtils#patternToLong(List)}.
+     */
+    public long toLong() {
+        return mPacked;
+    }// toLong()
+
+    /**
+     * Gets the number of cells.
+     *
+     * @return the number of cells.
+     */
+    public int size() {
+        return mSize;
+    }// size()
+
+    /**
+     * Gets a cell.
+     *
+     * @param index
+     *            the index of the cell.
+     * @return the cell.
+     * @throws IndexOutOfBoundsException
+     *             if {@code index} is out of range.
+     */
+    public Cell get(int index) {
+        if (index < 0 || index >= mSize)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: "
+                    + mSize);
+        return Cell.of(LockPatternUtils.getPackedCellId(mPacked, index));
+    }// get()
+
+    /**
+     * Gets an unmodifiable view of this pattern as a list of cells. The cells
+     * are not copied.
+     *
+     * @return the list.
+     */
+    public List<Cell> asList() {
+        /*
+         * The list has no state of its own, so it's OK if some threads create
+         * it more than once.
+         */
+        if (mList == null)
+            mList = new CellList();
+        return mList;
+    }// asList()
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this
+                || (o instanceof Pattern && ((Pattern) o).mPacked == mPacked);
+    }// equals()
+
+    @Override
+    public int hashCode() {
+        return mHashCode;
+    }// hashCode()
+
+    @Override
+    public String toString() {
+        return asList().toString();
+    }// toString()
+
+    /*
+     * PARCELABLE
+     */
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }// describeContents()
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(mPacked);
+    }// writeToParcel()
+
+    public static final Parcelable.Creator<Pattern> CREATOR = new Parcelable.Creator<Pattern>() {
+
+        /**
+         * Returns {@code null} if the parcel holds an invalid pattern.
+         */
+        @Override
+        public Pattern createFromParcel(Parcel in) {
+            return parse(in.readLong());
+        }// createFromParcel()
+
+        @Override
+        public Pattern[] newArray(int size) {
+            return new Pattern[size];
+        }// newArray()
+
+    };// CREATOR
+
+    /*
+     * CODEC
+     */
+
+    /**
+     * Writes a pattern to a parcel, in compact form: a tag and the packed
+     * pattern. Use {@link #read(Parcel)} to read it back.
+     *
+     * @param dest
+     *            the parcel.
+     * @param pattern
+     *            the pattern, can be {@code null}.
+     */
+    public static void write(Parcel dest, List<Cell> pattern) {
+        dest.writeInt(PARCEL_TAG);
+        dest.writeLong(pattern != null ? LockPatternUtils
+                .patternToLong(pattern) : 0);
+    }// write()
+
+    /**
+     * Reads a pattern written by {@link #write(Parcel, List)}. For backward
+     * compatibility, this method also reads a string written by
+     * {@link LockPatternUtils#patternToString(List)}.
+     *
+     * @param in
+     *            the parcel.
+     * @return the pattern, or {@code null} if the old format held
+     *         {@code null}, or if the parcel holds an invalid pattern.
+     */
+    public static Pattern read(Parcel in) {
+        final int position = in.dataPosition();
+        if (in.readInt() == PARCEL_TAG)
+            return parse(in.readLong());
+
+        in.setDataPosition(position);
+        final String s = in.readString();
+        if (s == null)
+            return null;
+
+        try {
+            return parse(Patterns.fromString(s));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }// read()
+
+    /**
+     * Puts a pattern into an intent, as a packed {@code long} extra. Use
+     * {@link #getExtra(Intent, String)} to get it back.
+     *
+     * @param intent
+     *            the intent.
+     * @param name
+     *            the extra name.
+     * @param pattern
+     *            the pattern.
+     */
+    public static void putExtra(Intent intent, String name, List<Cell> pattern) {
+        intent.putExtra(name, LockPatternUtils.patternToLong(pattern));
+    }// putExtra()
+
+    /**
+     * Gets a pattern from an intent. The extra can be a packed {@code long}
+     * (see {@link #putExtra(Intent, String, List)}), a {@link Pattern}, or an
+     * {@link ArrayList} of {@link Cell}.
+     *
+     * @param intent
+     *            the intent.
+     * @param name
+     *            the extra name.
+     * @return the pattern, or {@code null} if there is none, or if the extra
+     *         is not a valid pattern.
+     */
+    public static Pattern getExtra(Intent intent, String name) {
+        final Bundle extras = intent.getExtras();
+        final Object value = extras != null ? extras.get(name) : null;
+
+        if (value instanceof Long)
+            return parse((Long) value);
+        if (value instanceof Pattern)
+            return (Pattern) value;
+        if (value instanceof List<?>) {
+            final List<Cell> cells = new ArrayList<Cell>();
+            for (Object cell : (List<?>) value) {
+                if (!(cell instanceof Cell))
+                    return null;
+                cells.add((Cell) cell);
+            }
+            if (cells.size() > Patterns.MAX_SIZE)
+                return null;
+            return of(cells);
+        }
+
+        return null;
+    }// getExtra()
+
+    /**
+     * List view of the pattern.
+     */
+    private class CellList extends AbstractList<Cell> implements RandomAccess {
+
+        @Override
+        public Cell get(int location) {
+            return Pattern.this.get(location);
+        }// get()
+
+        @Override
+        public int size() {
+            return mSize;
+        }// size()
+
+    }// CellList
+
+}
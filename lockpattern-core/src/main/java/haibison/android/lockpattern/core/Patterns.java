@@ -0,0 +1,525 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.android.lockpattern.core;
+
+import haibison.android.lockpattern.util.Randoms;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Pattern model which doesn't depend on Android.
+ * <p/>
+ * A pattern is packed into a {@code long}. Each cell takes
+ * {@link #CELL_BITS} bits, holding its ID plus one. The first cell takes the
+ * lowest bits, unused bits are zero. So an empty pattern is {@code 0}, and two
+ * packed patterns are equal if and only if the patterns are equal. A cell ID
+ * is {@code row * }{@link #MATRIX_WIDTH}{@code  + column}.
+ * <p/>
+ * The Android library uses this class for serialization, hashing and the
+ * rules of drawing, so the results here are the same as on the device.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class Patterns {
+
+    /**
+     * "UTF-8"
+     */
+    public static final String UTF8 = "UTF-8";
+
+    /**
+     * "SHA-1"
+     */
+    public static final String SHA1 = "SHA-1";
+
+    /**
+     * The width of the matrix.
+     */
+    public static final int MATRIX_WIDTH = 3;
+
+    /**
+     * The number of cells of the matrix.
+     */
+    public static final int MATRIX_SIZE = MATRIX_WIDTH * MATRIX_WIDTH;
+
+    /**
+     * Number of bits of a cell in a packed pattern.
+     */
+    public static final int CELL_BITS = 4;
+
+    /**
+     * Mask of a cell in a packed pattern.
+     */
+    public static final long CELL_MASK = (1 << CELL_BITS) - 1;
+
+    /**
+     * Max number of cells in a packed pattern.
+     */
+    public static final int MAX_SIZE = (int) CELL_MASK;
+
+    /**
+     * Length of SHA-1 in bytes.
+     */
+    public static final int SHA1_LENGTH = 20;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * This is singleton class.
+     */
+    private Patterns() {
+    }// Patterns()
+
+    /**
+     * Packs cell IDs into a pattern.
+     *
+     * @param ids
+     *            the cell IDs, in order.
+     * @return the packed pattern.
+     * @throws IllegalArgumentException
+     *             if the pattern can't be packed.
+     */
+    public static long pack(int... ids) {
+        if (ids.length > MAX_SIZE)
+            throw new IllegalArgumentException("Pattern is too long: "
+                    + ids.length);
+
+        long result = 0;
+        for (int i = 0; i < ids.length; i++)
+            result |= packCell(ids[i], i);
+        return result;
+    }// pack()
+
+    /**
+     * Gets the number of cells of a pattern.
+     *
+     * @param pattern
+     *            the packed pattern.
+     * @return the number of cells.
+     */
+    public static int size(long pattern) {
+        return (Long.SIZE - Long.numberOfLeadingZeros(pattern) + CELL_BITS - 1)
+                / CELL_BITS;
+    }// size()
+
+    /**
+     * Checks if a value is a valid packed pattern: it has at most
+     * {@link #MAX_SIZE} cells, each cell ID is in the matrix, and there's no
+     * empty cell between two cells.
+     *
+     * @param pattern
+     *            the packed pattern.
+     * @return {@code true} or {@code false}.
+     */
+    public static boolean isValid(long pattern) {
+        final int size = size(pattern);
+        if (size > MAX_SIZE)
+            return false;
+
+        for (int i = 0; i < size; i++, pattern >>>= CELL_BITS) {
+            final long cell = pattern & CELL_MASK;
+            if (cell == 0 || cell > MATRIX_SIZE)
+                return false;
+        }
+        return true;
+    }// isValid()
+
+    /**
+     * Gets a cell ID of a pattern.
+     *
+     * @param pattern
+     *            the packed pattern.
+     * @param index
+     *            the index of the cell in the pattern.
+     * @return the cell ID, or {@code -1} if {@code index} is out of range.
+     */
+    public static int getCellId(long pattern, int index) {
+        if (index < 0 || index >= MAX_SIZE)
+            return -1;
+        return (int) ((pattern >>> (index * CELL_BITS)) & CELL_MASK) - 1;
+    }// getCellId()
+
+    /**
+     * Appends a cell to a pattern.
+     *
+     * @param pattern
+     *            the packed pattern.
+     * @param id
+     *            the cell ID.
+     * @return the new packed pattern.
+     * @throws IllegalArgumentException
+     *             if the pattern is full, or if the cell ID can't be packed.
+     */
+    public static long append(long pattern, int id) {
+        final int size = size(pattern);
+        if (size >= MAX_SIZE)
+            throw new IllegalArgumentException("Pattern is full");
+        return pattern | packCell(id, size);
+    }// append()
+
+    /**
+     * Checks if a pattern contains a cell.
+     *
+     * @param pattern
+     *            the packed pattern.
+     * @param id
+     *            the cell ID.
+     * @return {@code true} or {@code false}. Always {@code false} if the cell
+     *         ID is not in the matrix.
+     */
+    public static boolean contains(long pattern, int id) {
+        if (id < 0 || id >= MATRIX_SIZE)
+            return false;
+
+        for (; pattern != 0; pattern >>>= CELL_BITS)
+            if ((pattern & CELL_MASK) == id + 1)
+                return true;
+        return false;
+    }// contains()
+
+    /**
+     * Gets the cell in the middle of a move, which is added to the pattern
+     * automatically when the user skips it. For example from the top-left
+     * cell to the top-right cell, the top-center cell is in the middle.
+     *
+     * @param lastId
+     *            the ID of the last cell of the pattern.
+     * @param id
+     *            the ID of the new cell.
+     * @return the ID of the cell in the middle, or {@code -1} if the move
+     *         doesn't skip any cell.
+     */
+    public static int getGapCellId(int lastId, int id) {
+        final int lastRow = lastId / MATRIX_WIDTH;
+        final int lastColumn = lastId % MATRIX_WIDTH;
+        final int dRow = id / MATRIX_WIDTH - lastRow;
+        final int dColumn = id % MATRIX_WIDTH - lastColumn;
+
+        int fillInRow = lastRow;
+        int fillInColumn = lastColumn;
+
+        if (Math.abs(dRow) == 2 && Math.abs(dColumn) != 1)
+            fillInRow = lastRow + ((dRow > 0) ? 1 : -1);
+
+        if (Math.abs(dColumn) == 2 && Math.abs(dRow) != 1)
+            fillInColumn = lastColumn + ((dColumn > 0) ? 1 : -1);
+
+        final int result = fillInRow * MATRIX_WIDTH + fillInColumn;
+        return result != lastId ? result : -1;
+    }// getGapCellId()
+
+    /**
+     * Serializes a pattern. Each cell becomes a character whose value is its
+     * ID.
+     *
+     * @param pattern
+     *            the packed pattern.
+     * @return the pattern in string form.
+     */
+    public static String toString(long pattern) {
+        final char[] chars = new char[size(pattern)];
+        for (int i = 0; i < chars.length; i++, pattern >>>= CELL_BITS)
+            chars[i] = (char) ((pattern & CELL_MASK) - 1);
+        return new String(chars);
+    }// toString()
+
+    /**
+     * Deserializes a pattern serialized by {@link #toString(long)}.
+     *
+     * @param string
+     *            the pattern in string form.
+     * @return the packed pattern.
+     * @throws IllegalArgumentException
+     *             if {@code string} is not a valid pattern.
+     */
+    public static long fromString(String string) {
+        if (string.length() > MAX_SIZE)
+            throw new IllegalArgumentException("Pattern is too long: "
+                    + string.length());
+
+        long result = 0;
+        for (int i = 0; i < string.length(); i++) {
+            final int id = string.charAt(i);
+            if (id >= MATRIX_SIZE)
+                throw new IllegalArgumentException("Invalid cell ID: " + id);
+            result |= packCell(id, i);
+        }
+        return result;
+    }// fromString()
+
+    /**
+     * Creates new {@link MessageDigest} for {@link #SHA1}.
+     *
+     * @return the message digest.
+     */
+    public static MessageDigest newSha1Digest() {
+        try {
+            return MessageDigest.getInstance(SHA1);
+        } catch (NoSuchAlgorithmException e) {
+            /*
+             * Never catch this.
+             */
+            throw new RuntimeException(e);
+        }
+    }// newSha1Digest()
+
+    /**
+     * Calculates SHA-1 of a pattern in string form (see
+     * {@link #toString(long)}), without allocating any object.
+     *
+     * @param pattern
+     *            the packed pattern.
+     * @param digest
+     *            the message digest for {@link #SHA1}, it is reset.
+     * @param buffer
+     *            the buffer, its length must be at least {@link #MAX_SIZE}.
+     * @param output
+     *            the output, its length must be at least
+     *            {@link #SHA1_LENGTH}.
+     */
+    public static void sha1(long pattern, MessageDigest digest, byte[] buffer,
+            byte[] output) {
+        final int size = size(pattern);
+        for (int i = 0; i < size; i++, pattern >>>= CELL_BITS)
+            buffer[i] = (byte) ((pattern & CELL_MASK) - 1);
+
+        digest.reset();
+        digest.update(buffer, 0, size);
+        try {
+            digest.digest(output, 0, SHA1_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }// sha1()
+
+    /**
+     * Calculates SHA-1 of a pattern in string form (see
+     * {@link #toString(long)}).
+     *
+     * @param pattern
+     *            the packed pattern.
+     * @return the SHA-1, in lower case hexadecimal digits.
+     */
+    public static String toSha1(long pattern) {
+        final byte[] sha1 = new byte[SHA1_LENGTH];
+        sha1(pattern, newSha1Digest(), new byte[MAX_SIZE], sha1);
+
+        final char[] result = new char[SHA1_LENGTH * 2];
+        toHex(sha1, result);
+        return new String(result);
+    }// toSha1()
+
+    /**
+     * Converts bytes into lower case hexadecimal digits.
+     *
+     * @param bytes
+     *            the bytes.
+     * @param output
+     *            the output, its length must be at least twice the length of
+     *            {@code bytes}.
+     */
+    public static void toHex(byte[] bytes, char[] output) {
+        for (int i = 0; i < bytes.length; i++) {
+            output[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            output[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+    }// toHex()
+
+    /**
+     * Compares two char arrays in constant time. The time taken depends only
+     * on the lengths of the arrays, not on their contents.
+     *
+     * @param a
+     *            the first array, can be {@code null}.
+     * @param b
+     *            the second array, can be {@code null}.
+     * @return {@code true} if both arrays are {@code null}, or they have the
+     *         same contents.
+     */
+    public static boolean constantTimeEquals(char[] a, char[] b) {
+        if (a == null || b == null)
+            return a == b;
+        if (a.length != b.length)
+            return false;
+
+        int result = 0;
+        for (int i = 0; i < a.length; i++)
+            result |= a[i] ^ b[i];
+        return result == 0;
+    }// constantTimeEquals()
+
+    /**
+     * Generates a random "CAPTCHA" pattern. By saying "CAPTCHA", this method
+     * ensures that the generated pattern is easy for the user to re-draw:
+     * each next cell is one of the closest cells which are not used yet.
+     *
+     * @param size
+     *            the size of the pattern to be generated.
+     * @return the packed pattern.
+     * @throws IndexOutOfBoundsException
+     *             if {@code size <= 0} or {@code size > }
+     *             {@link #MATRIX_SIZE}.
+     */
+    public static long genCaptchaPattern(int size)
+            throws IndexOutOfBoundsException {
+        if (size <= 0 || size > MATRIX_SIZE)
+            throw new IndexOutOfBoundsException(
+                    "`size` must be in range [1, `MATRIX_SIZE`]");
+
+        int lastId = Randoms.randInt(MATRIX_SIZE);
+        long result = packCell(lastId, 0);
+
+        for (int count = 1; count < size; count++) {
+            /*
+             * We start from an empty matrix, so there's always a break point to
+             * exit this loop.
+             */
+
+            final int lastRow = lastId / MATRIX_WIDTH;
+            final int lastCol = lastId % MATRIX_WIDTH;
+
+            /*
+             * This is the max available rows/ columns that we can reach from
+             * the cell of `lastId` to the border of the matrix.
+             */
+            final int maxDistance = Math.max(
+                    Math.max(lastRow, MATRIX_WIDTH - lastRow),
+                    Math.max(lastCol, MATRIX_WIDTH - lastCol));
+
+            lastId = -1;
+
+            /*
+             * Starting from `distance` = 1, find the closest-available
+             * neighbour value of the cell [lastRow, lastCol].
+             */
+            for (int distance = 1; distance <= maxDistance; distance++) {
+                /*
+                 * Now we have a square surrounding the current cell. We call it
+                 * ABCD, in which A is top-left, and C is bottom-right.
+                 */
+
+                final int rowA = lastRow - distance;
+                final int colA = lastCol - distance;
+                final int rowC = lastRow + distance;
+                final int colC = lastCol + distance;
+
+                int[] randomValues;
+
+                /*
+                 * Process randomly AB, BC, CD, and DA. Break the loop as soon
+                 * as we find one value.
+                 */
+                final int[] lines = Randoms.randIntArray(4);
+                for (int line : lines) {
+                    switch (line) {
+                    case 0: {
+                        if (rowA >= 0) {
+                            randomValues = Randoms.randIntArray(
+                                    Math.max(0, colA),
+                                    Math.min(MATRIX_WIDTH, colC + 1));
+                            for (int c : randomValues) {
+                                lastId = rowA * MATRIX_WIDTH + c;
+                                if (contains(result, lastId))
+                                    lastId = -1;
+                                else
+                                    break;
+                            }
+                        }
+                        break;
+                    }// AB
+                    case 1: {
+                        if (colC < MATRIX_WIDTH) {
+                            randomValues = Randoms.randIntArray(
+                                    Math.max(0, rowA + 1),
+                                    Math.min(MATRIX_WIDTH, rowC + 1));
+                            for (int r : randomValues) {
+                                lastId = r * MATRIX_WIDTH + colC;
+                                if (contains(result, lastId))
+                                    lastId = -1;
+                                else
+                                    break;
+                            }
+                        }
+                        break;
+                    }// BC
+                    case 2: {
+                        if (rowC < MATRIX_WIDTH) {
+                            randomValues = Randoms.randIntArray(
+                                    Math.max(0, colA),
+                                    Math.min(MATRIX_WIDTH, colC));
+                            for (int c : randomValues) {
+                                lastId = rowC * MATRIX_WIDTH + c;
+                                if (contains(result, lastId))
+                                    lastId = -1;
+                                else
+                                    break;
+                            }
+                        }
+                        break;
+                    }// DC
+                    case 3: {
+                        if (colA >= 0) {
+                            randomValues = Randoms.randIntArray(
+                                    Math.max(0, rowA + 1),
+                                    Math.min(MATRIX_WIDTH, rowC));
+                            for (int r : randomValues) {
+                                lastId = r * MATRIX_WIDTH + colA;
+                                if (contains(result, lastId))
+                                    lastId = -1;
+                                else
+                                    break;
+                            }
+                        }
+                        break;
+                    }// AD
+                    }
+
+                    if (lastId >= 0)
+                        break;
+                }// for line
+
+                if (lastId >= 0)
+                    break;
+            }// for distance
+
+            result |= packCell(lastId, count);
+        }// for
+
+        return result;
+    }// genCaptchaPattern()
+
+    /**
+     * Packs a cell at given index.
+     *
+     * @param id
+     *            the cell ID.
+     * @param index
+     *            the index of the cell in the pattern.
+     * @return the packed cell.
+     * @throws IllegalArgumentException
+     *             if the cell ID is not in the matrix.
+     */
+    private static long packCell(int id, int index) {
+        if (id < 0 || id >= MATRIX_SIZE)
+            throw new IllegalArgumentException("Invalid cell ID: " + id);
+        return (long) (id + 1) << (index * CELL_BITS);
+    }// packCell()
+
+}
@@ -0,0 +1,179 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.android.lockpattern.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link Patterns}. The expected SHA-1 values and string forms were
+ * produced by {@code LockPatternUtils} before it delegated to
+ * {@link Patterns}, so stored patterns stay valid.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class PatternsTest {
+
+    /**
+     * Cell IDs and SHA-1 of the string form, from the old implementation.
+     */
+    private static final Object[][] SHA1_VECTORS = {
+            { new int[] {}, "da39a3ee5e6b4b0d3255bfef95601890afd80709" },
+            { new int[] { 0, 1, 2 }, "0c7a623fd2bbc05b06423be359e4021d36e721ad" },
+            { new int[] { 0, 4, 8 }, "b3f0556b6a3065b2beab4e2006bd5defc8282ab5" },
+            { new int[] { 6, 4, 2, 5, 8 },
+                    "2cac60c0139407010cfadb7ec2b646044c43fb61" },
+            { new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8 },
+                    "63bf60c7105a07a2b125bbf89e61abdabc6978c2" },
+            { new int[] { 8, 7, 6, 5, 4, 3, 2, 1, 0 },
+                    "853822dcee4c6b59d4a9f0c4cdaf97989e29c83a" } };
+
+    @Test
+    public void toSha1MatchesOldImplementation() {
+        for (Object[] vector : SHA1_VECTORS)
+            assertEquals(vector[1], Patterns.toSha1(Patterns
+                    .pack((int[]) vector[0])));
+    }// toSha1MatchesOldImplementation()
+
+    @Test
+    public void sha1WithBuffersMatchesToSha1() {
+        final byte[] buffer = new byte[Patterns.MAX_SIZE];
+        final byte[] output = new byte[Patterns.SHA1_LENGTH];
+        final char[] hex = new char[Patterns.SHA1_LENGTH * 2];
+        for (Object[] vector : SHA1_VECTORS) {
+            Patterns.sha1(Patterns.pack((int[]) vector[0]),
+                    Patterns.newSha1Digest(), buffer, output);
+            Patterns.toHex(output, hex);
+            assertEquals(vector[1], new String(hex));
+        }
+    }// sha1WithBuffersMatchesToSha1()
+
+    @Test
+    public void toStringMatchesOldImplementation() {
+        /*
+         * The old string form is one character per cell, whose value is the
+         * cell ID.
+         */
+        assertEquals("", Patterns.toString(Patterns.pack()));
+        assertEquals("\u0000\u0001\u0002",
+                Patterns.toString(Patterns.pack(0, 1, 2)));
+        assertEquals("\u0006\u0004\u0002\u0005\u0008",
+                Patterns.toString(Patterns.pack(6, 4, 2, 5, 8)));
+    }// toStringMatchesOldImplementation()
+
+    @Test
+    public void fromStringReversesToString() {
+        for (Object[] vector : SHA1_VECTORS) {
+            final long pattern = Patterns.pack((int[]) vector[0]);
+            assertEquals(pattern,
+                    Patterns.fromString(Patterns.toString(pattern)));
+        }
+    }// fromStringReversesToString()
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromStringRejectsInvalidCell() {
+        Patterns.fromString("\u0009");
+    }// fromStringRejectsInvalidCell()
+
+    @Test
+    public void packLayout() {
+        assertEquals(0, Patterns.pack());
+        assertEquals(0x931L, Patterns.pack(0, 2, 8));
+        assertEquals(3, Patterns.size(0x931L));
+        assertEquals(8, Patterns.getCellId(0x931L, 2));
+        assertEquals(-1, Patterns.getCellId(0x931L, 3));
+        assertEquals(0x931L, Patterns.append(Patterns.pack(0, 2), 8));
+        assertTrue(Patterns.contains(0x931L, 2));
+        assertFalse(Patterns.contains(0x931L, 1));
+        assertFalse(Patterns.contains(0xa931L, 9));
+    }// packLayout()
+
+    @Test(expected = IllegalArgumentException.class)
+    public void packRejectsCellOutsideMatrix() {
+        Patterns.pack(0, Patterns.MATRIX_SIZE);
+    }// packRejectsCellOutsideMatrix()
+
+    @Test
+    public void isValid() {
+        assertTrue(Patterns.isValid(0));
+        assertTrue(Patterns.isValid(Patterns.pack(0, 1, 2, 3, 4, 5, 6, 7, 8)));
+
+        /*
+         * Too many cells, a gap, and cell IDs outside the matrix.
+         */
+        assertFalse(Patterns.isValid(-1L));
+        assertFalse(Patterns.isValid(0x901L));
+        assertFalse(Patterns.isValid(0xaL));
+        assertFalse(Patterns.isValid(0x1fL));
+    }// isValid()
+
+    @Test
+    public void gapCellId() {
+        /*
+         * Straight moves over one cell.
+         */
+        assertEquals(1, Patterns.getGapCellId(0, 2));
+        assertEquals(3, Patterns.getGapCellId(0, 6));
+        assertEquals(4, Patterns.getGapCellId(0, 8));
+        assertEquals(4, Patterns.getGapCellId(8, 0));
+        assertEquals(4, Patterns.getGapCellId(2, 6));
+        assertEquals(4, Patterns.getGapCellId(3, 5));
+        assertEquals(4, Patterns.getGapCellId(1, 7));
+        assertEquals(7, Patterns.getGapCellId(6, 8));
+
+        /*
+         * Neighbours and knight moves don't skip any cell.
+         */
+        assertEquals(-1, Patterns.getGapCellId(0, 1));
+        assertEquals(-1, Patterns.getGapCellId(0, 4));
+        assertEquals(-1, Patterns.getGapCellId(0, 5));
+        assertEquals(-1, Patterns.getGapCellId(0, 7));
+    }// gapCellId()
+
+    @Test
+    public void constantTimeEquals() {
+        assertTrue(Patterns.constantTimeEquals(null, null));
+        assertFalse(Patterns.constantTimeEquals("a".toCharArray(), null));
+        assertFalse(Patterns.constantTimeEquals("ab".toCharArray(),
+                "a".toCharArray()));
+        assertFalse(Patterns.constantTimeEquals("ab".toCharArray(),
+                "ac".toCharArray()));
+        assertTrue(Patterns.constantTimeEquals("ab".toCharArray(),
+                "ab".toCharArray()));
+    }// constantTimeEquals()
+
+    @Test
+    public void captchaPattern() {
+        for (int size = 1; size <= Patterns.MATRIX_SIZE; size++) {
+            final long pattern = Patterns.genCaptchaPattern(size);
+            assertEquals(size, Patterns.size(pattern));
+            assertTrue(Patterns.isValid(pattern));
+            for (int id = 0; id < Patterns.MATRIX_SIZE; id++) {
+                int count = 0;
+                for (int i = 0; i < size; i++)
+                    if (Patterns.getCellId(pattern, i) == id)
+                        count++;
+                assertTrue(count <= 1);
+            }
+        }
+    }// captchaPattern()
+
+}
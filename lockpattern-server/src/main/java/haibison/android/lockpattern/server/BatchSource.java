@@ -0,0 +1,44 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.android.lockpattern.server;
+
+import java.io.IOException;
+
+/**
+ * Source of records for {@link BulkVerifier}.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public interface BatchSource {
+
+    /**
+     * Fills a batch with the next records. The batch is empty when this method
+     * is called. It is called from the thread which runs
+     * {@link BulkVerifier#verify(BatchSource, ResultSink)}.
+     *
+     * @param batch
+     *            the batch, add up to {@link VerificationBatch#capacity()}
+     *            records to it.
+     * @return {@code false} if there are no more records after the ones added
+     *         in this call, {@code true} otherwise.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    boolean fill(VerificationBatch batch) throws IOException;
+
+}
@@ -0,0 +1,297 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.android.lockpattern.server;
+
+import haibison.android.lockpattern.server.VerificationBatch.Hasher;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies large streams of patterns against their stored SHA-1 verifiers,
+ * with the same hashing as the Android library (see
+ * {@link haibison.android.lockpattern.core.Patterns#toSha1(long)}).
+ * <p/>
+ * Records are read from a {@link BatchSource} in batches. Each batch is split
+ * into tasks on a work-stealing {@link ForkJoinPool}; each worker thread has
+ * its own message digest and buffers, so verifying a record allocates
+ * nothing. Verified batches are written to a {@link ResultSink} in input
+ * order.
+ * <p/>
+ * The number of batches in flight is bounded, and batches are reused: when
+ * all of them are in use, reading waits for the oldest batch to be verified
+ * and written. So a slow sink or slow workers hold back the source, and
+ * memory use doesn't depend on the size of the stream.
+ * <p/>
+ * One instance can run several streams, one after another or at the same
+ * time. Call {@link #shutdown()} when you no longer need it.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class BulkVerifier {
+
+    /**
+     * Default number of records of a batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 8192;
+
+    /**
+     * Max number of records which a task verifies without splitting.
+     */
+    private static final int LEAF_SIZE = 512;
+
+    private final ForkJoinPool mPool;
+    private final int mBatchSize;
+    private final int mMaxBatchesInFlight;
+
+    private final ThreadLocal<Hasher> mHashers = new ThreadLocal<Hasher>() {
+
+        @Override
+        protected Hasher initialValue() {
+            return new Hasher();
+        }// initialValue()
+
+    };
+
+    /**
+     * Creates new instance, which uses all available processors and
+     * {@link #DEFAULT_BATCH_SIZE}.
+     */
+    public BulkVerifier() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+    }// BulkVerifier()
+
+    /**
+     * Creates new instance.
+     *
+     * @param parallelism
+     *            the number of worker threads.
+     * @param batchSize
+     *            the number of records of a batch.
+     * @throws IllegalArgumentException
+     *             if {@code parallelism <= 0} or {@code batchSize <= 0}.
+     */
+    public BulkVerifier(int parallelism, int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize must be positive");
+
+        mPool = new ForkJoinPool(parallelism);
+        mBatchSize = batchSize;
+
+        /*
+         * Keep the workers busy while the oldest batch is being written, and
+         * the next one is being read.
+         */
+        mMaxBatchesInFlight = parallelism * 2 + 2;
+    }// BulkVerifier()
+
+    /**
+     * Verifies all records of {@code source}, and writes the results to
+     * {@code sink}. The source and the sink are called from the calling
+     * thread only.
+     *
+     * @param source
+     *            the source.
+     * @param sink
+     *            the sink.
+     * @return the statistics of the run.
+     * @throws IOException
+     *             if the source or the sink throws it.
+     * @throws InterruptedException
+     *             if the calling thread is interrupted.
+     */
+    public Stats verify(BatchSource source, ResultSink sink)
+            throws IOException, InterruptedException {
+        final ArrayDeque<VerificationBatch> freeBatches = new ArrayDeque<VerificationBatch>(
+                mMaxBatchesInFlight);
+        for (int i = 0; i < mMaxBatchesInFlight; i++)
+            freeBatches.add(new VerificationBatch(mBatchSize));
+        final ArrayDeque<VerifyTask> tasks = new ArrayDeque<VerifyTask>(
+                mMaxBatchesInFlight);
+
+        final long startTime = System.nanoTime();
+        long records = 0;
+        long matched = 0;
+        boolean hasMoreRecords = true;
+        try {
+            while (hasMoreRecords || !tasks.isEmpty()) {
+                if (hasMoreRecords && !freeBatches.isEmpty()) {
+                    final VerificationBatch batch = freeBatches.poll();
+                    batch.reset(records);
+                    hasMoreRecords = source.fill(batch);
+
+                    if (batch.size() == 0) {
+                        freeBatches.add(batch);
+                        continue;
+                    }
+
+                    records += batch.size();
+                    final VerifyTask task = new VerifyTask(batch, 0,
+                            batch.size());
+                    mPool.execute(task);
+                    tasks.add(task);
+                    continue;
+                }
+
+                /*
+                 * No free batch, or no more records: write the oldest batch.
+                 */
+                final VerifyTask task = tasks.poll();
+                matched += await(task);
+                sink.write(task.batch);
+                freeBatches.add(task.batch);
+            }// while
+        } finally {
+            for (VerifyTask task : tasks)
+                task.cancel(false);
+        }
+
+        return new Stats(records, matched, System.nanoTime() - startTime);
+    }// verify()
+
+    /**
+     * Shuts down the worker threads. Streams which are running are finished
+     * first.
+     */
+    public void shutdown() {
+        mPool.shutdown();
+    }// shutdown()
+
+    /**
+     * Waits for a task.
+     *
+     * @param task
+     *            the task.
+     * @return the number of matched records.
+     * @throws InterruptedException
+     *             if the calling thread is interrupted.
+     */
+    private static int await(VerifyTask task) throws InterruptedException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+    }// await()
+
+    /**
+     * Verifies a range of records of a batch, splitting it if it is large.
+     */
+    private class VerifyTask extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        final VerificationBatch batch;
+        final int from;
+        final int to;
+
+        VerifyTask(VerificationBatch batch, int from, int to) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+        }// VerifyTask()
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= LEAF_SIZE)
+                return batch.verify(from, to, mHashers.get());
+
+            final int middle = (from + to) >>> 1;
+            final VerifyTask left = new VerifyTask(batch, from, middle);
+            left.fork();
+            final int right = new VerifyTask(batch, middle, to).compute();
+            return right + left.join();
+        }// compute()
+
+    }// VerifyTask
+
+    /**
+     * Statistics of a run of {@link BulkVerifier#verify(BatchSource, ResultSink)}.
+     */
+    public static class Stats {
+
+        private final long mRecords;
+        private final long mMatched;
+        private final long mElapsedNanos;
+
+        Stats(long records, long matched, long elapsedNanos) {
+            mRecords = records;
+            mMatched = matched;
+            mElapsedNanos = elapsedNanos;
+        }// Stats()
+
+        /**
+         * Gets the number of verified records.
+         *
+         * @return the number of records.
+         */
+        public long getRecords() {
+            return mRecords;
+        }// getRecords()
+
+        /**
+         * Gets the number of records whose candidate matches the stored
+         * verifier.
+         *
+         * @return the number of matched records.
+         */
+        public long getMatched() {
+            return mMatched;
+        }// getMatched()
+
+        /**
+         * Gets the elapsed time, including reading and writing.
+         *
+         * @param unit
+         *            the time unit.
+         * @return the elapsed time.
+         */
+        public long getElapsedTime(TimeUnit unit) {
+            return unit.convert(mElapsedNanos, TimeUnit.NANOSECONDS);
+        }// getElapsedTime()
+
+        /**
+         * Gets the throughput.
+         *
+         * @return the number of records per second.
+         */
+        public double getRecordsPerSecond() {
+            return mElapsedNanos > 0 ? mRecords * 1e9 / mElapsedNanos : 0;
+        }// getRecordsPerSecond()
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d records, %d matched, %.3f s, %.0f records/s",
+                    mRecords, mMatched, mElapsedNanos / 1e9,
+                    getRecordsPerSecond());
+        }// toString()
+
+    }// Stats
+
+}
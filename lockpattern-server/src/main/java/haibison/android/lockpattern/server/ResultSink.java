@@ -0,0 +1,45 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.android.lockpattern.server;
+
+import java.io.IOException;
+
+/**
+ * Receives the results of {@link BulkVerifier}.
+ * <p/>
+ * Batches arrive in the same order as the source gave them, from the thread
+ * which runs {@link BulkVerifier#verify(BatchSource, ResultSink)}. The engine
+ * reuses each batch after this method returns, so don't keep a reference to
+ * it. While this method runs, no new records are read: a slow sink slows
+ * down the source.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public interface ResultSink {
+
+    /**
+     * Writes the results of a batch.
+     *
+     * @param batch
+     *            the verified batch.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    void write(VerificationBatch batch) throws IOException;
+
+}
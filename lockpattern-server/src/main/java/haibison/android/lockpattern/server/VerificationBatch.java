@@ -0,0 +1,294 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.android.lockpattern.server;
+
+import haibison.android.lockpattern.core.Patterns;
+
+import java.security.MessageDigest;
+
+/**
+ * A batch of verification records for {@link BulkVerifier}. Each record is a
+ * stored verifier (SHA-1 of a pattern, see {@link Patterns#toSha1(long)}) and
+ * a candidate packed pattern. After verification, each record also holds its
+ * result.
+ * <p/>
+ * The data is kept in primitive arrays, and batches are reused by the engine,
+ * so there is no allocation per record.
+ * <p/>
+ * Candidates are not checked when they are added. An invalid packed pattern
+ * (see {@link Patterns#isValid(long)}) never matches.
+ * <p/>
+ * This class is not thread-safe. The engine hands a batch to the
+ * {@link BatchSource}, to its workers and to the {@link ResultSink} in turn,
+ * never at the same time.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class VerificationBatch {
+
+    private final long[] mCandidates;
+    private final byte[] mVerifiers;
+    private final boolean[] mResults;
+    private int mSize;
+    private long mFirstRecord;
+
+    /**
+     * Creates new instance.
+     *
+     * @param capacity
+     *            the max number of records.
+     * @throws IllegalArgumentException
+     *             if {@code capacity <= 0}.
+     */
+    public VerificationBatch(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        mCandidates = new long[capacity];
+        mVerifiers = new byte[capacity * Patterns.SHA1_LENGTH];
+        mResults = new boolean[capacity];
+    }// VerificationBatch()
+
+    /**
+     * Gets the max number of records.
+     *
+     * @return the capacity.
+     */
+    public int capacity() {
+        return mCandidates.length;
+    }// capacity()
+
+    /**
+     * Gets the number of records.
+     *
+     * @return the number of records.
+     */
+    public int size() {
+        return mSize;
+    }// size()
+
+    /**
+     * Checks if the batch is full.
+     *
+     * @return {@code true} or {@code false}.
+     */
+    public boolean isFull() {
+        return mSize == mCandidates.length;
+    }// isFull()
+
+    /**
+     * Gets the index of the first record of this batch in the whole stream.
+     *
+     * @return the index.
+     */
+    public long getFirstRecord() {
+        return mFirstRecord;
+    }// getFirstRecord()
+
+    /**
+     * Adds a record.
+     *
+     * @param sha1
+     *            the array which holds the stored SHA-1, in raw bytes.
+     * @param offset
+     *            the offset of the SHA-1 in {@code sha1}.
+     * @param candidate
+     *            the candidate packed pattern.
+     * @return the index of the record.
+     * @throws IllegalStateException
+     *             if the batch is full.
+     */
+    public int add(byte[] sha1, int offset, long candidate) {
+        final int index = nextIndex();
+        System.arraycopy(sha1, offset, mVerifiers, index
+                * Patterns.SHA1_LENGTH, Patterns.SHA1_LENGTH);
+        mCandidates[index] = candidate;
+        mSize++;
+        return index;
+    }// add()
+
+    /**
+     * Adds a record.
+     *
+     * @param sha1
+     *            the stored SHA-1, in hexadecimal digits, as stored by the
+     *            library.
+     * @param candidate
+     *            the candidate packed pattern.
+     * @return the index of the record.
+     * @throws IllegalStateException
+     *             if the batch is full.
+     * @throws IllegalArgumentException
+     *             if {@code sha1} is not a valid SHA-1.
+     */
+    public int add(CharSequence sha1, long candidate) {
+        if (sha1.length() != Patterns.SHA1_LENGTH * 2)
+            throw new IllegalArgumentException("Invalid SHA-1 length: "
+                    + sha1.length());
+
+        final int index = nextIndex();
+        final int offset = index * Patterns.SHA1_LENGTH;
+        for (int i = 0; i < Patterns.SHA1_LENGTH; i++)
+            mVerifiers[offset + i] = (byte) (hexDigit(sha1.charAt(i * 2)) << 4 | hexDigit(sha1
+                    .charAt(i * 2 + 1)));
+        mCandidates[index] = candidate;
+        mSize++;
+        return index;
+    }// add()
+
+    /**
+     * Gets the candidate pattern of a record.
+     *
+     * @param index
+     *            the index of the record.
+     * @return the candidate packed pattern.
+     */
+    public long getCandidate(int index) {
+        checkIndex(index);
+        return mCandidates[index];
+    }// getCandidate()
+
+    /**
+     * Gets the result of a record.
+     *
+     * @param index
+     *            the index of the record.
+     * @return {@code true} if the candidate matches the stored verifier.
+     */
+    public boolean matches(int index) {
+        checkIndex(index);
+        return mResults[index];
+    }// matches()
+
+    /**
+     * Removes all records.
+     */
+    public void clear() {
+        mSize = 0;
+    }// clear()
+
+    /**
+     * Prepares this batch to be filled with the records which start at given
+     * index of the stream.
+     *
+     * @param firstRecord
+     *            the index of the first record.
+     */
+    void reset(long firstRecord) {
+        mSize = 0;
+        mFirstRecord = firstRecord;
+    }// reset()
+
+    /**
+     * Verifies a range of records.
+     *
+     * @param from
+     *            the first index, inclusive.
+     * @param to
+     *            the last index, exclusive.
+     * @param hasher
+     *            the hasher of the calling thread.
+     * @return the number of matched records.
+     */
+    int verify(int from, int to, Hasher hasher) {
+        int result = 0;
+        for (int i = from; i < to; i++) {
+            /*
+             * An invalid candidate would overflow the buffer of the hasher.
+             */
+            if (!Patterns.isValid(mCandidates[i])) {
+                mResults[i] = false;
+                continue;
+            }
+
+            Patterns.sha1(mCandidates[i], hasher.digest, hasher.buffer,
+                    hasher.sha1);
+
+            /*
+             * Constant time comparison.
+             */
+            final int offset = i * Patterns.SHA1_LENGTH;
+            int diff = 0;
+            for (int j = 0; j < Patterns.SHA1_LENGTH; j++)
+                diff |= hasher.sha1[j] ^ mVerifiers[offset + j];
+
+            mResults[i] = diff == 0;
+            if (diff == 0)
+                result++;
+        }// for
+
+        return result;
+    }// verify()
+
+    /**
+     * Gets the index for a new record.
+     *
+     * @return the index.
+     * @throws IllegalStateException
+     *             if the batch is full.
+     */
+    private int nextIndex() {
+        if (isFull())
+            throw new IllegalStateException("Batch is full");
+        mResults[mSize] = false;
+        return mSize;
+    }// nextIndex()
+
+    /**
+     * Checks an index.
+     *
+     * @param index
+     *            the index.
+     * @throws IndexOutOfBoundsException
+     *             if {@code index} is out of range.
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize)
+            throw new IndexOutOfBoundsException("Index: " + index
+                    + ", size: " + mSize);
+    }// checkIndex()
+
+    /**
+     * Converts a hexadecimal digit.
+     *
+     * @param c
+     *            the digit.
+     * @return the value.
+     * @throws IllegalArgumentException
+     *             if {@code c} is not a hexadecimal digit.
+     */
+    private static int hexDigit(char c) {
+        final int result = Character.digit(c, 16);
+        if (result < 0)
+            throw new IllegalArgumentException("Invalid hexadecimal digit: "
+                    + c);
+        return result;
+    }// hexDigit()
+
+    /**
+     * Buffers of a worker thread.
+     */
+    static class Hasher {
+
+        final MessageDigest digest = Patterns.newSha1Digest();
+        final byte[] buffer = new byte[Patterns.MAX_SIZE];
+        final byte[] sha1 = new byte[Patterns.SHA1_LENGTH];
+
+    }// Hasher
+
+}
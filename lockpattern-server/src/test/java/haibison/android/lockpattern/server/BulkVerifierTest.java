@@ -0,0 +1,242 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.android.lockpattern.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import haibison.android.lockpattern.core.Patterns;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link BulkVerifier} and {@link VerificationBatch}.
+ *
+ * @author Hai Bison
+ * @since v3.2.1 beta
+ */
+public class BulkVerifierTest {
+
+    /**
+     * Patterns used by the tests.
+     */
+    private static final long[] PATTERNS = { Patterns.pack(0, 1, 2),
+            Patterns.pack(0, 4, 8), Patterns.pack(6, 4, 2, 5, 8),
+            Patterns.pack(0, 1, 2, 3, 4, 5, 6, 7, 8) };
+
+    /**
+     * Invalid packed patterns: too many cells, a gap, and cell IDs outside
+     * the matrix.
+     */
+    private static final long[] INVALID_PATTERNS = { -1L, 0x901L, 0xaL,
+            0x1fL, Long.MIN_VALUE };
+
+    /**
+     * Source of {@code count} records. Record {@code i} is stored pattern
+     * {@code i % PATTERNS.length}, and its candidate matches it if {@code i}
+     * is even.
+     */
+    private static class Source implements BatchSource {
+
+        final long count;
+        long next = 0;
+        int batchesRead = 0;
+
+        Source(long count) {
+            this.count = count;
+        }// Source()
+
+        @Override
+        public boolean fill(VerificationBatch batch) throws IOException {
+            batchesRead++;
+            while (!batch.isFull() && next < count) {
+                final int k = (int) (next % PATTERNS.length);
+                final long candidate = next % 2 == 0 ? PATTERNS[k]
+                        : PATTERNS[(k + 1) % PATTERNS.length];
+                batch.add(Patterns.toSha1(PATTERNS[k]), candidate);
+                next++;
+            }
+            return next < count;
+        }// fill()
+
+    }// Source
+
+    /**
+     * Checks that batches come in order, and that results are right for
+     * {@link Source}.
+     */
+    private static class Sink implements ResultSink {
+
+        final Source source;
+        final long delayMillis;
+        long nextRecord = 0;
+        int batchesWritten = 0;
+        int maxBatchesInFlight = 0;
+
+        Sink(Source source, long delayMillis) {
+            this.source = source;
+            this.delayMillis = delayMillis;
+        }// Sink()
+
+        @Override
+        public void write(VerificationBatch batch) throws IOException {
+            maxBatchesInFlight = Math.max(maxBatchesInFlight,
+                    source.batchesRead - batchesWritten);
+            batchesWritten++;
+
+            assertEquals(nextRecord, batch.getFirstRecord());
+            for (int i = 0; i < batch.size(); i++)
+                assertEquals((nextRecord + i) % 2 == 0, batch.matches(i));
+            nextRecord += batch.size();
+
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        }// write()
+
+    }// Sink
+
+    @Test
+    public void resultsComeInOrder() throws Exception {
+        final BulkVerifier verifier = new BulkVerifier(4, 100);
+        try {
+            final Source source = new Source(100000);
+            final Sink sink = new Sink(source, 0);
+            final BulkVerifier.Stats stats = verifier.verify(source, sink);
+
+            assertEquals(100000, stats.getRecords());
+            assertEquals(50000, stats.getMatched());
+            assertEquals(100000, sink.nextRecord);
+        } finally {
+            verifier.shutdown();
+        }
+    }// resultsComeInOrder()
+
+    @Test
+    public void slowSinkHoldsBackSource() throws Exception {
+        final int parallelism = 2;
+        final BulkVerifier verifier = new BulkVerifier(parallelism, 10);
+        try {
+            final Source source = new Source(1000);
+            final Sink sink = new Sink(source, 1);
+            verifier.verify(source, sink);
+
+            /*
+             * BulkVerifier keeps at most parallelism * 2 + 2 batches in
+             * flight.
+             */
+            assertTrue("Batches in flight: " + sink.maxBatchesInFlight,
+                    sink.maxBatchesInFlight <= parallelism * 2 + 2);
+            assertEquals(100, sink.batchesWritten);
+        } finally {
+            verifier.shutdown();
+        }
+    }// slowSinkHoldsBackSource()
+
+    @Test
+    public void invalidCandidatesMismatch() throws Exception {
+        final BulkVerifier verifier = new BulkVerifier(2, 4);
+        try {
+            final long[] matched = { 0 };
+            final BulkVerifier.Stats stats = verifier.verify(
+                    new BatchSource() {
+
+                        int next = 0;
+
+                        @Override
+                        public boolean fill(VerificationBatch batch) {
+                            while (!batch.isFull()
+                                    && next < INVALID_PATTERNS.length * 2) {
+                                /*
+                                 * Invalid candidates, each followed by a
+                                 * valid one which matches.
+                                 */
+                                final long pattern = PATTERNS[next / 2
+                                        % PATTERNS.length];
+                                batch.add(Patterns.toSha1(pattern),
+                                        next % 2 == 0 ? INVALID_PATTERNS[next / 2]
+                                                : pattern);
+                                next++;
+                            }
+                            return next < INVALID_PATTERNS.length * 2;
+                        }// fill()
+
+                    }, new ResultSink() {
+
+                        @Override
+                        public void write(VerificationBatch batch) {
+                            for (int i = 0; i < batch.size(); i++) {
+                                final boolean valid = (batch
+                                        .getFirstRecord() + i) % 2 != 0;
+                                assertEquals(valid, batch.matches(i));
+                                if (batch.matches(i))
+                                    matched[0]++;
+                            }
+                        }// write()
+
+                    });
+
+            assertEquals(INVALID_PATTERNS.length * 2, stats.getRecords());
+            assertEquals(INVALID_PATTERNS.length, stats.getMatched());
+            assertEquals(INVALID_PATTERNS.length, matched[0]);
+        } finally {
+            verifier.shutdown();
+        }
+    }// invalidCandidatesMismatch()
+
+    @Test
+    public void batchAddsRawAndHexVerifiers() {
+        final VerificationBatch batch = new VerificationBatch(2);
+        final byte[] sha1 = new byte[Patterns.SHA1_LENGTH + 1];
+        final byte[] digest = new byte[Patterns.SHA1_LENGTH];
+        Patterns.sha1(PATTERNS[0], Patterns.newSha1Digest(),
+                new byte[Patterns.MAX_SIZE], digest);
+        System.arraycopy(digest, 0, sha1, 1, digest.length);
+
+        assertEquals(0, batch.add(sha1, 1, PATTERNS[0]));
+        assertEquals(1, batch.add(Patterns.toSha1(PATTERNS[1]), PATTERNS[0]));
+        assertTrue(batch.isFull());
+        assertEquals(2, batch.size());
+
+        final int matched = batch.verify(0, batch.size(),
+                new VerificationBatch.Hasher());
+        assertEquals(1, matched);
+        assertTrue(batch.matches(0));
+        assertFalse(batch.matches(1));
+        assertEquals(PATTERNS[0], batch.getCandidate(1));
+    }// batchAddsRawAndHexVerifiers()
+
+    @Test(expected = IllegalStateException.class)
+    public void fullBatchRejectsRecords() {
+        final VerificationBatch batch = new VerificationBatch(1);
+        batch.add(Patterns.toSha1(PATTERNS[0]), PATTERNS[0]);
+        batch.add(Patterns.toSha1(PATTERNS[0]), PATTERNS[0]);
+    }// fullBatchRejectsRecords()
+
+    @Test(expected = IllegalArgumentException.class)
+    public void batchRejectsInvalidHex() {
+        new VerificationBatch(1).add(
+                "zz39a3ee5e6b4b0d3255bfef95601890afd80709", 0);
+    }// batchRejectsInvalidHex()
+
+}
@@ -0,0 +1,74 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.benchmark.lockpattern;
+
+import haibison.android.lockpattern.collect.Lists;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of {@link Lists}.
+ *
+ * @author Hai Bison
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ListsBenchmark {
+
+    /**
+     * Number of elements, from a short pattern to a full {@code 6x6} grid.
+     */
+    @Param({ "4", "9", "36" })
+    public int size;
+
+    private Integer[] mElements;
+
+    @Setup
+    public void setUp() {
+        mElements = new Integer[size];
+        for (int i = 0; i < size; i++)
+            mElements[i] = i;
+    }// setUp()
+
+    @Benchmark
+    public ArrayList<Integer> newArrayList() {
+        return Lists.newArrayList();
+    }// newArrayList()
+
+    @Benchmark
+    public ArrayList<Integer> newArrayListOf() {
+        return Lists.newArrayList(mElements);
+    }// newArrayListOf()
+
+}
@@ -0,0 +1,104 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.benchmark.lockpattern;
+
+import haibison.android.lockpattern.widget.LockPatternUtils;
+import haibison.android.lockpattern.widget.LockPatternView;
+import haibison.android.lockpattern.widget.LockPatternView.Cell;
+import haibison.android.lockpattern.widget.Pattern;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of {@link LockPatternUtils}.
+ * <p/>
+ * The grid of the library is fixed at {@link LockPatternView#MATRIX_WIDTH}
+ * {@code x} {@link LockPatternView#MATRIX_WIDTH}, so only the pattern length
+ * is a parameter here. See {@link RandomsBenchmark} for larger grids.
+ *
+ * @author Hai Bison
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LockPatternUtilsBenchmark {
+
+    @Param({ "4", "6", "9" })
+    public int patternLength;
+
+    private List<Cell> mPattern;
+    private Pattern mPackedPattern;
+    private String mPatternString;
+
+    @Setup
+    public void setUp() {
+        mPattern = new ArrayList<Cell>(patternLength);
+        for (int id = 0; id < patternLength; id++)
+            mPattern.add(Cell.of(id));
+
+        mPackedPattern = Pattern.of(mPattern);
+        mPatternString = LockPatternUtils.patternToString(mPattern);
+    }// setUp()
+
+    @Benchmark
+    public String patternToString() {
+        return LockPatternUtils.patternToString(mPattern);
+    }// patternToString()
+
+    @Benchmark
+    public List<Cell> stringToPattern() {
+        return LockPatternUtils.stringToPattern(mPatternString);
+    }// stringToPattern()
+
+    @Benchmark
+    public String patternToSha1() {
+        return LockPatternUtils.patternToSha1(mPattern);
+    }// patternToSha1()
+
+    @Benchmark
+    public String patternToSha1Packed() {
+        return LockPatternUtils.patternToSha1(mPackedPattern);
+    }// patternToSha1Packed()
+
+    @Benchmark
+    public long patternToLong() {
+        return LockPatternUtils.patternToLong(mPattern);
+    }// patternToLong()
+
+    @Benchmark
+    public List<Cell> genCaptchaPattern() {
+        return LockPatternUtils.genCaptchaPattern(patternLength);
+    }// genCaptchaPattern()
+
+}
@@ -0,0 +1,71 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.benchmark.lockpattern;
+
+import haibison.android.lockpattern.util.Randoms;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of {@link Randoms}.
+ * <p/>
+ * {@link Randoms#randIntArray(int)} shuffles all cells of a grid, so it is
+ * measured with grids of {@code 3x3} to {@code 6x6} cells.
+ *
+ * @author Hai Bison
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RandomsBenchmark {
+
+    /**
+     * Width of the grid.
+     */
+    @Param({ "3", "4", "5", "6" })
+    public int gridWidth;
+
+    @Benchmark
+    public int randInt() {
+        return Randoms.randInt();
+    }// randInt()
+
+    @Benchmark
+    public int randIntBounded() {
+        return Randoms.randInt(gridWidth * gridWidth);
+    }// randIntBounded()
+
+    @Benchmark
+    public int[] randIntArray() {
+        return Randoms.randIntArray(gridWidth * gridWidth);
+    }// randIntArray()
+
+}
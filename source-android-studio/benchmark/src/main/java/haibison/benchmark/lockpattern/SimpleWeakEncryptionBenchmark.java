@@ -0,0 +1,104 @@
+/*
+ *   Copyright 2012 Hai Bison
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package haibison.benchmark.lockpattern;
+
+import haibison.android.lockpattern.util.SimpleWeakEncryption;
+import haibison.android.lockpattern.util.SimpleWeakEncryption.Base36;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of {@link SimpleWeakEncryption} and {@link Base36}.
+ * <p/>
+ * The data is the string form of a pattern (one character per cell, see
+ * {@link haibison.android.lockpattern.widget.LockPatternUtils#patternToString(java.util.List)}),
+ * so its length is the pattern length.
+ *
+ * @author Hai Bison
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SimpleWeakEncryptionBenchmark {
+
+    private static final char[] PASSWORD = "haibison.benchmark.lockpattern"
+            .toCharArray();
+
+    @Param({ "4", "6", "9" })
+    public int patternLength;
+
+    private final byte[] mSalt = new byte[16];
+    private String mData;
+    private String mEncryptedData;
+    private byte[] mSha256;
+    private String mSha256Base36;
+
+    @Setup
+    public void setUp() {
+        final StringBuilder data = new StringBuilder(patternLength);
+        for (int id = 0; id < patternLength; id++)
+            data.append((char) id);
+        mData = data.toString();
+
+        mEncryptedData = SimpleWeakEncryption.encrypt(PASSWORD, mSalt, mData);
+        mSha256 = SimpleWeakEncryption.sha256(mData);
+        mSha256Base36 = Base36.toBase36(mSha256);
+    }// setUp()
+
+    @Benchmark
+    public String encrypt() {
+        return SimpleWeakEncryption.encrypt(PASSWORD, mSalt, mData);
+    }// encrypt()
+
+    @Benchmark
+    public String decrypt() {
+        return SimpleWeakEncryption.decrypt(PASSWORD, mSalt, mEncryptedData);
+    }// decrypt()
+
+    @Benchmark
+    public byte[] sha256() {
+        return SimpleWeakEncryption.sha256(mData);
+    }// sha256()
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String toBase36() {
+        return Base36.toBase36(mSha256);
+    }// toBase36()
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public byte[] toBytes() {
+        return Base36.toBytes(mSha256Base36);
+    }// toBytes()
+
+}